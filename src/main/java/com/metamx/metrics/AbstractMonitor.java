@@ -23,6 +23,7 @@ import com.metamx.emitter.service.ServiceEmitter;
 public abstract class AbstractMonitor implements Monitor
 {
   private volatile boolean started = false;
+  private volatile MonitorTick lastTick = null;
 
   public void start()
   {
@@ -36,13 +37,37 @@ public abstract class AbstractMonitor implements Monitor
 
   @Override
   public boolean monitor(ServiceEmitter emitter)
+  {
+    return monitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean monitor(ServiceEmitter emitter, MonitorTick tick)
   {
     if (started) {
-      return doMonitor(emitter);
+      return doMonitor(emitter, tick);
     }
 
     return false;
   }
 
   public abstract boolean doMonitor(ServiceEmitter emitter);
+
+  /**
+   * @return a tick happening right now, for runs that are not given one by {@link MonitorScheduler}
+   */
+  protected MonitorTick nextTick()
+  {
+    final MonitorTick tick = MonitorTick.next(lastTick);
+    lastTick = tick;
+    return tick;
+  }
+
+  /**
+   * Monitors stamping their events with the tick timestamp override this method, by default the tick is ignored.
+   */
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    return doMonitor(emitter);
+  }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative longs, recorded without locks: a record is an increment of a bucket counter, an add to the
+ * total and a compare-and-set of the max, so recording threads, e. g. the thread delivering GC notifications, are
+ * never blocked. Values are counted in log-linear buckets, exact below 32 and within 1/16 of the value above.
+ *
+ * Counts only grow. {@link #nextInterval()} returns the values recorded since the previous interval, by diffing the
+ * counts with those of the previous interval, so no record is lost to a reset racing with it. Intervals are meant to
+ * be taken by a single reader, e. g. a monitor once per tick.
+ */
+public class AtomicHistogram
+{
+  private static final int EXACT = 32;
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = EXACT + (Long.SIZE - 2 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  static int bucket(long value)
+  {
+    if (value < EXACT) {
+      return (int) Math.max(value, 0);
+    }
+    final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    final int sub = (int) (value >>> shift) - SUB_BUCKETS;
+    return EXACT + (shift - 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * @return the highest value counted in the bucket
+   */
+  static long highestValue(int bucket)
+  {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    final int shift = (bucket - EXACT) / SUB_BUCKETS + 1;
+    final long sub = (bucket - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong intervalMax = new AtomicLong(-1);
+  // State of the reader
+  private final long[] previousCounts = new long[BUCKETS];
+  private long previousTotal = 0;
+
+  public void record(long value)
+  {
+    final long v = Math.max(value, 0);
+    counts.incrementAndGet(bucket(v));
+    total.addAndGet(v);
+    long max = intervalMax.get();
+    while (v > max && !intervalMax.compareAndSet(max, v)) {
+      max = intervalMax.get();
+    }
+  }
+
+  /**
+   * @return the values recorded since the previous call. A value being recorded during the call may be counted in
+   * this interval or the next one, but is never lost.
+   */
+  public synchronized Interval nextInterval()
+  {
+    final long[] intervalCounts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      final long current = counts.get(i);
+      intervalCounts[i] = current - previousCounts[i];
+      previousCounts[i] = current;
+      count += intervalCounts[i];
+    }
+    final long currentTotal = total.get();
+    final long intervalTotal = currentTotal - previousTotal;
+    previousTotal = currentTotal;
+    final long max = intervalMax.getAndSet(-1);
+    return new Interval(intervalCounts, count, intervalTotal, max);
+  }
+
+  public static class Interval
+  {
+    private final long[] counts;
+    private final long count;
+    private final long total;
+    private final long max;
+
+    Interval(long[] counts, long count, long total, long max)
+    {
+      this.counts = counts;
+      this.count = count;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long getCount()
+    {
+      return count;
+    }
+
+    public long getTotal()
+    {
+      return total;
+    }
+
+    /**
+     * @return the highest value recorded, or 0 if there were none
+     */
+    public long getMax()
+    {
+      return Math.max(max, 0);
+    }
+
+    /**
+     * @param percentile within (0, 100], e. g. 99.9
+     *
+     * @return the highest value of the bucket of the percentile, bounded by the max, or 0 if no values were recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return max >= 0 ? Math.min(highestValue(i), max) : highestValue(i);
+        }
+      }
+      return getMax();
+    }
+  }
+}
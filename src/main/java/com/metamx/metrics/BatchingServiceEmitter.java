@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.metamx.emitter.core.Event;
+import com.metamx.emitter.service.ServiceEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers the events a monitor emits during one tick, so that they only reach the actual emitter once the run is over
+ * (see {@link #flush()}): the events of a run which never completes, e. g. cancelled at its deadline, are simply never
+ * flushed. Flushing still emits the events one by one, as {@link ServiceEmitter} has no bulk path. Being a
+ * {@link ServiceEmitter} itself, it works with any {@link Monitor} implementation.
+ *
+ * Not thread-safe, a batch is meant to be written by a single run of a monitor.
+ */
+public class BatchingServiceEmitter extends ServiceEmitter
+{
+  private final ServiceEmitter delegate;
+  private final List<Event> events;
+
+  public BatchingServiceEmitter(ServiceEmitter delegate)
+  {
+    this(delegate, 16);
+  }
+
+  /**
+   * @param expectedSize expected number of events in the batch, e. g. the size of the previous batch of the same
+   *                     monitor
+   */
+  public BatchingServiceEmitter(ServiceEmitter delegate, int expectedSize)
+  {
+    super(delegate.getService(), delegate.getHost(), null);
+    this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    this.events = new ArrayList<>(expectedSize);
+  }
+
+  @Override
+  public void start()
+  {
+  }
+
+  @Override
+  public void emit(Event event)
+  {
+    events.add(event);
+  }
+
+  public int size()
+  {
+    return events.size();
+  }
+
+  /**
+   * Hands all the events collected so far to the delegate emitter, and empties the batch. Doesn't flush the delegate.
+   */
+  @Override
+  public void flush()
+  {
+    for (Event event : events) {
+      delegate.emit(event);
+    }
+    events.clear();
+  }
+
+  @Override
+  public void close()
+  {
+    flush();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.cgroups.CachingCgroupDiscoverer;
+import com.metamx.metrics.cgroups.CgroupDiscoverer;
+import com.metamx.metrics.cgroups.CpuThrottle;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * Emits the CFS throttling of the cpu cgroup of the process, on both cgroup v1 and v2: how many of the enforcement
+ * periods of the tick were throttled, for how long, and the limit in cores the quota amounts to. Throttling explains
+ * latency spikes which cpu usage alone doesn't, as a throttled cgroup doesn't run at all until the next period.
+ */
+public class CgroupCpuThrottleMonitor extends FeedDefiningMonitor
+{
+  private final MetricEventTemplate template;
+  private final CpuThrottle cpuThrottle;
+  private final KeyedLongDiff diff = new KeyedLongDiff(
+      "cgroup/cpu_periods",
+      "cgroup/cpu_throttled_periods",
+      "cgroup/cpu_throttled_ns"
+  );
+  private final long[] values = new long[diff.getSchemaSize()];
+
+  public CgroupCpuThrottleMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public CgroupCpuThrottleMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public CgroupCpuThrottleMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(feed, dimensions, JvmPidDiscoverer.instance(), new CachingCgroupDiscoverer(new ProcCgroupDiscoverer()));
+  }
+
+  public CgroupCpuThrottleMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+    this.cpuThrottle = new CpuThrottle(
+        Preconditions.checkNotNull(cgroupDiscoverer, "cgroupDiscoverer required"),
+        Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required")
+    );
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final CpuThrottle.CpuThrottleMetric snapshot = cpuThrottle.snapshot();
+    if (snapshot == null) {
+      return true;
+    }
+    final DateTime dateTime = tick.getTimestamp();
+    if (snapshot.isLimited()) {
+      emitter.emit(template.build(dateTime, "cgroup/cpu_limit_cores", snapshot.getLimitCores()));
+    }
+    values[0] = snapshot.getPeriods();
+    values[1] = snapshot.getThrottledPeriods();
+    values[2] = snapshot.getThrottledNanos();
+    // Counters reset, e. g. because the cgroup was re-created, suppress the sample
+    final long[] deltas = diff.to("cpu", values);
+    if (deltas != null) {
+      for (int i = 0; i < deltas.length; i++) {
+        emitter.emit(template.build(dateTime, diff.getMetric(i), deltas[i]));
+      }
+      if (deltas[0] > 0) {
+        // [0,1]
+        emitter.emit(template.build(dateTime, "cgroup/cpu_throttled_ratio", (double) deltas[1] / deltas[0]));
+      }
+    }
+    return true;
+  }
+}
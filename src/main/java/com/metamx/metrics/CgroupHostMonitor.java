@@ -0,0 +1,361 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.common.RE;
+import com.metamx.common.logger.Logger;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.cgroups.CgroupDiscoverer;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Host agent counterpart of the cgroup monitors: instead of the cgroups of the monitored process, monitors every child
+ * cgroup of a parent, e. g. "/system.slice" or the root of the containers of mesos, so that a single agent per host
+ * replaces a monitor in each container. Each child is identified by a cgroup dimension, its directory name, and gets
+ * the metrics of {@link CpuAcctDeltaMonitor} (all cpus together), {@link CgroupCpuThrottleMonitor},
+ * {@link CgroupMemoryMonitor}, {@link CgroupIoMonitor} and {@link PressureMonitor}, depending on the {@link Resource}s
+ * monitored.
+ *
+ * Children are listed on every tick, and tracked incrementally: only the names not seen before are checked for being
+ * directories, children which appeared start being monitored (their deltas starting on their second tick), and those
+ * which vanished are forgotten. Each hierarchy is checked for a child once, when it appears, so that with cgroup v1
+ * the resources of a child missing from their hierarchy are not monitored. Children are read by at most parallelism
+ * tasks of the given executor, each of them taking the next child to read until there are none left, and their events
+ * are emitted once all of them are done.
+ */
+public class CgroupHostMonitor extends FeedDefiningMonitor
+{
+  private static final Logger log = new Logger(CgroupHostMonitor.class);
+  private static final String CGROUP_DIMENSION = "cgroup";
+  /**
+   * Children are discovered by path, the pid their monitors are given is ignored
+   */
+  private static final PidDiscoverer NO_PID = () -> 0;
+
+  public enum Resource
+  {
+    CPU("cpuacct"),
+    MEMORY("memory"),
+    IO("blkio"),
+    PRESSURE("cpu");
+
+    private final String controller;
+
+    Resource(String controller)
+    {
+      this.controller = controller;
+    }
+  }
+
+  private final String feed;
+  private final Map<String, String[]> dimensions;
+  private final MetricEventTemplate template;
+  private final String parent;
+  private final Set<Resource> resources;
+  private final ExecutorService executor;
+  private final int parallelism;
+  private final ProcCgroupDiscoverer hierarchies;
+  private final Path sysBlockDir;
+  /**
+   * Roots of the hierarchies, by controller. They don't change as long as the cgroups stay mounted.
+   */
+  private final ConcurrentMap<String, Path> roots = new ConcurrentHashMap<>();
+  private final Map<String, Child> children = new HashMap<>();
+  /**
+   * Names of the entries of the parent which are files, e. g. cgroup.procs, so they are not checked again
+   */
+  private final Set<String> files = new HashSet<>();
+  private int batchSize = 16;
+
+  public CgroupHostMonitor(final String parent)
+  {
+    this(parent, ImmutableMap.of());
+  }
+
+  public CgroupHostMonitor(final String parent, final Map<String, String[]> dimensions)
+  {
+    this(parent, dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public CgroupHostMonitor(final String parent, final Map<String, String[]> dimensions, final String feed)
+  {
+    this(
+        feed,
+        dimensions,
+        parent,
+        EnumSet.allOf(Resource.class),
+        null,
+        1,
+        new ProcCgroupDiscoverer(),
+        Paths.get("/sys/dev/block")
+    );
+  }
+
+  /**
+   * @param parent      path of the parent cgroup in the hierarchies, e. g. "/system.slice"
+   * @param resources   resources to monitor, the children being listed in the hierarchy of the first one in
+   *                    declaration order
+   * @param executor    pool to read the children on. If null, they are read on the thread running the monitor.
+   * @param parallelism maximum number of children read at the same time, and of tasks given to the executor
+   * @param hierarchies discoverer of the roots of the hierarchies
+   * @param sysBlockDir directory of the "major:minor" links to the devices, to name them
+   */
+  public CgroupHostMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      String parent,
+      Set<Resource> resources,
+      ExecutorService executor,
+      int parallelism,
+      ProcCgroupDiscoverer hierarchies,
+      Path sysBlockDir
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    Preconditions.checkNotNull(parent, "parent required");
+    Preconditions.checkArgument(!resources.isEmpty(), "resources required");
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive, got [%s]", parallelism);
+    this.feed = feed;
+    this.dimensions = ImmutableMap.copyOf(dimensions);
+    this.template = template(dimensions);
+    // Relative, so that it's resolved under the root of each hierarchy
+    this.parent = parent.replaceFirst("^/+", "");
+    this.resources = ImmutableSet.copyOf(EnumSet.copyOf(resources));
+    this.executor = executor;
+    this.parallelism = executor == null ? 1 : parallelism;
+    this.hierarchies = Preconditions.checkNotNull(hierarchies, "hierarchies required");
+    this.sysBlockDir = Preconditions.checkNotNull(sysBlockDir, "sysBlockDir required");
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final List<Child> current;
+    try {
+      current = listChildren();
+    }
+    catch (IOException | RuntimeException e) {
+      log.error(e, "Unable to list the cgroups of [%s]", parent);
+      return true;
+    }
+
+    final AtomicInteger next = new AtomicInteger(0);
+    final int tasks = Math.max(1, Math.min(parallelism, current.size()));
+    final List<BatchingServiceEmitter> batches = new ArrayList<>(tasks);
+    final List<Future<?>> futures = new ArrayList<>(tasks);
+    for (int i = 0; i < tasks; i++) {
+      final BatchingServiceEmitter batch = new BatchingServiceEmitter(emitter, batchSize);
+      batches.add(batch);
+      final Runnable task = () -> {
+        for (int j = next.getAndIncrement(); j < current.size(); j = next.getAndIncrement()) {
+          current.get(j).monitor(batch, tick);
+        }
+      };
+      if (executor == null) {
+        task.run();
+      } else {
+        futures.add(executor.submit(task));
+      }
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        for (Future<?> f : futures) {
+          f.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      catch (ExecutionException e) {
+        log.error(e.getCause(), "Unable to monitor the cgroups of [%s]", parent);
+      }
+    }
+    for (BatchingServiceEmitter batch : batches) {
+      batchSize = Math.max(batchSize, batch.size());
+      batch.flush();
+    }
+    emitter.emit(template.build(tick.getTimestamp(), "cgroup/host_cgroups", current.size()));
+    return true;
+  }
+
+  /**
+   * Lists the children of the parent, starting to monitor those which appeared and forgetting those which vanished
+   */
+  private List<Child> listChildren() throws IOException
+  {
+    final Path parentDir = root(resources.iterator().next().controller).resolve(parent);
+    final List<Child> current = new ArrayList<>(children.size());
+    final Set<String> seenFiles = new HashSet<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(parentDir)) {
+      for (Path entry : entries) {
+        final String name = entry.getFileName().toString();
+        Child child = children.get(name);
+        if (child == null) {
+          if (files.contains(name) || !Files.isDirectory(entry)) {
+            seenFiles.add(name);
+            continue;
+          }
+          log.debug("Cgroup [%s] of [%s] appeared", name, parent);
+          child = new Child(name);
+          children.put(name, child);
+        }
+        current.add(child);
+      }
+    }
+    if (current.size() < children.size()) {
+      final Set<String> names = new HashSet<>();
+      for (Child child : current) {
+        names.add(child.name);
+      }
+      children.keySet().retainAll(names);
+    }
+    files.clear();
+    files.addAll(seenFiles);
+    return current;
+  }
+
+  @VisibleForTesting
+  synchronized Set<String> getCgroups()
+  {
+    return ImmutableSet.copyOf(children.keySet());
+  }
+
+  /**
+   * @return the resources monitored of the child, or null if it isn't
+   */
+  @VisibleForTesting
+  synchronized Set<Resource> getResources(String cgroup)
+  {
+    final Child child = children.get(cgroup);
+    return child == null ? null : ImmutableSet.copyOf(child.monitoredResources);
+  }
+
+  private Path root(String controller)
+  {
+    return roots.computeIfAbsent(controller, hierarchies::discoverHierarchy);
+  }
+
+  /**
+   * The monitors of a child cgroup, reading its directory in each hierarchy
+   */
+  private class Child
+  {
+    private final String name;
+    /**
+     * Resources the child has a directory for, checked once when it appears
+     */
+    private final Set<Resource> monitoredResources = EnumSet.noneOf(Resource.class);
+    private final List<AbstractMonitor> monitors = new ArrayList<>();
+
+    Child(String name)
+    {
+      this.name = name;
+      final Map<String, String[]> childDimensions = new HashMap<>(dimensions);
+      childDimensions.put(CGROUP_DIMENSION, new String[]{name});
+      final CgroupDiscoverer discoverer = (controller, pid) -> {
+        final Path dir = dir(controller);
+        if (!Files.isDirectory(dir)) {
+          throw new RE("Cgroup [%s] vanished", dir);
+        }
+        return dir;
+      };
+      // With cgroup v1, a child listed in one hierarchy may be missing from the others. Those resources are not
+      // monitored, rather than failing on every tick.
+      for (Resource resource : resources) {
+        if (exists(resource.controller)) {
+          monitoredResources.add(resource);
+        } else {
+          log.debug("Cgroup [%s] of [%s] is missing from the [%s] hierarchy", name, parent, resource.controller);
+        }
+      }
+      if (monitoredResources.contains(Resource.CPU)) {
+        monitors.add(new CpuAcctDeltaMonitor(feed, childDimensions, NO_PID, discoverer, false));
+        monitors.add(new CgroupCpuThrottleMonitor(feed, childDimensions, NO_PID, discoverer));
+      }
+      if (monitoredResources.contains(Resource.MEMORY)) {
+        monitors.add(new CgroupMemoryMonitor(feed, childDimensions, NO_PID, discoverer));
+      }
+      if (monitoredResources.contains(Resource.IO)) {
+        monitors.add(new CgroupIoMonitor(feed, childDimensions, NO_PID, discoverer, sysBlockDir));
+      }
+      if (monitoredResources.contains(Resource.PRESSURE)) {
+        monitors.add(new PressureMonitor(feed, childDimensions, null, NO_PID, discoverer));
+      }
+    }
+
+    private Path dir(String controller)
+    {
+      return root(controller).resolve(parent).resolve(name);
+    }
+
+    private boolean exists(String controller)
+    {
+      try {
+        return Files.isDirectory(dir(controller));
+      }
+      catch (RuntimeException e) {
+        // The hierarchy isn't mounted
+        log.debug(e, "Unable to discover the [%s] hierarchy", controller);
+        return false;
+      }
+    }
+
+    void monitor(ServiceEmitter emitter, MonitorTick tick)
+    {
+      for (AbstractMonitor monitor : monitors) {
+        try {
+          monitor.doMonitor(emitter, tick);
+        }
+        catch (RuntimeException e) {
+          // E. g. the cgroup vanished while being read
+          log.warn(e, "Unable to monitor cgroup [%s] of [%s]", name, parent);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.cgroups.BlkIo;
+import com.metamx.metrics.cgroups.CachingCgroupDiscoverer;
+import com.metamx.metrics.cgroups.CgroupDiscoverer;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * Emits the per-device I/O of the blkio (v1) or io (v2) cgroup of the process: the deltas of the bytes and operations
+ * read and written on each device, with an ioDevice dimension, the name of the device (e. g. "sda") or its
+ * "major:minor" numbers if it has none. Unlike the per-mount stats of {@link SysMonitor}, which are host totals, these
+ * tell which container keeps a shared device busy. The time stalled on I/O, from io.pressure, is emitted by
+ * {@link PressureMonitor}.
+ */
+public class CgroupIoMonitor extends FeedDefiningMonitor
+{
+  private final MetricEventTemplate template;
+  private final BlkIo blkIo;
+  private final Path sysBlockDir;
+  private final KeyedLongDiff diff = new KeyedLongDiff(
+      "cgroup/io_read_bytes",
+      "cgroup/io_write_bytes",
+      "cgroup/io_reads",
+      "cgroup/io_writes"
+  );
+  private final TickCache<String, MetricEventTemplate> deviceTemplates = new TickCache<>();
+
+  public CgroupIoMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public CgroupIoMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public CgroupIoMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(feed, dimensions, JvmPidDiscoverer.instance(), new CachingCgroupDiscoverer(new ProcCgroupDiscoverer()));
+  }
+
+  public CgroupIoMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer
+  )
+  {
+    this(feed, dimensions, pidDiscoverer, cgroupDiscoverer, Paths.get("/sys/dev/block"));
+  }
+
+  /**
+   * @param sysBlockDir directory of the "major:minor" links to the devices, to name them
+   */
+  public CgroupIoMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer,
+      Path sysBlockDir
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+    this.blkIo = new BlkIo(
+        Preconditions.checkNotNull(cgroupDiscoverer, "cgroupDiscoverer required"),
+        Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required")
+    );
+    this.sysBlockDir = Preconditions.checkNotNull(sysBlockDir, "sysBlockDir required");
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime dateTime = tick.getTimestamp();
+    if (!blkIo.snapshot((device, stats) -> emitDevice(emitter, dateTime, device, stats))) {
+      return true;
+    }
+    diff.retainRecent();
+    deviceTemplates.retainUsed();
+    return true;
+  }
+
+  private void emitDevice(ServiceEmitter emitter, DateTime dateTime, String device, long[] stats)
+  {
+    final long[] deltas = diff.to(device, stats);
+    if (deltas != null) {
+      final MetricEventTemplate deviceTemplate = deviceTemplates.get(
+          device,
+          key -> template.withDimension("ioDevice", deviceName(key))
+      );
+      for (int i = 0; i < deltas.length; i++) {
+        emitter.emit(deviceTemplate.build(dateTime, diff.getMetric(i), deltas[i]));
+      }
+    }
+  }
+
+  /**
+   * @return the name of the device, e. g. "sda" for "8:0", or the device numbers if it can't be resolved
+   */
+  private String deviceName(String device)
+  {
+    try {
+      return sysBlockDir.resolve(device).toRealPath().getFileName().toString();
+    }
+    catch (IOException e) {
+      return device;
+    }
+  }
+}
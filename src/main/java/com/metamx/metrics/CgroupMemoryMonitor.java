@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.cgroups.CachingCgroupDiscoverer;
+import com.metamx.metrics.cgroups.CgroupDiscoverer;
+import com.metamx.metrics.cgroups.Memory;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * Emits the memory of the memory cgroup of the process, on both cgroup v1 and v2: the usage against the limit, the
+ * share of the usage which is page cache, and the deltas of the major page faults, of the times the limit was hit and
+ * of the OOM kills. Heap metrics alone don't explain the OOM kills of a JVM in a container, as the cgroup also
+ * charges it for its off-heap memory and its page cache.
+ */
+public class CgroupMemoryMonitor extends FeedDefiningMonitor
+{
+  private final MetricEventTemplate template;
+  private final Memory memory;
+  private final KeyedLongDiff diff = new KeyedLongDiff(
+      "cgroup/memory_pgmajfault",
+      "cgroup/memory_limit_hits",
+      "cgroup/memory_oom_kills"
+  );
+  private final long[] values = new long[diff.getSchemaSize()];
+
+  public CgroupMemoryMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public CgroupMemoryMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public CgroupMemoryMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(feed, dimensions, JvmPidDiscoverer.instance(), new CachingCgroupDiscoverer(new ProcCgroupDiscoverer()));
+  }
+
+  public CgroupMemoryMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+    this.memory = new Memory(
+        Preconditions.checkNotNull(cgroupDiscoverer, "cgroupDiscoverer required"),
+        Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required")
+    );
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final Memory.MemoryMetric snapshot = memory.snapshot();
+    if (snapshot == null) {
+      return true;
+    }
+    final DateTime dateTime = tick.getTimestamp();
+    final long usage = snapshot.getUsageBytes();
+    emitter.emit(template.build(dateTime, "cgroup/memory_usage_bytes", usage));
+    if (snapshot.isLimited()) {
+      emitter.emit(template.build(dateTime, "cgroup/memory_limit_bytes", snapshot.getLimitBytes()));
+      // [0,1]
+      emitter.emit(template.build(
+          dateTime,
+          "cgroup/memory_usage_ratio",
+          (double) usage / snapshot.getLimitBytes()
+      ));
+    }
+    emitter.emit(template.build(dateTime, "cgroup/memory_cache_bytes", snapshot.getCacheBytes()));
+    emitter.emit(template.build(dateTime, "cgroup/memory_rss_bytes", snapshot.getRssBytes()));
+    emitter.emit(template.build(dateTime, "cgroup/memory_mapped_file_bytes", snapshot.getMappedFileBytes()));
+    if (usage > 0) {
+      // [0,1]
+      emitter.emit(template.build(dateTime, "cgroup/memory_cache_ratio", (double) snapshot.getCacheBytes() / usage));
+    }
+    values[0] = snapshot.getMajorPageFaults();
+    values[1] = snapshot.getLimitHits();
+    values[2] = snapshot.getOomKills();
+    final long[] deltas = diff.to("memory", values);
+    if (deltas != null) {
+      for (int i = 0; i < deltas.length; i++) {
+        emitter.emit(template.build(dateTime, diff.getMetric(i), deltas[i]));
+      }
+    }
+    return true;
+  }
+}
@@ -26,6 +26,7 @@ import java.util.List;
 public abstract class CompoundMonitor implements Monitor
 {
   private final List<Monitor> monitors;
+  private volatile MonitorTick lastTick = null;
 
   public CompoundMonitor(List<Monitor> monitors)
   {
@@ -56,13 +57,22 @@ public abstract class CompoundMonitor implements Monitor
   @Override
   public boolean monitor(final ServiceEmitter emitter)
   {
+    final MonitorTick tick = MonitorTick.next(lastTick);
+    lastTick = tick;
+    return monitor(emitter, tick);
+  }
+
+  @Override
+  public boolean monitor(final ServiceEmitter emitter, final MonitorTick tick)
+  {
+    // All member monitors share the tick, so their events carry the same timestamp
     return shouldReschedule(Lists.transform(monitors,
         new Function<Monitor, Boolean>()
         {
           @Override
           public Boolean apply(Monitor monitor)
           {
-            return monitor.monitor(emitter);
+            return monitor.monitor(emitter, tick);
           }
         }
     ));
@@ -20,7 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.metamx.common.logger.Logger;
 import com.metamx.emitter.service.ServiceEmitter;
-import com.metamx.emitter.service.ServiceMetricEvent;
+import com.metamx.metrics.cgroups.CachingCgroupDiscoverer;
 import com.metamx.metrics.cgroups.CgroupDiscoverer;
 import com.metamx.metrics.cgroups.CpuAcct;
 import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
@@ -32,10 +32,18 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
 {
   private static final Logger log = new Logger(CpuAcctDeltaMonitor.class);
   private final AtomicReference<SnapshotHolder> priorSnapshot = new AtomicReference<>(null);
-  private final Map<String, String[]> dimensions;
+  private final MetricEventTemplate template;
+  /**
+   * usr and sys templates of each cpu, rebuilt if the cpu count changes
+   */
+  private volatile MetricEventTemplate[][] cpuTemplates = new MetricEventTemplate[0][];
+  /**
+   * usr and sys templates of all the cpus together, for cgroup v2 which doesn't account cpu times per cpu
+   */
+  private final MetricEventTemplate[][] aggregatedTemplates;
 
-  private final PidDiscoverer pidDiscoverer;
-  private final CgroupDiscoverer cgroupDiscoverer;
+  private final CpuAcct cpuAcct;
+  private final boolean perCpu;
 
   public CpuAcctDeltaMonitor()
   {
@@ -49,7 +57,7 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
 
   public CpuAcctDeltaMonitor(final Map<String, String[]> dimensions, final String feed)
   {
-    this(feed, dimensions, JvmPidDiscoverer.instance(), new ProcCgroupDiscoverer());
+    this(feed, dimensions, JvmPidDiscoverer.instance(), new CachingCgroupDiscoverer(new ProcCgroupDiscoverer()));
   }
 
   public CpuAcctDeltaMonitor(
@@ -58,21 +66,46 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
       PidDiscoverer pidDiscoverer,
       CgroupDiscoverer cgroupDiscoverer
   )
+  {
+    this(feed, dimensions, pidDiscoverer, cgroupDiscoverer, true);
+  }
+
+  /**
+   * @param perCpu whether to emit the times of each cpu, or only those of all the cpus together, with a cpuName of
+   *               "all", e. g. when monitoring many cgroups on hosts with many cpus
+   */
+  public CpuAcctDeltaMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer,
+      boolean perCpu
+  )
   {
     super(feed);
     Preconditions.checkNotNull(dimensions);
-    this.dimensions = ImmutableMap.copyOf(dimensions);
-    this.pidDiscoverer = Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required");
-    this.cgroupDiscoverer = Preconditions.checkNotNull(cgroupDiscoverer, "cgroupDiscoverer required");
+    this.template = template(dimensions);
+    this.aggregatedTemplates = new MetricEventTemplate[][]{cpuTemplates("all")};
+    this.cpuAcct = new CpuAcct(
+        Preconditions.checkNotNull(cgroupDiscoverer, "cgroupDiscoverer required"),
+        Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required")
+    );
+    this.perCpu = perCpu;
   }
 
   @Override
   public boolean doMonitor(ServiceEmitter emitter)
   {
-    final CpuAcct cpuAcct = new CpuAcct(cgroupDiscoverer, pidDiscoverer);
-    final CpuAcct.CpuAcctMetric snapshot = cpuAcct.snapshot();
-    final long nanoTime = System.nanoTime(); // Approx time... may be influenced by an unlucky GC
-    final DateTime dateTime = new DateTime();
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final CpuAcct.CpuAcctMetric snapshot = perCpu ? cpuAcct.snapshot() : cpuAcct.snapshot().aggregate();
+    // Elapsed time is measured between tick starts, so it's not skewed by how long discovery and reading took
+    final long nanoTime = tick.getNanoTime();
+    final DateTime dateTime = tick.getTimestamp();
     final SnapshotHolder priorSnapshotHolder = this.priorSnapshot.get();
     if (!priorSnapshot.compareAndSet(priorSnapshotHolder, new SnapshotHolder(snapshot, nanoTime))) {
       log.debug("Pre-empted by another monitor run");
@@ -83,7 +116,8 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
       return false;
     }
     final long elapsedNs = nanoTime - priorSnapshotHolder.timestamp;
-    if (snapshot.cpuCount() != priorSnapshotHolder.metric.cpuCount()) {
+    if (snapshot.cpuCount() != priorSnapshotHolder.metric.cpuCount() ||
+        snapshot.isAggregated() != priorSnapshotHolder.metric.isAggregated()) {
       log.warn(
           "Prior CPU count [%d] does not match current cpu count [%d]. Skipping metrics emission",
           priorSnapshotHolder.metric.cpuCount(),
@@ -91,21 +125,22 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
       );
       return false;
     }
+    if (isReset(priorSnapshotHolder.metric, snapshot)) {
+      // E. g. the cgroup was re-created. The new snapshot is already stored as the baseline of the next run.
+      log.warn("CPU time counters were reset. Skipping metrics emission");
+      emitter.emit(template.build(dateTime, "cgroup/cpu_time_delta_ns_suppressed", 1));
+      return true;
+    }
+    final MetricEventTemplate[][] cpuTemplates = snapshot.isAggregated()
+                                                 ? aggregatedTemplates
+                                                 : cpuTemplates(snapshot.cpuCount());
     for (int i = 0; i < snapshot.cpuCount(); ++i) {
-      final ServiceMetricEvent.Builder builderUsr = builder()
-          .setDimension("cpuName", Integer.toString(i))
-          .setDimension("cpuTime", "usr");
-      final ServiceMetricEvent.Builder builderSys = builder()
-          .setDimension("cpuName", Integer.toString(i))
-          .setDimension("cpuTime", "sys");
-      MonitorUtils.addDimensionsToBuilder(builderUsr, dimensions);
-      MonitorUtils.addDimensionsToBuilder(builderSys, dimensions);
-      emitter.emit(builderUsr.build(
+      emitter.emit(cpuTemplates[i][0].build(
           dateTime,
           "cgroup/cpu_time_delta_ns",
           snapshot.usrTime(i) - priorSnapshotHolder.metric.usrTime(i)
       ));
-      emitter.emit(builderSys.build(
+      emitter.emit(cpuTemplates[i][1].build(
           dateTime,
           "cgroup/cpu_time_delta_ns",
           snapshot.sysTime(i) - priorSnapshotHolder.metric.sysTime(i)
@@ -113,11 +148,44 @@ public class CpuAcctDeltaMonitor extends FeedDefiningMonitor
     }
     if (snapshot.cpuCount() > 0) {
       // Don't bother emitting metrics if there aren't actually any cpus (usually from error)
-      emitter.emit(builder().build(dateTime, "cgroup/cpu_time_delta_ns_elapsed", elapsedNs));
+      emitter.emit(template.build(dateTime, "cgroup/cpu_time_delta_ns_elapsed", elapsedNs));
     }
     return true;
   }
 
+  private static boolean isReset(CpuAcct.CpuAcctMetric prior, CpuAcct.CpuAcctMetric current)
+  {
+    for (int i = 0; i < current.cpuCount(); ++i) {
+      if (KeyedLongDiff.counterDelta(prior.usrTime(i), current.usrTime(i), Long.SIZE) == KeyedLongDiff.RESET ||
+          KeyedLongDiff.counterDelta(prior.sysTime(i), current.sysTime(i), Long.SIZE) == KeyedLongDiff.RESET) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private MetricEventTemplate[][] cpuTemplates(int cpuCount)
+  {
+    MetricEventTemplate[][] templates = cpuTemplates;
+    if (templates.length != cpuCount) {
+      templates = new MetricEventTemplate[cpuCount][];
+      for (int i = 0; i < cpuCount; ++i) {
+        templates[i] = cpuTemplates(Integer.toString(i));
+      }
+      cpuTemplates = templates;
+    }
+    return templates;
+  }
+
+  private MetricEventTemplate[] cpuTemplates(String cpuName)
+  {
+    final MetricEventTemplate cpuTemplate = template.withDimension("cpuName", cpuName);
+    return new MetricEventTemplate[]{
+        cpuTemplate.withDimension("cpuTime", "usr"),
+        cpuTemplate.withDimension("cpuTime", "sys")
+    };
+  }
+
   static class SnapshotHolder
   {
     private final CpuAcct.CpuAcctMetric metric;
@@ -18,6 +18,7 @@ package com.metamx.metrics;
 
 import com.google.common.base.Preconditions;
 import com.metamx.emitter.service.ServiceMetricEvent;
+import java.util.Map;
 
 public abstract class FeedDefiningMonitor extends AbstractMonitor
 {
@@ -34,4 +35,9 @@ public abstract class FeedDefiningMonitor extends AbstractMonitor
   {
     return ServiceMetricEvent.builder().setFeed(feed);
   }
+
+  protected MetricEventTemplate template(Map<String, String[]> dimensions)
+  {
+    return new MetricEventTemplate(feed, dimensions);
+  }
 }
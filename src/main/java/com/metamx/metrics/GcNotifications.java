@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.metamx.common.logger.Logger;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Subscribes to the notifications the GarbageCollectorMXBeans of HotSpot send at the end of every collection, with
+ * its duration, cause and the usage of the memory pools before and after it. The consumer is called on the thread
+ * delivering the notifications, which it should not block.
+ */
+class GcNotifications implements NotificationListener
+{
+  private static final Logger log = new Logger(GcNotifications.class);
+
+  private final Consumer<GarbageCollectionNotificationInfo> consumer;
+  private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+  GcNotifications(Consumer<GarbageCollectionNotificationInfo> consumer)
+  {
+    this.consumer = consumer;
+  }
+
+  synchronized void register()
+  {
+    if (!emitters.isEmpty()) {
+      return;
+    }
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (bean instanceof NotificationEmitter) {
+        final NotificationEmitter emitter = (NotificationEmitter) bean;
+        emitter.addNotificationListener(this, null, null);
+        emitters.add(emitter);
+      }
+    }
+    if (emitters.isEmpty()) {
+      log.warn("No GarbageCollectorMXBean sends notifications, GC metrics won't be emitted");
+    }
+  }
+
+  synchronized void unregister()
+  {
+    for (NotificationEmitter emitter : emitters) {
+      try {
+        emitter.removeNotificationListener(this);
+      }
+      catch (ListenerNotFoundException e) {
+        // Unlikely, it was added by register()
+        log.warn(e, "GC notification listener not found");
+      }
+    }
+    emitters.clear();
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback)
+  {
+    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+      consumer.accept(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+    }
+  }
+}
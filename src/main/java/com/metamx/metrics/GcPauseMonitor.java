@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.joda.time.DateTime;
+
+/**
+ * Emits the distribution of the GC pauses of each collector since the previous tick: jvm/gc/pause/max, p50, p99,
+ * p999 and total, in milliseconds, the count of pauses per gcCause, and the bytes reclaimed, i. e. the decrease of
+ * the usage of all the memory pools across the pauses. Unlike the jvm/gc/cpu deltas of {@link JvmMonitor}, which sum
+ * the pauses of a tick, these tell a single long pause from many short ones.
+ *
+ * Pauses are recorded as they happen, from the notifications the JVM sends at the end of every collection, see
+ * {@link GcNotifications}, into an {@link AtomicHistogram} per collector, so recording never blocks the thread
+ * delivering them. Listening starts with {@link #start()} and stops with {@link #stop()}.
+ *
+ * Durations are those of {@link GcInfo}, which for concurrent collectors, e. g. "ConcurrentMarkSweep", "ZGC Cycles"
+ * or "Shenandoah Cycles", are those of whole cycles, mostly concurrent with the application, rather than of pauses.
+ * Those are emitted as jvm/gc/cycle/* instead, so that a long concurrent cycle is never taken for a long pause. The
+ * pauses of ZGC and Shenandoah come from their "ZGC Pauses" and "Shenandoah Pauses" collectors.
+ *
+ * Collectors without pauses during a tick emit nothing.
+ */
+public class GcPauseMonitor extends FeedDefiningMonitor
+{
+  private static final double[] PERCENTILES = {50, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999"};
+  /**
+   * Action of the notifications of whole cycles, e. g. of "ZGC Cycles", as opposed to "end of GC pause"
+   */
+  private static final String CYCLE_ACTION = "end of GC cycle";
+  /**
+   * Collectors whose notifications are of whole collections, concurrent phases included, despite their action
+   */
+  private static final Set<String> CYCLE_COLLECTORS = ImmutableSet.of("ConcurrentMarkSweep");
+
+  private final MetricEventTemplate template;
+  private final GcNotifications notifications = new GcNotifications(this::record);
+  private final ConcurrentMap<String, Collector> collectors = new ConcurrentHashMap<>();
+
+  public GcPauseMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public GcPauseMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public GcPauseMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+  }
+
+  @Override
+  public void start()
+  {
+    notifications.register();
+    super.start();
+  }
+
+  @Override
+  public void stop()
+  {
+    super.stop();
+    notifications.unregister();
+  }
+
+  private void record(GarbageCollectionNotificationInfo info)
+  {
+    final GcInfo gcInfo = info.getGcInfo();
+    final Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+    long reclaimedBytes = 0;
+    for (Map.Entry<String, MemoryUsage> before : gcInfo.getMemoryUsageBeforeGc().entrySet()) {
+      final MemoryUsage poolAfter = after.get(before.getKey());
+      if (poolAfter != null) {
+        reclaimedBytes += before.getValue().getUsed() - poolAfter.getUsed();
+      }
+    }
+    record(info.getGcName(), info.getGcAction(), info.getGcCause(), gcInfo.getDuration(), reclaimedBytes);
+  }
+
+  static boolean isCycle(String gcName, String gcAction)
+  {
+    return CYCLE_COLLECTORS.contains(gcName) || CYCLE_ACTION.equals(gcAction);
+  }
+
+  /**
+   * Records a pause, or a cycle. Lock-free but for the first one of a collector or of a cause.
+   */
+  @VisibleForTesting
+  void record(String gcName, String gcAction, String gcCause, long durationMs, long reclaimedBytes)
+  {
+    Collector collector = collectors.get(gcName);
+    if (collector == null) {
+      collector = collectors.computeIfAbsent(gcName, name -> new Collector(name, isCycle(name, gcAction)));
+    }
+    collector.record(gcCause, durationMs, reclaimedBytes);
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime dateTime = tick.getTimestamp();
+    for (Collector collector : collectors.values()) {
+      collector.emit(emitter, dateTime);
+    }
+    return true;
+  }
+
+  private class Collector
+  {
+    private final MetricEventTemplate collectorTemplate;
+    /**
+     * Names of the metrics, under "jvm/gc/pause/" or "jvm/gc/cycle/": max, percentiles, total, count and reclaimed
+     */
+    private final String maxMetric;
+    private final String[] percentileMetrics = new String[PERCENTILES.length];
+    private final String totalMetric;
+    private final String countMetric;
+    private final String reclaimedMetric;
+    private final AtomicHistogram pauses = new AtomicHistogram();
+    private final ConcurrentMap<String, LongAdder> causeCounts = new ConcurrentHashMap<>();
+    private final LongAdder reclaimedBytes = new LongAdder();
+    // State of the monitor, guarded by it
+    private final Map<String, MetricEventTemplate> causeTemplates = new HashMap<>();
+    private final Map<String, Long> previousCauseCounts = new HashMap<>();
+    private long previousReclaimedBytes = 0;
+
+    Collector(String gcName, boolean cycle)
+    {
+      final String metricPrefix = cycle ? "jvm/gc/cycle/" : "jvm/gc/pause/";
+      this.maxMetric = metricPrefix + "max";
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        percentileMetrics[i] = metricPrefix + PERCENTILE_NAMES[i];
+      }
+      this.totalMetric = metricPrefix + "total";
+      this.countMetric = metricPrefix + "count";
+      this.reclaimedMetric = metricPrefix + "reclaimed";
+      this.collectorTemplate = template
+          .withDimension("gcGen", new String[]{JvmMonitor.OLD_GEN_COLLECTORS.contains(gcName) ? "old" : "young"})
+          .withDimension("gcName", new String[]{JvmMonitor.getReadableName(gcName)});
+    }
+
+    void record(String gcCause, long durationMs, long reclaimed)
+    {
+      pauses.record(durationMs);
+      LongAdder count = causeCounts.get(gcCause);
+      if (count == null) {
+        count = causeCounts.computeIfAbsent(gcCause, cause -> new LongAdder());
+      }
+      count.increment();
+      reclaimedBytes.add(Math.max(reclaimed, 0));
+    }
+
+    void emit(ServiceEmitter emitter, DateTime dateTime)
+    {
+      final AtomicHistogram.Interval interval = pauses.nextInterval();
+      if (interval.getCount() == 0) {
+        return;
+      }
+      emitter.emit(collectorTemplate.build(dateTime, maxMetric, interval.getMax()));
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        emitter.emit(collectorTemplate.build(
+            dateTime,
+            percentileMetrics[i],
+            interval.getValueAtPercentile(PERCENTILES[i])
+        ));
+      }
+      emitter.emit(collectorTemplate.build(dateTime, totalMetric, interval.getTotal()));
+      for (Map.Entry<String, LongAdder> causeCount : causeCounts.entrySet()) {
+        final String cause = causeCount.getKey();
+        final long count = causeCount.getValue().sum();
+        final Long previousCount = previousCauseCounts.put(cause, count);
+        final long delta = previousCount == null ? count : count - previousCount;
+        if (delta > 0) {
+          final MetricEventTemplate causeTemplate = causeTemplates.computeIfAbsent(
+              cause,
+              c -> collectorTemplate.withDimension("gcCause", c)
+          );
+          emitter.emit(causeTemplate.build(dateTime, countMetric, delta));
+        }
+      }
+      final long reclaimed = reclaimedBytes.sum();
+      emitter.emit(collectorTemplate.build(dateTime, reclaimedMetric, reclaimed - previousReclaimedBytes));
+      previousReclaimedBytes = reclaimed;
+    }
+  }
+}
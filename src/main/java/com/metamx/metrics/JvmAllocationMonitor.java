@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.IAE;
+import com.metamx.common.logger.Logger;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import org.joda.time.DateTime;
+
+/**
+ * Emits how fast the application allocates and promotes, the numbers heaps are tuned with, as deltas since the
+ * previous tick and as rates per second: jvm/alloc/bytes and jvm/alloc/rate, the bytes allocated in eden, and
+ * jvm/promotion/bytes and jvm/promotion/rate, the bytes the young collections moved to the old generation.
+ *
+ * Eden is emptied by collections, so the bytes allocated during a tick are the growth of its usage plus the bytes the
+ * collections of the tick collected from it, which come with the notifications the JVM sends at the end of every
+ * collection, see {@link GcNotifications}. Listening starts with {@link #start()} and stops with {@link #stop()}.
+ * Collectors without an eden, e. g. ZGC before JDK 21 or Shenandoah, emit none of these.
+ *
+ * Optionally also emits jvm/threads/alloc/bytes, the bytes allocated by the live threads since the previous tick,
+ * summed by threadName, the names of the threads with digits replaced by '#', so that e. g. the threads of a pool are
+ * grouped. Only groups which allocated are emitted. Bytes allocated by threads which died since the previous tick are
+ * not accounted.
+ */
+public class JvmAllocationMonitor extends FeedDefiningMonitor
+{
+  private static final Logger log = new Logger(JvmAllocationMonitor.class);
+  private static final long NO_TICK = Long.MIN_VALUE;
+
+  private final MetricEventTemplate template;
+  private final GcNotifications notifications = new GcNotifications(this::record);
+  private final String edenPool;
+  private final Set<String> oldPools;
+  private final LongSupplier edenUsed;
+  private final LongAdder edenCollected = new LongAdder();
+  private final LongAdder promoted = new LongAdder();
+  private long previousNanoTime = NO_TICK;
+  private long previousEdenUsed;
+  private long previousEdenCollected;
+  private long previousPromoted;
+
+  private final com.sun.management.ThreadMXBean threadBean;
+  private final TickCache<String, MetricEventTemplate> threadTemplates = new TickCache<>();
+  private Map<Long, Long> threadBytes = null;
+  private Map<Long, Long> nextThreadBytes = new HashMap<>();
+  private final Map<String, Long> threadNameBytes = new HashMap<>();
+
+  public JvmAllocationMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public JvmAllocationMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public JvmAllocationMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(feed, dimensions, true);
+  }
+
+  /**
+   * @param perThread whether to emit the bytes allocated by the threads, which costs the {@link ThreadInfo} of every
+   *                  live thread per tick
+   */
+  public JvmAllocationMonitor(String feed, Map<String, String[]> dimensions, boolean perThread)
+  {
+    this(feed, dimensions, perThread, findEdenPool(), JvmMonitor.getOldGenPools(), null);
+  }
+
+  /**
+   * @param edenUsed usage of eden, read from the MXBean of the eden pool if null
+   */
+  @VisibleForTesting
+  JvmAllocationMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      boolean perThread,
+      String edenPool,
+      Set<String> oldPools,
+      LongSupplier edenUsed
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+    this.edenPool = edenPool;
+    this.oldPools = Preconditions.checkNotNull(oldPools, "oldPools required");
+    if (edenUsed != null || edenPool == null) {
+      this.edenUsed = edenUsed;
+    } else {
+      final MemoryPoolMXBean eden = ManagementFactory
+          .getMemoryPoolMXBeans()
+          .stream()
+          .filter(pool -> pool.getName().equals(edenPool))
+          .findFirst()
+          .orElseThrow(() -> new IAE("Unknown memory pool[%s]", edenPool));
+      this.edenUsed = () -> eden.getUsage().getUsed();
+    }
+    if (this.edenUsed == null) {
+      log.warn("No eden memory pool, allocation and promotion rates won't be emitted");
+    }
+    this.threadBean = perThread ? findThreadBean() : null;
+  }
+
+  private static String findEdenPool()
+  {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getName().contains("Eden")) {
+        return pool.getName();
+      }
+    }
+    return null;
+  }
+
+  private static com.sun.management.ThreadMXBean findThreadBean()
+  {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      log.warn("ThreadMXBean doesn't account allocated bytes, per thread allocations won't be emitted");
+      return null;
+    }
+    final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+      log.warn("Thread allocated memory is disabled, per thread allocations won't be emitted");
+      return null;
+    }
+    return threadBean;
+  }
+
+  @Override
+  public void start()
+  {
+    if (edenUsed != null) {
+      notifications.register();
+    }
+    super.start();
+  }
+
+  @Override
+  public void stop()
+  {
+    super.stop();
+    notifications.unregister();
+  }
+
+  private void record(GarbageCollectionNotificationInfo info)
+  {
+    final GcInfo gcInfo = info.getGcInfo();
+    final Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+    final Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+    long oldBefore = 0;
+    long oldAfter = 0;
+    for (String oldPool : oldPools) {
+      oldBefore += used(before, oldPool);
+      oldAfter += used(after, oldPool);
+    }
+    record(
+        !JvmMonitor.OLD_GEN_COLLECTORS.contains(info.getGcName()),
+        used(before, edenPool),
+        used(after, edenPool),
+        oldBefore,
+        oldAfter
+    );
+  }
+
+  private static long used(Map<String, MemoryUsage> usages, String pool)
+  {
+    final MemoryUsage usage = usages.get(pool);
+    return usage == null ? 0 : usage.getUsed();
+  }
+
+  /**
+   * Records the usage of eden and of the old generation before and after a collection. Called on the thread
+   * delivering the notifications, so lock-free.
+   */
+  @VisibleForTesting
+  void record(boolean young, long edenBefore, long edenAfter, long oldBefore, long oldAfter)
+  {
+    edenCollected.add(Math.max(edenBefore - edenAfter, 0));
+    if (young) {
+      // Old collections, and mixed collections of G1, may shrink the old generation, nothing was promoted then
+      promoted.add(Math.max(oldAfter - oldBefore, 0));
+    }
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime dateTime = tick.getTimestamp();
+    if (edenUsed != null) {
+      emitAllocation(emitter, dateTime, tick.getNanoTime());
+    }
+    if (threadBean != null) {
+      emitThreadAllocation(emitter, dateTime);
+    }
+    return true;
+  }
+
+  private void emitAllocation(ServiceEmitter emitter, DateTime dateTime, long nanoTime)
+  {
+    final long used = edenUsed.getAsLong();
+    final long collected = edenCollected.sum();
+    final long promotedBytes = promoted.sum();
+    if (previousNanoTime != NO_TICK) {
+      final long allocated = used - previousEdenUsed + collected - previousEdenCollected;
+      if (allocated < 0) {
+        // A collection emptied eden but its notification wasn't delivered yet, keep the baseline until it is
+        log.debug("Eden usage decreased by [%d] bytes more than collected, skipping emission", -allocated);
+        return;
+      }
+      final long elapsedNs = nanoTime - previousNanoTime;
+      final long promotedDelta = promotedBytes - previousPromoted;
+      emitter.emit(template.build(dateTime, "jvm/alloc/bytes", allocated));
+      emitter.emit(template.build(dateTime, "jvm/alloc/rate", perSecond(allocated, elapsedNs)));
+      emitter.emit(template.build(dateTime, "jvm/promotion/bytes", promotedDelta));
+      emitter.emit(template.build(dateTime, "jvm/promotion/rate", perSecond(promotedDelta, elapsedNs)));
+    }
+    previousNanoTime = nanoTime;
+    previousEdenUsed = used;
+    previousEdenCollected = collected;
+    previousPromoted = promotedBytes;
+  }
+
+  private static long perSecond(long bytes, long elapsedNs)
+  {
+    return elapsedNs > 0 ? (long) ((double) bytes * TimeUnit.SECONDS.toNanos(1) / elapsedNs) : 0;
+  }
+
+  private void emitThreadAllocation(ServiceEmitter emitter, DateTime dateTime)
+  {
+    final long[] ids = threadBean.getAllThreadIds();
+    final ThreadInfo[] infos = threadBean.getThreadInfo(ids);
+    final long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+    for (int i = 0; i < ids.length; i++) {
+      // Threads which died in between
+      if (infos[i] == null || bytes[i] < 0) {
+        continue;
+      }
+      nextThreadBytes.put(ids[i], bytes[i]);
+      if (threadBytes != null) {
+        // Threads started since the previous tick allocated all their bytes during the tick
+        final Long previousBytes = threadBytes.get(ids[i]);
+        final long delta = previousBytes == null ? bytes[i] : bytes[i] - previousBytes;
+        threadNameBytes.merge(getThreadName(infos[i].getThreadName()), delta, Long::sum);
+      }
+    }
+    for (Map.Entry<String, Long> entry : threadNameBytes.entrySet()) {
+      if (entry.getValue() > 0) {
+        final MetricEventTemplate threadTemplate = threadTemplates.get(
+            entry.getKey(),
+            name -> template.withDimension("threadName", name)
+        );
+        emitter.emit(threadTemplate.build(dateTime, "jvm/threads/alloc/bytes", entry.getValue()));
+      }
+    }
+    threadNameBytes.clear();
+    threadTemplates.retainUsed();
+    final Map<Long, Long> swapped = threadBytes == null ? new HashMap<>() : threadBytes;
+    threadBytes = nextThreadBytes;
+    nextThreadBytes = swapped;
+    nextThreadBytes.clear();
+  }
+
+  /**
+   * @return the name with its runs of digits replaced by '#', e. g. "pool-#-thread-#" for "pool-1-thread-12"
+   */
+  static String getThreadName(String name)
+  {
+    final StringBuilder group = new StringBuilder(name.length());
+    boolean digits = false;
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (!digits) {
+          group.append('#');
+        }
+        digits = true;
+      } else {
+        group.append(c);
+        digits = false;
+      }
+    }
+    return group.toString();
+  }
+}
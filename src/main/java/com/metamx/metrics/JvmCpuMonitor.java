@@ -21,22 +21,22 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.metamx.common.logger.Logger;
 import com.metamx.emitter.service.ServiceEmitter;
-import com.metamx.emitter.service.ServiceMetricEvent;
 import java.util.Map;
 import org.hyperic.sigar.ProcCpu;
-import org.hyperic.sigar.Sigar;
 import org.hyperic.sigar.SigarException;
+import org.joda.time.DateTime;
 
 public class JvmCpuMonitor extends FeedDefiningMonitor
 {
   private static final Logger log = new Logger(JvmCpuMonitor.class);
 
-  private final Sigar sigar = SigarUtil.getSigar();
-  private final long currentProcessId = sigar.getPid();
+  private final SigarSession sigar = SigarSession.instance();
+  private final long currentProcessId = SigarUtil.getCurrentProcessId();
 
-  private final KeyedDiff diff = new KeyedDiff();
+  private final KeyedLongDiff diff = new KeyedLongDiff("jvm/cpu/total", "jvm/cpu/sys", "jvm/cpu/user");
+  private final long[] values = new long[diff.getSchemaSize()];
 
-  private Map<String, String[]> dimensions;
+  private final MetricEventTemplate template;
 
   public JvmCpuMonitor()
   {
@@ -52,35 +52,47 @@ public class JvmCpuMonitor extends FeedDefiningMonitor
   {
     super(feed);
     Preconditions.checkNotNull(dimensions);
-    this.dimensions = ImmutableMap.copyOf(dimensions);
+    this.template = template(dimensions);
   }
 
   @Override
   public boolean doMonitor(ServiceEmitter emitter)
   {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime timestamp = tick.getTimestamp();
     // process CPU
     try {
-      ProcCpu procCpu = sigar.getProcCpu(currentProcessId);
-      final ServiceMetricEvent.Builder builder = builder();
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+      ProcCpu procCpu = sigar.call(s -> s.getProcCpu(currentProcessId));
       // delta for total, sys, user
-      Map<String, Long> procDiff = diff.to(
-          "proc/cpu", ImmutableMap.of(
-              "jvm/cpu/total", procCpu.getTotal(),
-              "jvm/cpu/sys", procCpu.getSys(),
-              "jvm/cpu/user", procCpu.getUser()
-          )
-      );
-      if (procDiff != null) {
-        for (Map.Entry<String, Long> entry : procDiff.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
+      values[0] = procCpu.getTotal();
+      values[1] = procCpu.getSys();
+      values[2] = procCpu.getUser();
+      final long[] deltas = diff.to("proc/cpu", values);
+      if (deltas != null) {
+        for (int i = 0; i < deltas.length; i++) {
+          emitter.emit(template.build(timestamp, diff.getMetric(i), deltas[i]));
         }
       }
-      emitter.emit(builder.build("jvm/cpu/percent", procCpu.getPercent()));
+      emitter.emit(template.build(timestamp, "jvm/cpu/percent", procCpu.getPercent()));
     }
     catch (SigarException e) {
       log.error(e, "Failed to get ProcCpu");
     }
     return true;
   }
+
+  /**
+   * Releases the shared Sigar handle, which is re-opened if monitors still use it
+   */
+  @Override
+  public void stop()
+  {
+    super.stop();
+    sigar.close();
+  }
 }
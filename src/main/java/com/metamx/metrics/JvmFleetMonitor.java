@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.common.logger.Logger;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.perfdata.PerfData;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.joda.time.DateTime;
+
+/**
+ * Host agent counterpart of {@link JvmMonitor} and {@link JvmThreadsMonitor}: emits the GC metrics, the usage of the
+ * spaces of the heap and the thread counts of every JVM of the host, read from their hsperfdata files, with pid and
+ * mainClass dimensions. A single agent then covers the JVMs which don't embed a monitor.
+ *
+ * The hsperfdata directories of all the users are listed on every tick. The files of JVMs not seen before are mapped
+ * once the JVMs are done initializing, those of JVMs which exited are dropped, and a pid reused by a new JVM is told
+ * apart by the identity of its file. Deltas of a JVM start from the tick it was first seen at. Files left behind by
+ * JVMs which crashed are skipped, if procfs has no such process. Reading the files of the JVMs of other users requires
+ * their permissions, e. g. running as root.
+ */
+public class JvmFleetMonitor extends FeedDefiningMonitor
+{
+  private static final Logger log = new Logger(JvmFleetMonitor.class);
+
+  private final MetricEventTemplate template;
+  private final Path tmpDir;
+  private final Path procDir;
+  private final Map<Path, Jvm> jvms = new HashMap<>();
+
+  public JvmFleetMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public JvmFleetMonitor(Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public JvmFleetMonitor(Map<String, String[]> dimensions, String feed)
+  {
+    this(feed, dimensions, PerfData.TMP_DIR, Paths.get("/proc"));
+  }
+
+  /**
+   * @param tmpDir  directory of the hsperfdata directories of the users, {@link PerfData#TMP_DIR} on the host
+   * @param procDir procfs to check that the pids of the files are alive, or null to trust the files, e. g. if they are
+   *                those of JVMs in other pid namespaces
+   */
+  public JvmFleetMonitor(String feed, Map<String, String[]> dimensions, Path tmpDir, Path procDir)
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    this.template = template(dimensions);
+    this.tmpDir = Preconditions.checkNotNull(tmpDir, "tmpDir required");
+    this.procDir = procDir;
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime timestamp = tick.getTimestamp();
+    final Set<Path> seen = new HashSet<>();
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(tmpDir, PerfData.DIRECTORY_PREFIX + "*")) {
+      for (Path dir : dirs) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+          for (Path file : files) {
+            final Jvm jvm = getJvm(file);
+            if (jvm != null) {
+              seen.add(file);
+              jvm.emit(emitter, timestamp);
+            }
+          }
+        }
+        catch (IOException e) {
+          // E. g. the directory of another user, without the permissions to read it
+          log.debug(e, "Unable to list [%s]", dir);
+        }
+      }
+    }
+    catch (IOException e) {
+      log.error(e, "Unable to list [%s]", tmpDir);
+      return true;
+    }
+    jvms.keySet().retainAll(seen);
+    emitter.emit(template.build(timestamp, "jvm/fleet/count", jvms.size()));
+    return true;
+  }
+
+  @VisibleForTesting
+  Path getTmpDir()
+  {
+    return tmpDir;
+  }
+
+  @VisibleForTesting
+  synchronized Set<Long> getPids()
+  {
+    final Set<Long> pids = new HashSet<>();
+    for (Jvm jvm : jvms.values()) {
+      pids.add(jvm.pid);
+    }
+    return ImmutableSet.copyOf(pids);
+  }
+
+  /**
+   * @return the JVM of the file, mapping the file if it's new, or null if it's not the file of a live JVM done
+   * initializing
+   */
+  private Jvm getJvm(Path file)
+  {
+    final String name = file.getFileName().toString();
+    if (name.isEmpty() || !name.chars().allMatch(Character::isDigit)) {
+      return null;
+    }
+    final long pid = Long.parseLong(name);
+    if (procDir != null && Files.isDirectory(procDir) && !Files.exists(procDir.resolve(name))) {
+      return null;
+    }
+    try {
+      final Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+      Jvm jvm = jvms.get(file);
+      if (jvm == null || !Objects.equals(jvm.fileKey, fileKey)) {
+        jvms.remove(file);
+        final PerfData perfData = PerfData.map(file);
+        if (!perfData.isAccessible()) {
+          return null;
+        }
+        jvm = new Jvm(pid, fileKey, perfData);
+        jvms.put(file, jvm);
+        log.debug("Monitoring JVM [%d] of [%s]", pid, file);
+      }
+      return jvm;
+    }
+    catch (IOException | RuntimeException e) {
+      // E. g. the JVM exited, or its file is not readable
+      log.debug(e, "Unable to read [%s]", file);
+      return null;
+    }
+  }
+
+  /**
+   * @return the main class of the command line, or the jar file name for "-jar" command lines, like jps
+   */
+  @VisibleForTesting
+  static String getMainClass(String javaCommand)
+  {
+    if (javaCommand == null || javaCommand.trim().isEmpty()) {
+      return "unknown";
+    }
+    final String main = javaCommand.trim().split("\\s+", 2)[0];
+    if (main.endsWith(".jar")) {
+      return Paths.get(main).getFileName().toString();
+    }
+    return main;
+  }
+
+  private class Jvm
+  {
+    private final long pid;
+    private final Object fileKey;
+    private final MetricEventTemplate template;
+    private final PerfData perfData;
+    private final PerfDataGcCounters gcCounters;
+    private final int liveThreadsOffset;
+    private final int daemonThreadsOffset;
+    private final int startedThreadsOffset;
+    private long lastStartedThreads;
+
+    Jvm(long pid, Object fileKey, PerfData perfData)
+    {
+      this.pid = pid;
+      this.fileKey = fileKey;
+      this.template = JvmFleetMonitor.this.template
+          .withDimension("pid", Long.toString(pid))
+          .withDimension("mainClass", getMainClass(perfData.getString("sun.rt.javaCommand")));
+      this.perfData = perfData;
+      this.gcCounters = new PerfDataGcCounters(perfData, template, true);
+      this.liveThreadsOffset = perfData.offset("java.threads.live");
+      this.daemonThreadsOffset = perfData.offset("java.threads.daemon");
+      this.startedThreadsOffset = perfData.offset("java.threads.started");
+      this.lastStartedThreads = perfData.getLong(startedThreadsOffset);
+    }
+
+    void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      gcCounters.emit(emitter, timestamp);
+
+      emitter.emit(template.build(timestamp, "jvm/threads/live", perfData.getLong(liveThreadsOffset)));
+      emitter.emit(template.build(timestamp, "jvm/threads/liveDaemon", perfData.getLong(daemonThreadsOffset)));
+      final long startedThreads = perfData.getLong(startedThreadsOffset);
+      emitter.emit(template.build(timestamp, "jvm/threads/started", startedThreads - lastStartedThreads));
+      lastStartedThreads = startedThreads;
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.metamx.common.logger.Logger;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+
+/**
+ * Tracks the live set of each old generation pool, i. e. its usage right after the collections of the old generation,
+ * rather than the sawtooth of the heap usage, and its trend, to tell a leak hours before it exhausts the pool. Emits,
+ * with a poolName dimension, on every tick once the pool was collected:
+ *
+ * - jvm/liveset/bytes, the usage after the latest collection,
+ * - jvm/liveset/slope, the growth of the live set in bytes per hour, averaged over time with an exponential weight,
+ *   once the pool was collected twice,
+ * - jvm/liveset/exhaustion_s, the seconds until the live set reaches the max of the pool at that slope, if growing and
+ *   the pool has a max.
+ *
+ * Usages come with the notifications the JVM sends at the end of every collection, see {@link GcNotifications}, so
+ * every collection is sampled at the time it ended, however many happen during a tick. Listening starts with
+ * {@link #start()} and stops with {@link #stop()}.
+ *
+ * Collectors are sampled in one of two ways. Those which collect the whole old generation, the old generation
+ * collectors of {@link JvmMonitor#OLD_GEN_COLLECTORS} and the cycles of ZGC and Shenandoah by default, are sampled
+ * after every collection. Mixed collectors, which only collect the old generation now and then, "G1 Young Generation"
+ * by default, are sampled at the end of each run of collections shrinking it, i. e. at the lowest usage before it
+ * grows again: with G1, at the end of the mixed collections following a concurrent marking, which would otherwise
+ * only be sampled by its rare full collections.
+ *
+ * A warning is logged when none of the collectors of the JVM are sampled, as nothing would be emitted.
+ */
+public class JvmLiveSetMonitor extends FeedDefiningMonitor
+{
+  private static final Logger log = new Logger(JvmLiveSetMonitor.class);
+
+  public static final long DEFAULT_SLOPE_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+  public static final Set<String> DEFAULT_COLLECTORS = ImmutableSet.<String>builder()
+      .addAll(JvmMonitor.OLD_GEN_COLLECTORS)
+      .add("ZGC Cycles", "ZGC Major Cycles", "Shenandoah Cycles")
+      .build();
+  public static final Set<String> DEFAULT_MIXED_COLLECTORS = ImmutableSet.of("G1 Young Generation");
+  private static final double MILLIS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final MetricEventTemplate template;
+  private final GcNotifications notifications = new GcNotifications(this::record);
+  private final Set<String> collectors;
+  private final Set<String> mixedCollectors;
+  private final Set<String> pools;
+  private final double slopeWindowMillis;
+  private final ConcurrentMap<String, Pool> liveSets = new ConcurrentHashMap<>();
+
+  public JvmLiveSetMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public JvmLiveSetMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public JvmLiveSetMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(feed, dimensions, DEFAULT_COLLECTORS, DEFAULT_MIXED_COLLECTORS, DEFAULT_SLOPE_WINDOW_MILLIS);
+  }
+
+  /**
+   * @param collectors        names of the GarbageCollectorMXBeans sampled after every collection
+   * @param mixedCollectors   names of the GarbageCollectorMXBeans sampled at the end of each run of collections
+   *                          shrinking the old generation
+   * @param slopeWindowMillis time constant of the exponentially weighted slope: slopes older than that weigh less
+   *                          than 1/e of the latest one
+   */
+  public JvmLiveSetMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      Set<String> collectors,
+      Set<String> mixedCollectors,
+      long slopeWindowMillis
+  )
+  {
+    this(feed, dimensions, collectors, mixedCollectors, slopeWindowMillis, JvmMonitor.getOldGenPools());
+  }
+
+  @VisibleForTesting
+  JvmLiveSetMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      Set<String> collectors,
+      Set<String> mixedCollectors,
+      long slopeWindowMillis,
+      Set<String> pools
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    Preconditions.checkArgument(slopeWindowMillis > 0, "slopeWindowMillis must be positive");
+    this.template = template(dimensions);
+    this.collectors = ImmutableSet.copyOf(collectors);
+    this.mixedCollectors = ImmutableSet.copyOf(mixedCollectors);
+    Preconditions.checkArgument(
+        Sets.intersection(this.collectors, this.mixedCollectors).isEmpty(),
+        "collectors and mixedCollectors must be disjoint"
+    );
+    this.pools = ImmutableSet.copyOf(pools);
+    this.slopeWindowMillis = slopeWindowMillis;
+  }
+
+  @Override
+  public void start()
+  {
+    final boolean sampled = ManagementFactory.getGarbageCollectorMXBeans()
+                                             .stream()
+                                             .map(GarbageCollectorMXBean::getName)
+                                             .anyMatch(name -> collectors.contains(name) ||
+                                                               mixedCollectors.contains(name));
+    if (!sampled) {
+      log.warn(
+          "None of the collectors of the JVM is sampled, among %s and %s, live sets won't be emitted",
+          collectors,
+          mixedCollectors
+      );
+    }
+    notifications.register();
+    super.start();
+  }
+
+  @Override
+  public void stop()
+  {
+    super.stop();
+    notifications.unregister();
+  }
+
+  private void record(GarbageCollectionNotificationInfo info)
+  {
+    final boolean mixed = mixedCollectors.contains(info.getGcName());
+    if (!mixed && !collectors.contains(info.getGcName())) {
+      return;
+    }
+    final GcInfo gcInfo = info.getGcInfo();
+    for (Map.Entry<String, MemoryUsage> entry : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+      if (pools.contains(entry.getKey())) {
+        final MemoryUsage usage = entry.getValue();
+        if (mixed) {
+          recordMixed(entry.getKey(), gcInfo.getEndTime(), usage.getUsed(), usage.getMax());
+        } else {
+          record(entry.getKey(), gcInfo.getEndTime(), usage.getUsed(), usage.getMax());
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the usage of a pool after a collection. Called by the single thread delivering the notifications, so the
+   * latest live set of the pool is replaced without locking.
+   *
+   * @param endTimeMillis time the collection ended at, in milliseconds since an arbitrary origin, e. g. the start of
+   *                      the JVM
+   * @param max           max of the pool, or -1 if undefined
+   */
+  @VisibleForTesting
+  void record(String poolName, long endTimeMillis, long used, long max)
+  {
+    final Pool pool = pool(poolName);
+    pool.liveSet = LiveSet.next(pool.liveSet, endTimeMillis, used, max, slopeWindowMillis);
+  }
+
+  /**
+   * Records the usage of a pool after a collection of a mixed collector, the lowest usage of each run of collections
+   * shrinking the pool being recorded once the pool grows again.
+   */
+  @VisibleForTesting
+  void recordMixed(String poolName, long endTimeMillis, long used, long max)
+  {
+    final Pool pool = pool(poolName);
+    if (pool.shrinking && used > pool.lastMixedUsed) {
+      // The previous collection ended a run shrinking the pool
+      pool.liveSet = LiveSet.next(pool.liveSet, pool.lastMixedTimeMillis, pool.lastMixedUsed, max, slopeWindowMillis);
+    }
+    pool.shrinking = pool.hasMixed && used < pool.lastMixedUsed || pool.shrinking && used == pool.lastMixedUsed;
+    pool.hasMixed = true;
+    pool.lastMixedTimeMillis = endTimeMillis;
+    pool.lastMixedUsed = used;
+  }
+
+  private Pool pool(String poolName)
+  {
+    final Pool pool = liveSets.get(poolName);
+    if (pool != null) {
+      return pool;
+    }
+    return liveSets.computeIfAbsent(poolName, name -> new Pool(template.withDimension("poolName", name)));
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime dateTime = tick.getTimestamp();
+    for (Pool pool : liveSets.values()) {
+      final LiveSet liveSet = pool.liveSet;
+      if (liveSet == null) {
+        // Only sampled by a mixed collector, which didn't end a run yet
+        continue;
+      }
+      emitter.emit(pool.template.build(dateTime, "jvm/liveset/bytes", liveSet.bytes));
+      if (liveSet.samples < 2) {
+        continue;
+      }
+      emitter.emit(pool.template.build(dateTime, "jvm/liveset/slope", (long) liveSet.slopePerHour));
+      if (liveSet.slopePerHour > 0 && liveSet.max >= 0) {
+        final double hours = Math.max(liveSet.max - liveSet.bytes, 0) / liveSet.slopePerHour;
+        emitter.emit(pool.template.build(
+            dateTime,
+            "jvm/liveset/exhaustion_s",
+            (long) (hours * TimeUnit.HOURS.toSeconds(1))
+        ));
+      }
+    }
+    return true;
+  }
+
+  private static class Pool
+  {
+    private final MetricEventTemplate template;
+    private volatile LiveSet liveSet = null;
+    // Latest collection of a mixed collector, only used by the thread delivering the notifications
+    private boolean hasMixed = false;
+    private boolean shrinking = false;
+    private long lastMixedTimeMillis;
+    private long lastMixedUsed;
+
+    Pool(MetricEventTemplate template)
+    {
+      this.template = template;
+    }
+  }
+
+  private static class LiveSet
+  {
+    private final long timeMillis;
+    private final long bytes;
+    private final long max;
+    private final double slopePerHour;
+    private final int samples;
+
+    private LiveSet(long timeMillis, long bytes, long max, double slopePerHour, int samples)
+    {
+      this.timeMillis = timeMillis;
+      this.bytes = bytes;
+      this.max = max;
+      this.slopePerHour = slopePerHour;
+      this.samples = samples;
+    }
+
+    /**
+     * Weighs the slope since the previous sample by the time elapsed since it, so that the average is independent of
+     * how often the pool is collected: many close samples weigh as much as a single one over the same time.
+     */
+    static LiveSet next(LiveSet previous, long timeMillis, long bytes, long max, double slopeWindowMillis)
+    {
+      if (previous == null) {
+        return new LiveSet(timeMillis, bytes, max, 0, 1);
+      }
+      final long elapsedMillis = timeMillis - previous.timeMillis;
+      if (elapsedMillis <= 0) {
+        // Collections ending within the same millisecond, the slope between them is meaningless
+        return new LiveSet(previous.timeMillis, bytes, max, previous.slopePerHour, previous.samples);
+      }
+      final double slopePerHour = (bytes - previous.bytes) * MILLIS_PER_HOUR / elapsedMillis;
+      if (previous.samples < 2) {
+        return new LiveSet(timeMillis, bytes, max, slopePerHour, 2);
+      }
+      final double weight = 1 - Math.exp(-elapsedMillis / slopeWindowMillis);
+      return new LiveSet(
+          timeMillis,
+          bytes,
+          max,
+          previous.slopePerHour + weight * (slopePerHour - previous.slopePerHour),
+          previous.samples + 1
+      );
+    }
+  }
+}
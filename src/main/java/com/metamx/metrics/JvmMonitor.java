@@ -18,27 +18,46 @@ package com.metamx.metrics;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.common.logger.Logger;
 import com.metamx.emitter.service.ServiceEmitter;
-import com.metamx.emitter.service.ServiceMetricEvent;
+import com.metamx.metrics.perfdata.PerfData;
+import java.io.IOException;
 import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.gridkit.lab.jvm.perfdata.JStatData;
-import org.gridkit.lab.jvm.perfdata.JStatData.LongCounter;
-import org.gridkit.lab.jvm.perfdata.JStatData.StringCounter;
-import org.gridkit.lab.jvm.perfdata.JStatData.TickCounter;
+import java.util.Set;
+import org.joda.time.DateTime;
 
 public class JvmMonitor extends FeedDefiningMonitor
 {
-  private final Map<String, String[]> dimensions;
+  private static final Logger log = new Logger(JvmMonitor.class);
+  /**
+   * Names of the GarbageCollectorMXBeans of the old generation collectors, the others being young generation ones
+   */
+  static final Set<String> OLD_GEN_COLLECTORS = ImmutableSet.of(
+      "MarkSweepCompact",
+      "PS MarkSweep",
+      "ConcurrentMarkSweep",
+      "G1 Old Generation"
+  );
+
+  private final MetricEventTemplate template;
+  private final MetricEventTemplate heapTemplate;
+  private final MetricEventTemplate nonHeapTemplate;
+  private final TickCache<String, MetricEventTemplate> poolTemplates = new TickCache<>();
+  private final TickCache<String, MetricEventTemplate> bufferPoolTemplates = new TickCache<>();
   private final long pid;
 
-  private final GcCounters gcCounters = new GcCounters();
+  private final GcCounters gcCounters;
 
   public JvmMonitor()
   {
@@ -59,250 +78,255 @@ public class JvmMonitor extends FeedDefiningMonitor
   {
     super(feed);
     Preconditions.checkNotNull(dimensions);
-    this.dimensions = ImmutableMap.copyOf(dimensions);
+    this.template = template(dimensions);
+    this.heapTemplate = template.withDimension("memKind", "heap");
+    this.nonHeapTemplate = template.withDimension("memKind", "nonheap");
     this.pid = Preconditions.checkNotNull(pidDiscoverer).getPid();
+    this.gcCounters = createGcCounters();
   }
 
   @Override
   public boolean doMonitor(ServiceEmitter emitter)
   {
-    emitJvmMemMetrics(emitter);
-    emitDirectMemMetrics(emitter);
-    emitGcMetrics(emitter);
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime timestamp = tick.getTimestamp();
+    emitJvmMemMetrics(emitter, timestamp);
+    emitDirectMemMetrics(emitter, timestamp);
+    emitGcMetrics(emitter, timestamp);
 
     return true;
   }
 
   // These metrics are going to be replaced by new jvm/gc/mem/* metrics
   @Deprecated
-  private void emitJvmMemMetrics(ServiceEmitter emitter)
+  private void emitJvmMemMetrics(ServiceEmitter emitter, DateTime timestamp)
   {
     // I have no idea why, but jvm/mem is slightly more than the sum of jvm/pool. Let's just include
     // them both.
-    final Map<String, MemoryUsage> usages = ImmutableMap.of(
-        "heap", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage(),
-        "nonheap", ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage()
-    );
-    for (Map.Entry<String, MemoryUsage> entry : usages.entrySet()) {
-      final String kind = entry.getKey();
-      final MemoryUsage usage = entry.getValue();
-      final ServiceMetricEvent.Builder builder = builder().setDimension("memKind", kind);
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-
-      emitter.emit(builder.build("jvm/mem/max", usage.getMax()));
-      emitter.emit(builder.build("jvm/mem/committed", usage.getCommitted()));
-      emitter.emit(builder.build("jvm/mem/used", usage.getUsed()));
-      emitter.emit(builder.build("jvm/mem/init", usage.getInit()));
-    }
+    emitJvmMemMetrics(emitter, timestamp, heapTemplate, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage());
+    emitJvmMemMetrics(emitter, timestamp, nonHeapTemplate, ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage());
 
     // jvm/pool
-    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
-      final String kind = pool.getType() == MemoryType.HEAP ? "heap" : "nonheap";
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
       final MemoryUsage usage = pool.getUsage();
-      final ServiceMetricEvent.Builder builder = builder()
-          .setDimension("poolKind", kind)
-          .setDimension("poolName", pool.getName());
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-
-      emitter.emit(builder.build("jvm/pool/max", usage.getMax()));
-      emitter.emit(builder.build("jvm/pool/committed", usage.getCommitted()));
-      emitter.emit(builder.build("jvm/pool/used", usage.getUsed()));
-      emitter.emit(builder.build("jvm/pool/init", usage.getInit()));
+      final MetricEventTemplate poolTemplate = poolTemplates.get(
+          pool.getName(),
+          name -> template.withDimension("poolKind", pool.getType() == MemoryType.HEAP ? "heap" : "nonheap")
+                          .withDimension("poolName", name)
+      );
+
+      emitter.emit(poolTemplate.build(timestamp, "jvm/pool/max", usage.getMax()));
+      emitter.emit(poolTemplate.build(timestamp, "jvm/pool/committed", usage.getCommitted()));
+      emitter.emit(poolTemplate.build(timestamp, "jvm/pool/used", usage.getUsed()));
+      emitter.emit(poolTemplate.build(timestamp, "jvm/pool/init", usage.getInit()));
     }
+    poolTemplates.retainUsed();
   }
 
-  private void emitDirectMemMetrics(ServiceEmitter emitter)
+  @Deprecated
+  private void emitJvmMemMetrics(
+      ServiceEmitter emitter,
+      DateTime timestamp,
+      MetricEventTemplate memTemplate,
+      MemoryUsage usage
+  )
+  {
+    emitter.emit(memTemplate.build(timestamp, "jvm/mem/max", usage.getMax()));
+    emitter.emit(memTemplate.build(timestamp, "jvm/mem/committed", usage.getCommitted()));
+    emitter.emit(memTemplate.build(timestamp, "jvm/mem/used", usage.getUsed()));
+    emitter.emit(memTemplate.build(timestamp, "jvm/mem/init", usage.getInit()));
+  }
+
+  private void emitDirectMemMetrics(ServiceEmitter emitter, DateTime timestamp)
   {
     for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
-      final ServiceMetricEvent.Builder builder = builder().setDimension("bufferpoolName", pool.getName());
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+      final MetricEventTemplate poolTemplate = bufferPoolTemplates.get(
+          pool.getName(),
+          name -> template.withDimension("bufferpoolName", name)
+      );
+
+      emitter.emit(poolTemplate.build(timestamp, "jvm/bufferpool/capacity", pool.getTotalCapacity()));
+      emitter.emit(poolTemplate.build(timestamp, "jvm/bufferpool/used", pool.getMemoryUsed()));
+      emitter.emit(poolTemplate.build(timestamp, "jvm/bufferpool/count", pool.getCount()));
+    }
+    bufferPoolTemplates.retainUsed();
+  }
 
-      emitter.emit(builder.build("jvm/bufferpool/capacity", pool.getTotalCapacity()));
-      emitter.emit(builder.build("jvm/bufferpool/used", pool.getMemoryUsed()));
-      emitter.emit(builder.build("jvm/bufferpool/count", pool.getCount()));
+  private void emitGcMetrics(ServiceEmitter emitter, DateTime timestamp)
+  {
+    gcCounters.emit(emitter, timestamp);
+  }
+
+  private interface GcCounters
+  {
+    void emit(ServiceEmitter emitter, DateTime timestamp);
+  }
+
+  private GcCounters createGcCounters()
+  {
+    final Path perfDataFile = PerfData.file(pid);
+    try {
+      return new PerfDataGcCounters(PerfData.map(perfDataFile), template, false)::emit;
+    }
+    catch (IOException | RuntimeException e) {
+      log.info("Unable to read [%s] (%s), reading GC counters from MXBeans", perfDataFile, e);
+      return new MXBeanGcCounters();
     }
   }
 
-  private void emitGcMetrics(ServiceEmitter emitter)
+  static boolean isYoungGenPool(String poolName)
   {
-    gcCounters.emit(emitter, dimensions);
+    return poolName.contains("Eden") || poolName.contains("Survivor");
   }
 
-  /*
-   * The following GC-related code is partially based on
-   * https://github.com/aragozin/jvm-tools/blob/e0e37692648951440aa1a4ea5046261cb360df70/
-   * sjk-core/src/main/java/org/gridkit/jvmtool/PerfCounterGcCpuUsageMonitor.java
+  /**
+   * @return the names of the heap memory pools of the old generation
    */
-  private class GcCounters
+  static Set<String> getOldGenPools()
   {
-    private final List<GcGeneration> generations = new ArrayList<>();
-
-    GcCounters()
-    {
-      // connect to itself
-      final JStatData jStatData = JStatData.connect(pid);
-      final Map<String, JStatData.Counter<?>> jStatCounters = jStatData.getAllCounters();
-
-      generations.add(new GcGeneration(jStatCounters, 0, "young"));
-      generations.add(new GcGeneration(jStatCounters, 1, "old"));
-      // Removed in Java 8 but still actual for previous Java versions
-      if (jStatCounters.containsKey("sun.gc.generation.2.name")) {
-        generations.add(new GcGeneration(jStatCounters, 2, "perm"));
+    final ImmutableSet.Builder<String> oldGenPools = ImmutableSet.builder();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && !isYoungGenPool(pool.getName())) {
+        oldGenPools.add(pool.getName());
       }
     }
+    return oldGenPools.build();
+  }
 
-    void emit(ServiceEmitter emitter, Map<String, String[]> dimensions)
-    {
-      for (GcGeneration generation : generations) {
-        generation.emit(emitter, dimensions);
-      }
+  static String getReadableName(String name)
+  {
+    switch (name) {
+      // Young gen, in hsperfdata and then MXBeans
+      case "Copy":
+      case "Serial young collection pauses":
+        return "serial";
+      case "PSScavenge":
+      case "PS Scavenge":
+        return "parallel";
+      case "PCopy":
+      case "ParNew":
+        return "cms";
+      case "G1 incremental collections":
+      case "G1 young collection pauses":
+      case "G1 Young Generation":
+        return "g1";
+
+      // Old gen
+      case "MCS":
+      case "Serial full collection pauses":
+      case "MarkSweepCompact":
+        return "serial";
+      case "PSParallelCompact":
+      case "PS MarkSweep":
+        return "parallel";
+      case "CMS":
+      case "ConcurrentMarkSweep":
+        return "cms";
+      case "G1 stop-the-world full collections":
+      case "G1 full collection pauses":
+      case "G1 Old Generation":
+        return "g1";
+
+      default:
+        return name;
     }
   }
 
-  private class GcGeneration
+  /**
+   * Fallback for JVMs without hsperfdata, e. g. run with -XX:-UsePerfData. The same metrics are emitted, generations
+   * being told apart by the names of the collectors and of the memory pools, except for jvm/gc/cpu: MXBeans only have
+   * the accumulated elapsed time of the collections, which is emitted as jvm/gc/time, in milliseconds, so that the
+   * two quantities are never mixed under the same metric.
+   */
+  private class MXBeanGcCounters implements GcCounters
   {
-    private final String name;
-    private final GcGenerationCollector collector;
-    private final List<GcGenerationSpace> spaces = new ArrayList<>();
+    private final List<MXBeanGcCollector> collectors = new ArrayList<>();
+    private final List<MXBeanGcSpace> spaces = new ArrayList<>();
 
-    GcGeneration(Map<String, JStatData.Counter<?>> jStatCounters, long genIndex, String name)
+    MXBeanGcCounters()
     {
-      this.name = name.toLowerCase();
-
-      long spacesCount = ((JStatData.LongCounter) jStatCounters.get(
-          String.format("sun.gc.generation.%d.spaces", genIndex)
-      )).getLong();
-      for (long spaceIndex = 0; spaceIndex < spacesCount; spaceIndex++) {
-        spaces.add(new GcGenerationSpace(jStatCounters, genIndex, spaceIndex));
+      final Map<String, MetricEventTemplate> genTemplates = new HashMap<>();
+      for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        final String gen = OLD_GEN_COLLECTORS.contains(bean.getName()) ? "old" : "young";
+        final MetricEventTemplate genTemplate = template
+            .withDimension("gcGen", new String[]{gen})
+            .withDimension("gcName", new String[]{getReadableName(bean.getName())});
+        genTemplates.putIfAbsent(gen, genTemplate);
+        collectors.add(new MXBeanGcCollector(bean, genTemplate));
       }
-
-      if (jStatCounters.containsKey(String.format("sun.gc.collector.%d.name", genIndex))) {
-        collector = new GcGenerationCollector(jStatCounters, genIndex);
-      } else {
-        collector = null;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          final String gen = isYoungGenPool(pool.getName()) ? "young" : "old";
+          final MetricEventTemplate genTemplate = genTemplates.getOrDefault(
+              gen,
+              template.withDimension("gcGen", new String[]{gen})
+          );
+          spaces.add(new MXBeanGcSpace(pool, genTemplate));
+        }
       }
     }
 
-    void emit(ServiceEmitter emitter, Map<String, String[]> dimensions)
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
-      ImmutableMap.Builder<String, String[]> dimensionsCopyBuilder = ImmutableMap
-          .<String, String[]>builder()
-          .putAll(dimensions)
-          .put("gcGen", new String[]{name});
-
-      if (collector != null) {
-        dimensionsCopyBuilder.put("gcName", new String[]{collector.name});
-      }
-
-      Map<String, String[]> dimensionsCopy = dimensionsCopyBuilder.build();
-
-      if (collector != null) {
-        collector.emit(emitter, dimensionsCopy);
+      for (MXBeanGcCollector collector : collectors) {
+        collector.emit(emitter, timestamp);
       }
-
-      for (GcGenerationSpace space : spaces) {
-        space.emit(emitter, dimensionsCopy);
+      for (MXBeanGcSpace space : spaces) {
+        space.emit(emitter, timestamp);
       }
     }
   }
 
-  private class GcGenerationCollector
+  private static class MXBeanGcCollector
   {
-    private final String name;
-    private final LongCounter invocationsCounter;
-    private final TickCounter cpuCounter;
+    private final GarbageCollectorMXBean bean;
+    private final MetricEventTemplate template;
     private long lastInvocations = 0;
-    private long lastCpuNanos = 0;
+    private long lastTimeMillis = 0;
 
-    GcGenerationCollector(Map<String, JStatData.Counter<?>> jStatCounters, long genIndex)
+    MXBeanGcCollector(GarbageCollectorMXBean bean, MetricEventTemplate template)
     {
-      String collectorKeyPrefix = String.format("sun.gc.collector.%d", genIndex);
-
-      String nameKey = String.format("%s.name", collectorKeyPrefix);
-      StringCounter nameCounter = (StringCounter) jStatCounters.get(nameKey);
-      name = getReadableName(nameCounter.getString());
-
-      invocationsCounter = (LongCounter) jStatCounters.get(String.format("%s.invocations", collectorKeyPrefix));
-      cpuCounter = (TickCounter) jStatCounters.get(String.format("%s.time", collectorKeyPrefix));
+      this.bean = bean;
+      this.template = template;
     }
 
-    void emit(ServiceEmitter emitter, Map<String, String[]> dimensions)
+    void emit(ServiceEmitter emitter, DateTime timestamp)
     {
-      final ServiceMetricEvent.Builder builder = builder();
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-
-      long newInvocations = invocationsCounter.getLong();
-      emitter.emit(builder.build("jvm/gc/count", newInvocations - lastInvocations));
+      // -1 if undefined
+      long newInvocations = Math.max(bean.getCollectionCount(), 0);
+      emitter.emit(template.build(timestamp, "jvm/gc/count", newInvocations - lastInvocations));
       lastInvocations = newInvocations;
 
-      long newCpuNanos = cpuCounter.getNanos();
-      emitter.emit(builder.build("jvm/gc/cpu", newCpuNanos - lastCpuNanos));
-      lastCpuNanos = newCpuNanos;
-    }
-
-    private String getReadableName(String name)
-    {
-      switch (name) {
-        // Young gen
-        case "Copy":
-          return "serial";
-        case "PSScavenge":
-          return "parallel";
-        case "PCopy":
-          return "cms";
-        case "G1 incremental collections":
-          return "g1";
-
-        // Old gen
-        case "MCS":
-          return "serial";
-        case "PSParallelCompact":
-          return "parallel";
-        case "CMS":
-          return "cms";
-        case "G1 stop-the-world full collections":
-          return "g1";
-
-        default:
-          return name;
-      }
+      long newTimeMillis = Math.max(bean.getCollectionTime(), 0);
+      emitter.emit(template.build(timestamp, "jvm/gc/time", newTimeMillis - lastTimeMillis));
+      lastTimeMillis = newTimeMillis;
     }
   }
 
-  private class GcGenerationSpace
+  private static class MXBeanGcSpace
   {
-    private final String name;
+    private final MemoryPoolMXBean pool;
+    private final MetricEventTemplate template;
 
-    private final LongCounter maxCounter;
-    private final LongCounter capacityCounter;
-    private final LongCounter usedCounter;
-    private final LongCounter initCounter;
-
-    GcGenerationSpace(Map<String, JStatData.Counter<?>> jStatCounters, long genIndex, long spaceIndex)
+    MXBeanGcSpace(MemoryPoolMXBean pool, MetricEventTemplate genTemplate)
     {
-      String spaceKeyPrefix = String.format("sun.gc.generation.%d.space.%d", genIndex, spaceIndex);
-
-      String nameKey = String.format("%s.name", spaceKeyPrefix);
-      StringCounter nameCounter = (StringCounter) jStatCounters.get(nameKey);
-      name = nameCounter.toString().toLowerCase();
-
-      maxCounter = (LongCounter) jStatCounters.get(String.format("%s.maxCapacity", spaceKeyPrefix));
-      capacityCounter = (LongCounter) jStatCounters.get(String.format("%s.capacity", spaceKeyPrefix));
-      usedCounter = (LongCounter) jStatCounters.get(String.format("%s.used", spaceKeyPrefix));
-      initCounter = (LongCounter) jStatCounters.get(String.format("%s.initCapacity", spaceKeyPrefix));
+      this.pool = pool;
+      this.template = genTemplate.withDimension("gcGenSpaceName", pool.getName().toLowerCase());
     }
 
-    void emit(ServiceEmitter emitter, Map<String, String[]> dimensions)
+    void emit(ServiceEmitter emitter, DateTime timestamp)
     {
-      final ServiceMetricEvent.Builder builder = builder();
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-
-      builder.setDimension("gcGenSpaceName", name);
-
-      emitter.emit(builder.build("jvm/gc/mem/max", maxCounter.getLong()));
-      emitter.emit(builder.build("jvm/gc/mem/capacity", capacityCounter.getLong()));
-      emitter.emit(builder.build("jvm/gc/mem/used", usedCounter.getLong()));
-      emitter.emit(builder.build("jvm/gc/mem/init", initCounter.getLong()));
+      final MemoryUsage usage = pool.getUsage();
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/max", usage.getMax()));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/capacity", usage.getCommitted()));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/used", usage.getUsed()));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/init", usage.getInit()));
     }
   }
 }
@@ -3,17 +3,14 @@ package com.metamx.metrics;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.metamx.emitter.service.ServiceEmitter;
-import com.metamx.emitter.service.ServiceMetricEvent;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
-import java.util.List;
 import java.util.Map;
-import org.gridkit.lab.jvm.perfdata.JStatData;
-import org.gridkit.lab.jvm.perfdata.JStatData.LongCounter;
+import org.joda.time.DateTime;
 
 public class JvmThreadsMonitor extends FeedDefiningMonitor
 {
-  private final Map<String, String[]> dimensions;
+  private final MetricEventTemplate template;
 
   private int lastLiveThreads = 0;
   private long lastStartedThreads = 0;
@@ -31,16 +28,20 @@ public class JvmThreadsMonitor extends FeedDefiningMonitor
   {
     super(feed);
     Preconditions.checkNotNull(dimensions);
-    this.dimensions = ImmutableMap.copyOf(dimensions);
+    this.template = template(dimensions);
   }
 
   @Override
   public boolean doMonitor(ServiceEmitter emitter)
   {
-    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    return doMonitor(emitter, nextTick());
+  }
 
-    final ServiceMetricEvent.Builder builder = builder();
-    MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime timestamp = tick.getTimestamp();
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
 
     // Because between next two calls on ThreadMXBean new threads can be started we can observe some inconsistency
     // in counters values and finished counter could be even negative
@@ -49,12 +50,12 @@ public class JvmThreadsMonitor extends FeedDefiningMonitor
 
     long startedThreadsDiff = newStartedThreads - lastStartedThreads;
 
-    emitter.emit(builder.build("jvm/threads/started", startedThreadsDiff));
-    emitter.emit(builder.build("jvm/threads/finished", lastLiveThreads + startedThreadsDiff - newLiveThreads));
-    emitter.emit(builder.build("jvm/threads/live", newLiveThreads));
-    emitter.emit(builder.build("jvm/threads/liveDaemon", threadBean.getDaemonThreadCount()));
+    emitter.emit(template.build(timestamp, "jvm/threads/started", startedThreadsDiff));
+    emitter.emit(template.build(timestamp, "jvm/threads/finished", lastLiveThreads + startedThreadsDiff - newLiveThreads));
+    emitter.emit(template.build(timestamp, "jvm/threads/live", newLiveThreads));
+    emitter.emit(template.build(timestamp, "jvm/threads/liveDaemon", threadBean.getDaemonThreadCount()));
 
-    emitter.emit(builder.build("jvm/threads/livePeak", threadBean.getPeakThreadCount()));
+    emitter.emit(template.build(timestamp, "jvm/threads/livePeak", threadBean.getPeakThreadCount()));
     threadBean.resetPeakThreadCount();
 
     lastStartedThreads = newStartedThreads;
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.metamx.common.IAE;
+import com.metamx.common.logger.Logger;
+import java.util.Arrays;
+
+/**
+ * Primitive counterpart of {@link KeyedDiff}. Values of each key are laid out according to a fixed schema of metric
+ * names, the value of the i-th metric going to the i-th slot of a long[]. Deltas are computed in place, into an array
+ * reused across calls, so once every key has been seen computing deltas doesn't allocate.
+ *
+ * Values are treated as counters, which only grow. A counter found lower than before either wrapped around its width
+ * (see {@link #setCounterWidth(int)}), in which case the delta is computed modulo the width, or was reset, e. g.
+ * because the network interface was re-created. Samples with a reset counter are suppressed: no deltas are returned,
+ * the values become the new baseline of the key, and the suppression is counted (see {@link #getSuppressedSamples()}).
+ * Metrics which may legitimately decrease are declared with {@link #setGauges(String...)}.
+ *
+ * Keys come and go, e. g. network interfaces of containers, so {@link #retainRecent()} is meant to be called once per
+ * tick, to forget the keys not seen during the last few ticks.
+ *
+ * Not thread-safe.
+ */
+public class KeyedLongDiff
+{
+  private static final Logger log = new Logger(KeyedLongDiff.class);
+
+  public static final int DEFAULT_MAX_IDLE_TICKS = 5;
+  /**
+   * Returned by {@link #counterDelta(long, long, int)} for a counter that was reset
+   */
+  public static final long RESET = -1;
+
+  private final String[] schema;
+  private final TickCache<String, long[]> prevs;
+  private final long[] deltas;
+  private final boolean[] gauges;
+  private int counterWidth = Long.SIZE;
+  private long suppressedSamples = 0;
+
+  /**
+   * @param schema names of the metrics, in the order of their slots in the value arrays
+   */
+  public KeyedLongDiff(String... schema)
+  {
+    this(DEFAULT_MAX_IDLE_TICKS, schema);
+  }
+
+  /**
+   * @param maxIdleTicks number of ticks a key may be unseen for before it's forgotten, see {@link #retainRecent()}
+   * @param schema       names of the metrics, in the order of their slots in the value arrays
+   */
+  public KeyedLongDiff(int maxIdleTicks, String... schema)
+  {
+    Preconditions.checkArgument(schema.length > 0, "empty schema");
+    this.schema = schema.clone();
+    this.prevs = new TickCache<>(maxIdleTicks);
+    this.deltas = new long[schema.length];
+    this.gauges = new boolean[schema.length];
+  }
+
+  /**
+   * @param counterWidth width of the counters in bits, e. g. 32 for counters of a 32-bit kernel. 64 by default.
+   *
+   * @return this
+   */
+  public KeyedLongDiff setCounterWidth(int counterWidth)
+  {
+    Preconditions.checkArgument(
+        counterWidth > 1 && counterWidth <= Long.SIZE,
+        "counterWidth must be within (1, %s]",
+        Long.SIZE
+    );
+    this.counterWidth = counterWidth;
+    return this;
+  }
+
+  /**
+   * Declares metrics of the schema which aren't counters and may decrease, so they are just subtracted, without
+   * checking them for wraps or resets.
+   *
+   * @return this
+   */
+  public KeyedLongDiff setGauges(String... metrics)
+  {
+    for (String metric : metrics) {
+      final int slot = Arrays.asList(schema).indexOf(metric);
+      if (slot < 0) {
+        throw new IAE("Unknown metric[%s]", metric);
+      }
+      gauges[slot] = true;
+    }
+    return this;
+  }
+
+  public int getSchemaSize()
+  {
+    return schema.length;
+  }
+
+  public String getMetric(int slot)
+  {
+    return schema[slot];
+  }
+
+  /**
+   * Stores the current values of the key, and computes the deltas from the previous ones.
+   *
+   * @param curr current values, laid out according to the schema. Not retained, so the caller may reuse the array.
+   *
+   * @return the deltas, laid out according to the schema, or null if there are no previous values for the key or a
+   * counter was reset. The returned array is reused, it's only valid until the next call.
+   */
+  public long[] to(String key, long[] curr)
+  {
+    if (curr.length != schema.length) {
+      throw new IAE("Expected [%d] values for key[%s], got [%d]", schema.length, key, curr.length);
+    }
+    final long[] prev = prevs.getIfPresent(key);
+    if (prev == null) {
+      log.debug("No previous data for key[%s]", key);
+      prevs.put(key, curr.clone());
+      return null;
+    }
+    boolean reset = false;
+    for (int i = 0; i < curr.length; i++) {
+      if (gauges[i]) {
+        deltas[i] = curr[i] - prev[i];
+      } else {
+        deltas[i] = counterDelta(prev[i], curr[i], counterWidth);
+        reset |= deltas[i] == RESET;
+      }
+      prev[i] = curr[i];
+    }
+    if (reset) {
+      suppressedSamples++;
+      log.debug("Counter reset for key[%s], suppressing the sample", key);
+      return null;
+    }
+    return deltas;
+  }
+
+  /**
+   * @return the number of samples suppressed so far because of counter resets
+   */
+  public long getSuppressedSamples()
+  {
+    return suppressedSamples;
+  }
+
+  /**
+   * Computes the delta of a counter of the given width. A counter lower than before is considered to have wrapped if
+   * the delta modulo the width is less than half the range of the counter, and to have been reset otherwise. 64-bit
+   * counters practically never wrap, so they are always considered reset.
+   *
+   * @return the delta, or {@link #RESET} if the counter was reset
+   */
+  public static long counterDelta(long prev, long curr, int counterWidth)
+  {
+    if (curr >= prev) {
+      return curr - prev;
+    }
+    if (counterWidth >= Long.SIZE) {
+      return RESET;
+    }
+    final long mask = (1L << counterWidth) - 1;
+    final long wrapped = (curr - prev) & mask;
+    return wrapped <= (mask >>> 1) ? wrapped : RESET;
+  }
+
+  /**
+   * Ends the current tick, forgetting the keys which were not seen during the last maxIdleTicks ticks. A forgotten key
+   * seen again starts over, as if it were new.
+   */
+  public void retainRecent()
+  {
+    prevs.retainUsed();
+  }
+
+  /**
+   * @return the number of keys tracked
+   */
+  public int size()
+  {
+    return prevs.size();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.service.ServiceEventBuilder;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * Immutable, precompiled set of a feed and dimensions, from which metric events differing only in the metric name,
+ * value and timestamp are built. Templates are meant to be created once per monitor and per set of static
+ * sub-dimensions (e. g. gcGen, cpuName or netName), instead of setting all the dimensions on a fresh
+ * {@link ServiceMetricEvent.Builder} for every event on every tick.
+ *
+ * The underlying builder is configured once and never modified afterwards, so it is safe to share a template between
+ * threads and to build any number of events from it.
+ */
+public class MetricEventTemplate
+{
+  private final String feed;
+  /**
+   * Values are either Strings or String[]s, matching the two flavours of {@link ServiceMetricEvent.Builder#setDimension}
+   */
+  private final ImmutableMap<String, Object> dimensions;
+  private final ServiceMetricEvent.Builder builder;
+
+  public MetricEventTemplate(String feed, Map<String, String[]> dimensions)
+  {
+    this(feed, ImmutableMap.<String, Object>copyOf(Preconditions.checkNotNull(dimensions, "dimensions")));
+  }
+
+  private MetricEventTemplate(String feed, ImmutableMap<String, Object> dimensions)
+  {
+    this.feed = Preconditions.checkNotNull(feed, "feed");
+    this.dimensions = dimensions;
+    this.builder = ServiceMetricEvent.builder().setFeed(feed);
+    for (Map.Entry<String, Object> dimension : dimensions.entrySet()) {
+      if (dimension.getValue() instanceof String[]) {
+        builder.setDimension(dimension.getKey(), (String[]) dimension.getValue());
+      } else {
+        builder.setDimension(dimension.getKey(), (String) dimension.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns a new template with the given dimension added to (or replaced in) the dimensions of this template.
+   */
+  public MetricEventTemplate withDimension(String dimension, String value)
+  {
+    return with(dimension, Preconditions.checkNotNull(value, "value"));
+  }
+
+  /**
+   * Returns a new template with the given dimension added to (or replaced in) the dimensions of this template.
+   */
+  public MetricEventTemplate withDimension(String dimension, String[] values)
+  {
+    return with(dimension, Preconditions.checkNotNull(values, "values").clone());
+  }
+
+  private MetricEventTemplate with(String dimension, Object value)
+  {
+    final Map<String, Object> newDimensions = new LinkedHashMap<>(dimensions);
+    newDimensions.put(Preconditions.checkNotNull(dimension, "dimension"), value);
+    return new MetricEventTemplate(feed, ImmutableMap.copyOf(newDimensions));
+  }
+
+  public String getFeed()
+  {
+    return feed;
+  }
+
+  /**
+   * @return the value of the dimension, as it would be returned by {@link ServiceMetricEvent.Builder#getDimension}
+   */
+  public Object getDimension(String dimension)
+  {
+    return builder.getDimension(dimension);
+  }
+
+  public ServiceEventBuilder<ServiceMetricEvent> build(DateTime timestamp, String metric, Number value)
+  {
+    return builder.build(timestamp, metric, value);
+  }
+
+  public ServiceEventBuilder<ServiceMetricEvent> build(String metric, Number value)
+  {
+    return builder.build(metric, value);
+  }
+}
@@ -25,4 +25,13 @@ public interface Monitor
   public void start();
   public void stop();
   public boolean monitor(ServiceEmitter emitter);
+
+  /**
+   * Called by {@link MonitorScheduler} on each tick. Implementations should stamp emitted events with
+   * {@link MonitorTick#getTimestamp()}, by default the tick is ignored.
+   */
+  public default boolean monitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    return monitor(emitter);
+  }
 }
@@ -16,29 +16,68 @@
 
 package com.metamx.metrics;
 
-import com.google.common.collect.Sets;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.metamx.common.ISE;
-import com.metamx.common.concurrent.ScheduledExecutors;
 import com.metamx.common.lifecycle.LifecycleStart;
 import com.metamx.common.lifecycle.LifecycleStop;
+import com.metamx.common.logger.Logger;
 import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Periodically runs {@link Monitor}s. Each monitor is scheduled at its own period, which defaults to
+ * {@link MonitorSchedulerConfig#getEmitterPeriod()}, so cheap monitors may be sampled often while expensive ones
+ * (e. g. {@link SysMonitor} with directories to monitor) run at a slower cadence.
+ *
+ * By default monitors are run right on the scheduling executor, so a slow monitor delays the others. If a worker pool
+ * is given, the scheduling executor only dispatches ticks to it and each run gets a deadline (see
+ * {@link MonitorSchedulerConfig#getMonitorTimeout()}). Runs exceeding the deadline are cancelled.
+ *
+ * Ticks are multiples of each monitor's period since the scheduler was started, or wall-clock multiples of it, optionally
+ * delayed by a per-host jitter (see {@link MonitorSchedulerConfig#isAlignTicks()}). Either way monitors with the same
+ * period tick together. Each run is given a {@link MonitorTick}, whose timestamp is the scheduled (aligned) time of the
+ * tick, shared by all monitors ticking at that time, along with the time elapsed since the previous run.
+ *
+ * Events emitted during a run are collected in a {@link BatchingServiceEmitter} and handed to the emitter once the
+ * run is over, so a cancelled run emits nothing.
+ *
+ * Ticks missed because a run overran are handled according to {@link MonitorSchedulerConfig#getOverrunPolicy()}.
+ * Skipped and cancelled ticks are counted, see {@link #getSkippedTicks(Monitor)}. After every tick the scheduler emits
+ * monitor/tick/lateness (ms between the scheduled and the actual start), monitor/tick/latency (ms the run took) and
+ * monitor/tick/skipped (ticks skipped since the previous tick), with the monitor class as the monitorClass dimension.
  */
 public class MonitorScheduler
 {
+  private static final Logger log = new Logger(MonitorScheduler.class);
+
   private final MonitorSchedulerConfig config;
   private final ScheduledExecutorService exec;
+  private final ExecutorService workers;
   private final ServiceEmitter emitter;
-  private final Set<Monitor> monitors;
+  private final Map<Monitor, ScheduledMonitor> monitors;
   private final Object lock = new Object();
 
   private volatile boolean started = false;
+  /**
+   * Ticks of all monitors are on a grid starting at this time (or at the epoch, if ticks are aligned), so that monitors
+   * with the same period share their tick timestamps.
+   */
+  private volatile long originMillis = 0;
 
   public MonitorScheduler(
       MonitorSchedulerConfig config,
@@ -46,11 +85,47 @@ public class MonitorScheduler
       ServiceEmitter emitter,
       List<Monitor> monitors
   )
+  {
+    this(config, exec, emitter, Maps.<Monitor, Duration>newHashMap());
+    for (Monitor monitor : monitors) {
+      this.monitors.put(monitor, new ScheduledMonitor(monitor, config.getEmitterPeriod()));
+    }
+  }
+
+  /**
+   * @param monitors monitors to schedule, mapped to the period each of them should be run at
+   */
+  public MonitorScheduler(
+      MonitorSchedulerConfig config,
+      ScheduledExecutorService exec,
+      ServiceEmitter emitter,
+      Map<Monitor, Duration> monitors
+  )
+  {
+    this(config, exec, emitter, monitors, null);
+  }
+
+  /**
+   * @param monitors monitors to schedule, mapped to the period each of them should be run at
+   * @param workers  pool to run monitors on, isolated from each other and from the scheduling executor. If null,
+   *                 monitors are run on the scheduling executor.
+   */
+  public MonitorScheduler(
+      MonitorSchedulerConfig config,
+      ScheduledExecutorService exec,
+      ServiceEmitter emitter,
+      Map<Monitor, Duration> monitors,
+      ExecutorService workers
+  )
   {
     this.config = config;
     this.exec = exec;
+    this.workers = workers;
     this.emitter = emitter;
-    this.monitors = Sets.newHashSet(monitors);
+    this.monitors = Maps.newHashMap();
+    for (Map.Entry<Monitor, Duration> entry : monitors.entrySet()) {
+      this.monitors.put(entry.getKey(), new ScheduledMonitor(entry.getKey(), entry.getValue()));
+    }
   }
 
   @LifecycleStart
@@ -61,15 +136,22 @@ public class MonitorScheduler
         return;
       }
       started = true;
+      originMillis = config.isAlignTicks() ? 0 : System.currentTimeMillis();
 
-      for (final Monitor monitor : monitors) {
-        startMonitor(monitor);
+      for (ScheduledMonitor scheduledMonitor : monitors.values()) {
+        startMonitor(scheduledMonitor);
       }
     }
   }
 
   public void addMonitor(final Monitor monitor)
   {
+    addMonitor(monitor, config.getEmitterPeriod());
+  }
+
+  public void addMonitor(final Monitor monitor, final Duration period)
+  {
+    final ScheduledMonitor scheduledMonitor = new ScheduledMonitor(monitor, period);
     synchronized (lock) {
       if (!started) {
         throw new ISE("addMonitor must be called after start");
@@ -77,8 +159,8 @@ public class MonitorScheduler
       if (hasMonitor(monitor)) {
         throw new ISE("Monitor already monitoring: %s", monitor);
       }
-      monitors.add(monitor);
-      startMonitor(monitor);
+      monitors.put(monitor, scheduledMonitor);
+      startMonitor(scheduledMonitor);
     }
   }
 
@@ -90,6 +172,29 @@ public class MonitorScheduler
     }
   }
 
+  /**
+   * @return the period the given monitor is scheduled at, or null if the monitor is not scheduled
+   */
+  public Duration getPeriod(final Monitor monitor)
+  {
+    synchronized (lock) {
+      final ScheduledMonitor scheduledMonitor = monitors.get(monitor);
+      return scheduledMonitor == null ? null : scheduledMonitor.period;
+    }
+  }
+
+  /**
+   * @return the number of ticks of the given monitor that were skipped or cancelled because a run overran, or 0 if the
+   * monitor is not scheduled
+   */
+  public long getSkippedTicks(final Monitor monitor)
+  {
+    synchronized (lock) {
+      final ScheduledMonitor scheduledMonitor = monitors.get(monitor);
+      return scheduledMonitor == null ? 0 : scheduledMonitor.skippedTicks.get();
+    }
+  }
+
   @LifecycleStop
   public void stop()
   {
@@ -99,41 +204,268 @@ public class MonitorScheduler
       }
 
       started = false;
-      for (Monitor monitor : monitors) {
+      for (Monitor monitor : monitors.keySet()) {
         monitor.stop();
       }
     }
   }
 
-  private void startMonitor(final Monitor monitor)
+  private void startMonitor(final ScheduledMonitor scheduledMonitor)
   {
     synchronized (lock) {
-      monitor.start();
-      ScheduledExecutors.scheduleAtFixedRate(
-          exec,
-          config.getEmitterPeriod(),
-          new Callable<ScheduledExecutors.Signal>()
+      scheduledMonitor.monitor.start();
+      scheduledMonitor.scheduleAt(scheduledMonitor.firstTickMillis(System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * @return this host's delay within the jitter window, which is capped to the given period
+   */
+  private long hostJitterMillis(final Duration period)
+  {
+    final Duration jitter = config.getTickJitter();
+    if (!config.isAlignTicks() || jitter == null || jitter.getMillis() <= 0) {
+      return 0;
+    }
+    final long window = Math.min(jitter.getMillis(), period.getMillis());
+    // String.hashCode() of similar host names (host-001, host-002...) differ in the lowest bits only, spread them
+    final int hostHash = Hashing.murmur3_32().hashString(emitter.getHost(), Charsets.UTF_8).asInt();
+    return Math.floorMod((long) hostHash, window);
+  }
+
+  private boolean hasMonitor(final Monitor monitor)
+  {
+    synchronized (lock) {
+      return monitors.containsKey(monitor);
+    }
+  }
+
+  /**
+   * Scheduling state of one monitor. Each tick schedules the next one only when its run is over (or cancelled), so
+   * runs of the same monitor never queue up behind each other; what happens to the ticks missed meanwhile is decided by
+   * {@link MonitorSchedulerConfig#getOverrunPolicy()}.
+   */
+  private class ScheduledMonitor
+  {
+    private final Monitor monitor;
+    private final Duration period;
+    private final ServiceMetricEvent.Builder metricBuilder;
+    private final long jitterMillis;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong skippedTicks = new AtomicLong(0);
+    private long reportedSkippedTicks = 0;
+    private MonitorTick lastTick = null;
+    private int lastBatchSize = 16;
+    private volatile long scheduledMillis;
+
+    ScheduledMonitor(Monitor monitor, Duration period)
+    {
+      Preconditions.checkNotNull(period, "period");
+      Preconditions.checkArgument(period.getMillis() > 0, "period must be positive, got [%s]", period);
+      this.monitor = monitor;
+      this.period = period;
+      this.metricBuilder = ServiceMetricEvent.builder().setDimension("monitorClass", monitor.getClass().getName());
+      this.jitterMillis = hostJitterMillis(period);
+    }
+
+    long firstTickMillis(final long nowMillis)
+    {
+      final long periodMillis = period.getMillis();
+      final long gridMillis = originMillis + jitterMillis;
+      return gridMillis + ((nowMillis - gridMillis) / periodMillis + 1) * periodMillis;
+    }
+
+    /**
+     * @return the timestamp of the tick scheduled at the given time, i. e. without the jitter
+     */
+    DateTime tickTimestamp(final long tickMillis)
+    {
+      return new DateTime(tickMillis - jitterMillis);
+    }
+
+    Duration timeout()
+    {
+      final Duration timeout = config.getMonitorTimeout();
+      return timeout == null ? period : timeout;
+    }
+
+    void scheduleAt(final long tickMillis)
+    {
+      scheduledMillis = tickMillis;
+      try {
+        exec.schedule(
+            new Runnable()
+            {
+              @Override
+              public void run()
+              {
+                tick();
+              }
+            },
+            Math.max(0, tickMillis - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS
+        );
+      }
+      catch (RejectedExecutionException e) {
+        log.warn("Scheduling executor rejected monitor[%s], it won't be run anymore", monitor);
+      }
+    }
+
+    void tick()
+    {
+      final long startMillis = System.currentTimeMillis();
+      final long nanoTime = System.nanoTime();
+      final MonitorTick tick = new MonitorTick(
+          tickTimestamp(scheduledMillis),
+          nanoTime,
+          lastTick == null ? 0 : nanoTime - lastTick.getNanoTime()
+      );
+      lastTick = tick;
+      // A new batch every time, so that a cancelled run still writing to its batch can't interfere with the next one
+      final BatchingServiceEmitter batch = new BatchingServiceEmitter(emitter, lastBatchSize);
+      if (workers == null) {
+        complete(tick, startMillis, runMonitor(tick, batch), batch);
+      } else {
+        dispatch(tick, startMillis, batch);
+      }
+    }
+
+    /**
+     * Hands the run to the worker pool and arms its deadline. Whichever of the two finishes first completes the tick.
+     */
+    private void dispatch(final MonitorTick tick, final long startMillis, final BatchingServiceEmitter batch)
+    {
+      final AtomicBoolean completed = new AtomicBoolean(false);
+      final Future<?> future;
+      try {
+        future = workers.submit(
+            new Runnable()
+            {
+              @Override
+              public void run()
+              {
+                // A cancelled run may still be stuck in native code, never run the same monitor twice concurrently
+                if (!running.compareAndSet(false, true)) {
+                  skip(1, "a cancelled run is still executing");
+                  if (completed.compareAndSet(false, true)) {
+                    complete(tick, startMillis, true, null);
+                  }
+                  return;
+                }
+                final boolean result;
+                try {
+                  result = runMonitor(tick, batch);
+                }
+                finally {
+                  running.set(false);
+                }
+                if (completed.compareAndSet(false, true)) {
+                  complete(tick, startMillis, result, batch);
+                }
+              }
+            }
+        );
+      }
+      catch (RejectedExecutionException e) {
+        log.warn("Worker pool rejected monitor[%s], it won't be run anymore", monitor);
+        return;
+      }
+
+      exec.schedule(
+          new Runnable()
           {
             @Override
-            public ScheduledExecutors.Signal call() throws Exception
+            public void run()
             {
-              // Run one more time even if the monitor was removed, in case there's some extra data to flush
-              if (monitor.monitor(emitter) && hasMonitor(monitor)) {
-                return ScheduledExecutors.Signal.REPEAT;
-              } else {
-                removeMonitor(monitor);
-                return ScheduledExecutors.Signal.STOP;
+              if (completed.compareAndSet(false, true)) {
+                future.cancel(true);
+                skip(1, "run exceeded its deadline and was cancelled");
+                // Events of the cancelled run are dropped, rather than emitting an incomplete tick
+                complete(tick, startMillis, true, null);
               }
             }
-          }
+          },
+          timeout().getMillis(),
+          TimeUnit.MILLISECONDS
       );
     }
-  }
 
-  private boolean hasMonitor(final Monitor monitor)
-  {
-    synchronized (lock) {
-      return monitors.contains(monitor);
+    private boolean runMonitor(final MonitorTick tick, final BatchingServiceEmitter batch)
+    {
+      try {
+        return monitor.monitor(batch, tick);
+      }
+      catch (Throwable t) {
+        log.error(t, "Uncaught exception in monitor[%s]", monitor);
+        return true;
+      }
+    }
+
+    /**
+     * @param batch events emitted by the run, or null if the run didn't complete
+     */
+    private void complete(
+        final MonitorTick tick,
+        final long startMillis,
+        final boolean result,
+        final BatchingServiceEmitter batch
+    )
+    {
+      if (batch != null) {
+        lastBatchSize = Math.max(batch.size(), 1);
+        batch.flush();
+      }
+
+      final long endMillis = System.currentTimeMillis();
+      final long tickMillis = scheduledMillis;
+      final long periodMillis = period.getMillis();
+
+      long nextMillis = tickMillis + periodMillis;
+      // The tick of a run which didn't complete was already counted as skipped, e. g. when its deadline, the period by
+      // default, fired: that tick consumed by the deadline isn't an overrun too
+      final long missed = (endMillis - tickMillis) / periodMillis - (batch == null ? 1 : 0);
+      if (missed > 0) {
+        switch (config.getOverrunPolicy()) {
+          case SKIP:
+            skip(missed, "run overran its period");
+            nextMillis = tickMillis + (missed + 1) * periodMillis;
+            break;
+          case COALESCE:
+            skip(missed - 1, "run overran its period");
+            nextMillis = tickMillis + missed * periodMillis;
+            break;
+          case RUN_LATE:
+          default:
+            break;
+        }
+      }
+
+      emitTickMetrics(tick, startMillis - tickMillis, endMillis - startMillis);
+
+      // Run one more time even if the monitor was removed, in case there's some extra data to flush
+      if (result && hasMonitor(monitor)) {
+        scheduleAt(nextMillis);
+      } else {
+        removeMonitor(monitor);
+      }
+    }
+
+    private void skip(final long ticks, final String reason)
+    {
+      if (ticks > 0) {
+        final long skipped = skippedTicks.addAndGet(ticks);
+        log.warn("Skipped %,d tick(s) of monitor[%s]: %s (%,d skipped so far)", ticks, monitor, reason, skipped);
+      }
+    }
+
+    private void emitTickMetrics(final MonitorTick tick, final long latenessMillis, final long latencyMillis)
+    {
+      final DateTime timestamp = tick.getTimestamp();
+      final long skipped = skippedTicks.get();
+      emitter.emit(metricBuilder.build(timestamp, "monitor/tick/lateness", latenessMillis));
+      emitter.emit(metricBuilder.build(timestamp, "monitor/tick/latency", latencyMillis));
+      emitter.emit(metricBuilder.build(timestamp, "monitor/tick/skipped", skipped - reportedSkippedTicks));
+      reportedSkippedTicks = skipped;
     }
   }
 }
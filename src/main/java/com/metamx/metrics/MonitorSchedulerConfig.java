@@ -21,10 +21,52 @@ import org.skife.config.Config;
 import org.skife.config.Default;
 
 /**
+ * Settings added after the emitter period are not abstract: their default is the value returned by the method, which
+ * config-magic calls when the property is not set, rather than a {@link Default} or DefaultNull annotation.
  */
 public abstract class MonitorSchedulerConfig
 {
   @Config({"com.metamx.metrics.emitter.period", "com.metamx.druid.emitter.period"})
   @Default("PT60s")
   public abstract Duration getEmitterPeriod();
+
+  /**
+   * Deadline for a single run of a monitor, when monitors are run on a worker pool. Runs exceeding it are cancelled.
+   * If null, each monitor's deadline is its own period.
+   */
+  @Config("com.metamx.metrics.monitor.timeout")
+  public Duration getMonitorTimeout()
+  {
+    return null;
+  }
+
+  /**
+   * What to do with the ticks of a monitor that were missed because a run took longer than the monitor's period.
+   */
+  @Config("com.metamx.metrics.monitor.overrunPolicy")
+  public OverrunPolicy getOverrunPolicy()
+  {
+    return OverrunPolicy.RUN_LATE;
+  }
+
+  /**
+   * If true, the ticks of each monitor are aligned to wall-clock multiples of its period (e. g. :00, :15, :30 and :45
+   * past the minute for PT15s), instead of being relative to the time the monitor was started.
+   */
+  @Config("com.metamx.metrics.monitor.alignTicks")
+  public boolean isAlignTicks()
+  {
+    return false;
+  }
+
+  /**
+   * Window of the delay added to aligned ticks, so that a fleet of hosts doesn't hit the collector at the very same
+   * moment. The delay is derived from the host name, so it is the same across restarts of a host. Events still carry
+   * the aligned timestamp. Capped to each monitor's period, and ignored if ticks are not aligned.
+   */
+  @Config("com.metamx.metrics.monitor.tickJitter")
+  public Duration getTickJitter()
+  {
+    return Duration.ZERO;
+  }
 }
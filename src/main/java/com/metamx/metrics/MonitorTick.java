@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import org.joda.time.DateTime;
+
+/**
+ * One run of a {@link Monitor}, as scheduled by {@link MonitorScheduler}. All events emitted during a tick should carry
+ * {@link #getTimestamp()}, rather than the time each of them happened to be built at, and rates should be computed
+ * over {@link #getElapsedNanos()}.
+ */
+public class MonitorTick
+{
+  /**
+   * @param previous the previous tick of the same monitor, or null if this is the first one
+   *
+   * @return a tick happening right now, for monitors run outside of a {@link MonitorScheduler}
+   */
+  public static MonitorTick next(MonitorTick previous)
+  {
+    final long nanoTime = System.nanoTime();
+    return new MonitorTick(new DateTime(), nanoTime, previous == null ? 0 : nanoTime - previous.nanoTime);
+  }
+
+  private final DateTime timestamp;
+  private final long nanoTime;
+  private final long elapsedNanos;
+
+  public MonitorTick(DateTime timestamp, long nanoTime, long elapsedNanos)
+  {
+    Preconditions.checkArgument(elapsedNanos >= 0, "elapsedNanos must be non-negative, got [%s]", elapsedNanos);
+    this.timestamp = Preconditions.checkNotNull(timestamp, "timestamp");
+    this.nanoTime = nanoTime;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public DateTime getTimestamp()
+  {
+    return timestamp;
+  }
+
+  /**
+   * @return {@link System#nanoTime()} when the tick actually started
+   */
+  public long getNanoTime()
+  {
+    return nanoTime;
+  }
+
+  /**
+   * @return nanoseconds elapsed since the start of the previous tick of the same monitor, or 0 if this is the first
+   * tick
+   */
+  public long getElapsedNanos()
+  {
+    return elapsedNanos;
+  }
+
+  public boolean isFirst()
+  {
+    return elapsedNanos == 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "MonitorTick{" +
+           "timestamp=" + timestamp +
+           ", elapsedNanos=" + elapsedNanos +
+           '}';
+  }
+}
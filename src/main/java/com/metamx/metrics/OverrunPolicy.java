@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+/**
+ * What {@link MonitorScheduler} does with the ticks of a monitor that were missed because a run took longer than the
+ * monitor's period.
+ */
+public enum OverrunPolicy
+{
+  /**
+   * Drop the missed ticks, the next run happens at the next tick that is still in the future.
+   */
+  SKIP,
+  /**
+   * Run once, right away, in place of all the missed ticks.
+   */
+  COALESCE,
+  /**
+   * Run every missed tick, back to back, until the schedule is caught up.
+   */
+  RUN_LATE
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.perfdata.PerfData;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+
+/**
+ * The GC metrics of a JVM, read from its hsperfdata: the deltas of the invocations and of the cpu time of the collector
+ * of each generation, and the capacities and usage of the spaces of each generation.
+ *
+ * The following GC-related code is partially based on
+ * https://github.com/aragozin/jvm-tools/blob/e0e37692648951440aa1a4ea5046261cb360df70/
+ * sjk-core/src/main/java/org/gridkit/jvmtool/PerfCounterGcCpuUsageMonitor.java
+ *
+ * Counters are resolved once, so that reading them on every tick is a load from the mapped hsperfdata file.
+ */
+class PerfDataGcCounters
+{
+  private final MetricEventTemplate template;
+  private final boolean baseline;
+  private final List<GcGeneration> generations = new ArrayList<>();
+
+  /**
+   * @param template template of the JVM, to which generation dimensions are added
+   * @param baseline whether the first deltas are since the counters were created, rather than since the JVM started
+   *
+   * @throws com.metamx.common.ISE if the counters are missing, e. g. because the JVM is still starting
+   */
+  PerfDataGcCounters(PerfData perfData, MetricEventTemplate template, boolean baseline)
+  {
+    this.template = template;
+    this.baseline = baseline;
+    generations.add(new GcGeneration(perfData, 0, "young"));
+    generations.add(new GcGeneration(perfData, 1, "old"));
+    // Removed in Java 8 but still actual for previous Java versions
+    if (perfData.contains("sun.gc.generation.2.name")) {
+      generations.add(new GcGeneration(perfData, 2, "perm"));
+    }
+  }
+
+  void emit(ServiceEmitter emitter, DateTime timestamp)
+  {
+    for (GcGeneration generation : generations) {
+      generation.emit(emitter, timestamp);
+    }
+  }
+
+  private class GcGeneration
+  {
+    private final String name;
+    private final GcGenerationCollector collector;
+    private final MetricEventTemplate template;
+    private final List<GcGenerationSpace> spaces = new ArrayList<>();
+
+    GcGeneration(PerfData perfData, long genIndex, String name)
+    {
+      this.name = name.toLowerCase();
+
+      if (perfData.contains(String.format("sun.gc.collector.%d.name", genIndex))) {
+        collector = new GcGenerationCollector(perfData, genIndex);
+      } else {
+        collector = null;
+      }
+
+      // The generation's dimensions don't change, so the template is built once rather than on every tick
+      MetricEventTemplate genTemplate = PerfDataGcCounters.this.template.withDimension(
+          "gcGen",
+          new String[]{this.name}
+      );
+      if (collector != null) {
+        genTemplate = genTemplate.withDimension("gcName", new String[]{collector.name});
+      }
+      this.template = genTemplate;
+
+      long spacesCount = perfData.getLong(perfData.offset(String.format("sun.gc.generation.%d.spaces", genIndex)));
+      for (long spaceIndex = 0; spaceIndex < spacesCount; spaceIndex++) {
+        spaces.add(new GcGenerationSpace(perfData, genIndex, spaceIndex, template));
+      }
+    }
+
+    void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      if (collector != null) {
+        collector.emit(emitter, timestamp, template);
+      }
+
+      for (GcGenerationSpace space : spaces) {
+        space.emit(emitter, timestamp);
+      }
+    }
+  }
+
+  private class GcGenerationCollector
+  {
+    private final String name;
+    private final PerfData perfData;
+    private final int invocationsOffset;
+    private final int timeOffset;
+    private long lastInvocations = 0;
+    private long lastCpuNanos = 0;
+
+    GcGenerationCollector(PerfData perfData, long genIndex)
+    {
+      String collectorKeyPrefix = String.format("sun.gc.collector.%d", genIndex);
+
+      name = JvmMonitor.getReadableName(perfData.getString(String.format("%s.name", collectorKeyPrefix)));
+
+      this.perfData = perfData;
+      invocationsOffset = perfData.offset(String.format("%s.invocations", collectorKeyPrefix));
+      timeOffset = perfData.offset(String.format("%s.time", collectorKeyPrefix));
+      if (baseline) {
+        lastInvocations = perfData.getLong(invocationsOffset);
+        lastCpuNanos = perfData.ticksToNanos(perfData.getLong(timeOffset));
+      }
+    }
+
+    void emit(ServiceEmitter emitter, DateTime timestamp, MetricEventTemplate template)
+    {
+      long newInvocations = perfData.getLong(invocationsOffset);
+      emitter.emit(template.build(timestamp, "jvm/gc/count", newInvocations - lastInvocations));
+      lastInvocations = newInvocations;
+
+      long newCpuNanos = perfData.ticksToNanos(perfData.getLong(timeOffset));
+      emitter.emit(template.build(timestamp, "jvm/gc/cpu", newCpuNanos - lastCpuNanos));
+      lastCpuNanos = newCpuNanos;
+    }
+  }
+
+  private class GcGenerationSpace
+  {
+    private final String name;
+    private final MetricEventTemplate template;
+
+    private final PerfData perfData;
+    private final int maxOffset;
+    private final int capacityOffset;
+    private final int usedOffset;
+    private final int initOffset;
+
+    GcGenerationSpace(PerfData perfData, long genIndex, long spaceIndex, MetricEventTemplate genTemplate)
+    {
+      String spaceKeyPrefix = String.format("sun.gc.generation.%d.space.%d", genIndex, spaceIndex);
+
+      name = perfData.getString(String.format("%s.name", spaceKeyPrefix)).toLowerCase();
+      template = genTemplate.withDimension("gcGenSpaceName", name);
+
+      this.perfData = perfData;
+      maxOffset = perfData.offset(String.format("%s.maxCapacity", spaceKeyPrefix));
+      capacityOffset = perfData.offset(String.format("%s.capacity", spaceKeyPrefix));
+      usedOffset = perfData.offset(String.format("%s.used", spaceKeyPrefix));
+      initOffset = perfData.offset(String.format("%s.initCapacity", spaceKeyPrefix));
+    }
+
+    void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/max", perfData.getLong(maxOffset)));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/capacity", perfData.getLong(capacityOffset)));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/used", perfData.getLong(usedOffset)));
+      emitter.emit(template.build(timestamp, "jvm/gc/mem/init", perfData.getLong(initOffset)));
+    }
+  }
+}
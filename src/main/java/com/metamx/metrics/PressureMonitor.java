@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.logger.Logger;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.metrics.cgroups.CachingCgroupDiscoverer;
+import com.metamx.metrics.cgroups.CgroupDiscoverer;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import com.metamx.metrics.proc.ProcFileReader;
+import com.metamx.metrics.proc.ProcPressure;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * Emits the pressure stall information (PSI) of the host, from /proc/pressure/{cpu,memory,io}, and of the cgroup of
+ * the process, from its cpu.pressure, memory.pressure and io.pressure with cgroup v2: the "some" and "full" averages
+ * over 10 and 60 seconds, in percent, and the deltas of the total time stalled, in microseconds, with a psiResource
+ * dimension. Unlike the load average, which grows with the number of cpus, these directly tell the time lost waiting
+ * on each resource.
+ *
+ * Files missing because the kernel has no PSI, or because the cgroup is a v1 one, are skipped, as is the "full" line
+ * of cpu before Linux 5.13.
+ */
+public class PressureMonitor extends FeedDefiningMonitor
+{
+  private static final Logger log = new Logger(PressureMonitor.class);
+  private static final List<String> RESOURCES = ImmutableList.of("cpu", "memory", "io");
+  /**
+   * Controller the cgroup is discovered with, all of them sharing the same directory with cgroup v2
+   */
+  private static final String CGROUP = "cpu";
+
+  private final Path pressureDir;
+  private final PidDiscoverer pidDiscoverer;
+  private final CgroupDiscoverer cgroupDiscoverer;
+  private final ProcFileReader reader = new ProcFileReader(512);
+  private final ProcPressure pressure = new ProcPressure(reader);
+  private final MetricEventTemplate[] templates = new MetricEventTemplate[RESOURCES.size()];
+  private final KeyedLongDiff sysDiff = new KeyedLongDiff("sys/pressure_some_us", "sys/pressure_full_us");
+  private final KeyedLongDiff cgroupDiff = new KeyedLongDiff("cgroup/pressure_some_us", "cgroup/pressure_full_us");
+  private final long[] totals = new long[2];
+  // Whether the latest cgroup discovery failed, so that hosts without the hierarchy don't log an error every tick
+  private boolean discoveryFailed = false;
+
+  public PressureMonitor()
+  {
+    this(ImmutableMap.of());
+  }
+
+  public PressureMonitor(final Map<String, String[]> dimensions)
+  {
+    this(dimensions, DEFAULT_METRICS_FEED);
+  }
+
+  public PressureMonitor(final Map<String, String[]> dimensions, final String feed)
+  {
+    this(
+        feed,
+        dimensions,
+        Paths.get("/proc"),
+        JvmPidDiscoverer.instance(),
+        new CachingCgroupDiscoverer(new ProcCgroupDiscoverer())
+    );
+  }
+
+  /**
+   * @param procDir          procfs of the host pressure, or null to only emit the pressure of the cgroup
+   * @param cgroupDiscoverer discoverer of the cgroup of the pid, or null to only emit the pressure of the host
+   */
+  public PressureMonitor(
+      String feed,
+      Map<String, String[]> dimensions,
+      Path procDir,
+      PidDiscoverer pidDiscoverer,
+      CgroupDiscoverer cgroupDiscoverer
+  )
+  {
+    super(feed);
+    Preconditions.checkNotNull(dimensions);
+    Preconditions.checkArgument(procDir != null || cgroupDiscoverer != null, "Nothing to monitor");
+    this.pressureDir = procDir == null ? null : procDir.resolve("pressure");
+    this.pidDiscoverer = pidDiscoverer;
+    this.cgroupDiscoverer = cgroupDiscoverer;
+    if (cgroupDiscoverer != null) {
+      Preconditions.checkNotNull(pidDiscoverer, "pidDiscoverer required");
+    }
+    final MetricEventTemplate template = template(dimensions);
+    for (int i = 0; i < RESOURCES.size(); i++) {
+      templates[i] = template.withDimension("psiResource", RESOURCES.get(i));
+    }
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public synchronized boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+  {
+    final DateTime dateTime = tick.getTimestamp();
+    if (pressureDir != null) {
+      for (int i = 0; i < RESOURCES.size(); i++) {
+        emitPressure(emitter, dateTime, "sys", sysDiff, i, pressureDir.resolve(RESOURCES.get(i)));
+      }
+    }
+    final Path cgroupDir = cgroupDiscoverer == null ? null : discoverCgroup();
+    if (cgroupDir != null) {
+      for (int i = 0; i < RESOURCES.size(); i++) {
+        emitPressure(emitter, dateTime, "cgroup", cgroupDiff, i, cgroupDir.resolve(RESOURCES.get(i) + ".pressure"));
+      }
+    }
+    sysDiff.retainRecent();
+    cgroupDiff.retainRecent();
+    return true;
+  }
+
+  /**
+   * @return the cgroup directory of the pid, or null if it can't be discovered. Only the first of consecutive failures
+   * is logged as an error.
+   */
+  private Path discoverCgroup()
+  {
+    try {
+      final Path cgroupDir = cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid());
+      discoveryFailed = false;
+      return cgroupDir;
+    }
+    catch (RuntimeException e) {
+      if (discoveryFailed) {
+        log.debug(e, "Unable to discover cgroup");
+      } else {
+        log.error(e, "Unable to discover cgroup, logging further failures at debug level");
+        discoveryFailed = true;
+      }
+      return null;
+    }
+  }
+
+  private void emitPressure(
+      ServiceEmitter emitter,
+      DateTime dateTime,
+      String prefix,
+      KeyedLongDiff diff,
+      int resource,
+      Path file
+  )
+  {
+    if (!file.toFile().exists()) {
+      return;
+    }
+    try {
+      pressure.read(file);
+    }
+    catch (IOException e) {
+      log.error(e, "Unable to read [%s]", file);
+      return;
+    }
+    final MetricEventTemplate template = templates[resource];
+    final boolean hasFull = pressure.has(ProcPressure.FULL);
+    emitter.emit(template.build(
+        dateTime,
+        prefix + "/pressure_some_avg10",
+        pressure.getAvg(ProcPressure.SOME, ProcPressure.AVG10)
+    ));
+    emitter.emit(template.build(
+        dateTime,
+        prefix + "/pressure_some_avg60",
+        pressure.getAvg(ProcPressure.SOME, ProcPressure.AVG60)
+    ));
+    if (hasFull) {
+      emitter.emit(template.build(
+          dateTime,
+          prefix + "/pressure_full_avg10",
+          pressure.getAvg(ProcPressure.FULL, ProcPressure.AVG10)
+      ));
+      emitter.emit(template.build(
+          dateTime,
+          prefix + "/pressure_full_avg60",
+          pressure.getAvg(ProcPressure.FULL, ProcPressure.AVG60)
+      ));
+    }
+    totals[0] = pressure.getTotalUs(ProcPressure.SOME);
+    totals[1] = hasFull ? pressure.getTotalUs(ProcPressure.FULL) : 0;
+    final long[] deltas = diff.to(RESOURCES.get(resource), totals);
+    if (deltas != null) {
+      emitter.emit(template.build(dateTime, diff.getMetric(0), deltas[0]));
+      if (hasFull) {
+        emitter.emit(template.build(dateTime, diff.getMetric(1), deltas[1]));
+      }
+    }
+  }
+}
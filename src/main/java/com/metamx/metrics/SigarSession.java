@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
+
+import java.io.Closeable;
+
+/**
+ * The Sigar handle shared by all the monitors of the process, instead of a native handle per monitor. The handle is
+ * only created on the first call, and calls are serialized, as Sigar handles make no thread-safety guarantees while
+ * monitors may be run concurrently by {@link MonitorScheduler}.
+ *
+ * As a call holds the session, calls which may block for long, e. g. the directory scans of
+ * {@link Sigar#getDirUsage(String)}, are made on a session of their own instead, so they don't hold up the other
+ * monitors.
+ *
+ * Monitors using the session close it when they are stopped, i. e. along with {@link MonitorScheduler#stop()}. A
+ * closed session is re-created on the next call, so closing it while other monitors still use it is safe.
+ */
+public class SigarSession implements Closeable
+{
+  private static final SigarSession INSTANCE = new SigarSession();
+
+  public static SigarSession instance()
+  {
+    return INSTANCE;
+  }
+
+  public interface SigarFunction<T>
+  {
+    T apply(Sigar sigar) throws SigarException;
+  }
+
+  private Sigar sigar = null;
+
+  SigarSession()
+  {
+  }
+
+  /**
+   * Runs the function with the handle, creating it if needed. The function shouldn't keep the handle, nor any object
+   * it returns holding native resources, past the call.
+   */
+  public synchronized <T> T call(SigarFunction<T> function) throws SigarException
+  {
+    if (sigar == null) {
+      sigar = SigarUtil.getSigar();
+      sigar.enableLogging(true);
+    }
+    return function.apply(sigar);
+  }
+
+  public synchronized boolean isOpen()
+  {
+    return sigar != null;
+  }
+
+  /**
+   * Releases the native handle, if it was created
+   */
+  @Override
+  public synchronized void close()
+  {
+    if (sigar != null) {
+      sigar.close();
+      sigar = null;
+    }
+  }
+}
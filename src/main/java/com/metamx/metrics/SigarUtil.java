@@ -22,6 +22,7 @@ import com.metamx.common.logger.Logger;
 import org.hyperic.jni.ArchLoaderException;
 import org.hyperic.jni.ArchNotSupportedException;
 import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
 import org.hyperic.sigar.SigarLoader;
 
 import java.io.File;
@@ -58,20 +59,33 @@ public class SigarUtil
     }
   }
 
+  /**
+   * @return a new Sigar handle, that the caller has to close. Monitors share {@link SigarSession#instance()} instead.
+   */
   public static Sigar getSigar()
   {
     return new Sigar();
   }
 
   /**
-   * CurrentProcessIdHolder class is initialized after SigarUtil, that guarantees that new Sigar() is executed after
+   * CurrentProcessIdHolder class is initialized after SigarUtil, that guarantees that the Sigar handle is created after
    * static block (which loads the library) of SigarUtil is executed. This is anyway guaranteed by JLS if the static
    * field goes below the static block in textual order, but fragile e. g. if someone applies automatic reformatting and
    * the static field is moved above the static block.
    */
   private static class CurrentProcessIdHolder
   {
-    private static final long currentProcessId = new Sigar().getPid();
+    private static final long currentProcessId = currentProcessId();
+
+    private static long currentProcessId()
+    {
+      try {
+        return SigarSession.instance().call(Sigar::getPid);
+      }
+      catch (SigarException e) {
+        throw Throwables.propagate(e);
+      }
+    }
   }
 
   public static long getCurrentProcessId()
@@ -16,17 +16,35 @@
 
 package com.metamx.metrics;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.metamx.common.logger.Logger;
 import com.metamx.emitter.service.ServiceEmitter;
-import com.metamx.emitter.service.ServiceMetricEvent;
+import com.metamx.metrics.proc.ProcCpuStat;
+import com.metamx.metrics.proc.ProcDiskStats;
+import com.metamx.metrics.proc.ProcFileReader;
+import com.metamx.metrics.proc.ProcKeyValues;
+import com.metamx.metrics.proc.ProcMounts;
+import com.metamx.metrics.proc.ProcNetDev;
+import com.metamx.metrics.proc.ProcNetSnmp;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.hyperic.sigar.Cpu;
 import org.hyperic.sigar.DirUsage;
 import org.hyperic.sigar.DiskUsage;
@@ -41,19 +59,57 @@ import org.hyperic.sigar.SigarException;
 import org.hyperic.sigar.Swap;
 import org.hyperic.sigar.Tcp;
 import org.hyperic.sigar.Uptime;
+import org.joda.time.DateTime;
 
 public class SysMonitor extends FeedDefiningMonitor
 {
   private static final Logger log = new Logger(SysMonitor.class);
 
-  private final Sigar sigar = SigarUtil.getSigar();
+  /**
+   * Only opened once a stats group reading from it is run
+   */
+  private final SigarSession sigar = SigarSession.instance();
+  /**
+   * Directory scans of {@link DirStats} may be slow, e. g. on NFS, so they run on a handle of their own rather than
+   * holding the shared one, which would block the other monitors, even past a run cancelled at its deadline
+   */
+  private final SigarSession dirSigar = new SigarSession();
 
   private final List<String> fsTypeWhitelist = ImmutableList.of("local");
   private final List<String> netAddressBlacklist = ImmutableList.of("0.0.0.0", "127.0.0.1");
 
   private final List<Stats> statsList;
 
-  private Map<String, String[]> dimensions;
+  private final MetricEventTemplate template;
+  private final int counterWidth;
+  private final Path procDir;
+  /**
+   * Shared by all the stats read from procfs, as they are all read from the monitor's thread
+   */
+  private final ProcFileReader procReader = new ProcFileReader();
+
+  /**
+   * Groups of stats which may be read right from procfs on Linux, instead of with Sigar. Metrics are the same either
+   * way. Filesystem and directory stats are always read with Sigar, as are the TCP connection states of
+   * {@link #TCP}.
+   */
+  public enum StatsGroup
+  {
+    /** /proc/meminfo */
+    MEM,
+    /** /proc/meminfo and /proc/vmstat */
+    SWAP,
+    /** /proc/diskstats, for the devices of /proc/mounts */
+    DISK,
+    /** /proc/net/dev, addresses being looked up with {@link NetworkInterface} */
+    NET,
+    /** /proc/stat */
+    CPU,
+    /** /proc/uptime and /proc/loadavg */
+    SYS,
+    /** /proc/net/snmp */
+    TCP
+  }
 
   public SysMonitor()
   {
@@ -65,24 +121,53 @@ public class SysMonitor extends FeedDefiningMonitor
   }
 
   public SysMonitor(Map<String, String[]> dimensions, String feed)
+  {
+    this(dimensions, feed, Long.SIZE);
+  }
+
+  /**
+   * @param counterWidth width in bits of the counters of the host, e. g. 32 on hosts with a 32-bit kernel, whose
+   *                     counters wrap much sooner than 64-bit ones
+   */
+  public SysMonitor(Map<String, String[]> dimensions, String feed, int counterWidth)
+  {
+    this(dimensions, feed, counterWidth, EnumSet.noneOf(StatsGroup.class));
+  }
+
+  /**
+   * @param procfsStats groups of stats to read from procfs rather than with Sigar
+   */
+  public SysMonitor(Map<String, String[]> dimensions, String feed, int counterWidth, Set<StatsGroup> procfsStats)
+  {
+    this(dimensions, feed, counterWidth, procfsStats, Paths.get("/proc"));
+  }
+
+  @VisibleForTesting
+  SysMonitor(
+      Map<String, String[]> dimensions,
+      String feed,
+      int counterWidth,
+      Set<StatsGroup> procfsStats,
+      Path procDir
+  )
   {
     super(feed);
     Preconditions.checkNotNull(dimensions);
-    this.dimensions = ImmutableMap.copyOf(dimensions);
-
-    sigar.enableLogging(true);
+    this.template = template(dimensions);
+    this.counterWidth = counterWidth;
+    this.procDir = procDir;
 
     this.statsList = new ArrayList<Stats>();
     this.statsList.addAll(
         Arrays.asList(
-            new MemStats(),
+            procfsStats.contains(StatsGroup.MEM) ? new ProcfsMemStats() : new MemStats(),
             new FsStats(),
-            new DiskStats(),
-            new NetStats(),
-            new CpuStats(),
-            new SwapStats(),
-            new SysStats(),
-            new TcpStats()
+            procfsStats.contains(StatsGroup.DISK) ? new ProcfsDiskStats() : new DiskStats(),
+            procfsStats.contains(StatsGroup.NET) ? new ProcfsNetStats() : new NetStats(),
+            procfsStats.contains(StatsGroup.CPU) ? new ProcfsCpuStats() : new CpuStats(),
+            procfsStats.contains(StatsGroup.SWAP) ? new ProcfsSwapStats() : new SwapStats(),
+            procfsStats.contains(StatsGroup.SYS) ? new ProcfsSysStats() : new SysStats(),
+            procfsStats.contains(StatsGroup.TCP) ? new ProcfsTcpStats() : new TcpStats()
         )
     );
   }
@@ -97,44 +182,128 @@ public class SysMonitor extends FeedDefiningMonitor
 
   @Override
   public boolean doMonitor(ServiceEmitter emitter)
+  {
+    return doMonitor(emitter, nextTick());
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
   {
     for (Stats stats : statsList) {
-      stats.emit(emitter);
+      stats.emit(emitter, tick.getTimestamp());
     }
     return true;
   }
 
+  /**
+   * Releases the shared Sigar handle, which is re-opened if monitors still use it, and the one of directory scans
+   */
+  @Override
+  public void stop()
+  {
+    super.stop();
+    sigar.close();
+    dirSigar.close();
+  }
+
+  private MetricEventTemplate fsTemplate(TickCache<List<String>, MetricEventTemplate> templates, FileSystem fs)
+  {
+    return fsTemplate(
+        templates,
+        Arrays.asList(fs.getDevName(), fs.getDirName(), fs.getTypeName(), fs.getSysTypeName(), fs.getOptions())
+    );
+  }
+
+  /**
+   * @param fs device, directory, type, sys type and options of the filesystem
+   */
+  private MetricEventTemplate fsTemplate(TickCache<List<String>, MetricEventTemplate> templates, List<String> fs)
+  {
+    return templates.get(
+        fs,
+        key -> template.withDimension("fsDevName", key.get(0))
+                       .withDimension("fsDirName", key.get(1))
+                       .withDimension("fsTypeName", key.get(2))
+                       .withDimension("fsSysTypeName", key.get(3))
+                       .withDimension("fsOptions", key.get(4).split(","))
+    );
+  }
+
+  /**
+   * @return the pages swapped in and out so far, or zeros if vmstat can't be read
+   */
+  private long[] readSwapPages(ProcKeyValues vmstat)
+  {
+    try {
+      return vmstat.read().clone();
+    }
+    catch (IOException e) {
+      log.error(e, "Failed to read vmstat");
+      return new long[2];
+    }
+  }
+
   private interface Stats
   {
-    public void emit(ServiceEmitter emitter);
+    public void emit(ServiceEmitter emitter, DateTime timestamp);
   }
 
   private class MemStats implements Stats
   {
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       Mem mem = null;
       try {
-        mem = sigar.getMem();
+        mem = sigar.call(Sigar::getMem);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Mem");
       }
       if (mem != null) {
-        final Map<String, Long> stats = ImmutableMap.of(
-            "sys/mem/max", mem.getTotal(),
-            "sys/mem/used", mem.getUsed(),
-            "sys/mem/actual/used", mem.getActualUsed(),
-            "sys/mem/actual/free", mem.getActualFree()
-        );
-        final ServiceMetricEvent.Builder builder = builder();
-        MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-        for (Map.Entry<String, Long> entry : stats.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-        }
+        emitMem(emitter, timestamp, mem.getTotal(), mem.getUsed(), mem.getActualUsed(), mem.getActualFree());
       }
     }
+
+    void emitMem(ServiceEmitter emitter, DateTime timestamp, long max, long used, long actualUsed, long actualFree)
+    {
+      emitter.emit(template.build(timestamp, "sys/mem/max", max));
+      emitter.emit(template.build(timestamp, "sys/mem/used", used));
+      emitter.emit(template.build(timestamp, "sys/mem/actual/used", actualUsed));
+      emitter.emit(template.build(timestamp, "sys/mem/actual/free", actualFree));
+    }
+  }
+
+  /**
+   * Reads /proc/meminfo. Actual free memory counts buffers and page cache as free, the way Sigar does.
+   */
+  private class ProcfsMemStats extends MemStats
+  {
+    private final ProcKeyValues meminfo = new ProcKeyValues(
+        procReader,
+        procDir.resolve("meminfo"),
+        "MemTotal",
+        "MemFree",
+        "Buffers",
+        "Cached"
+    );
+
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      final long[] kbs;
+      try {
+        kbs = meminfo.read();
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read meminfo");
+        return;
+      }
+      final long total = kbs[0] * 1024;
+      final long free = kbs[1] * 1024;
+      final long actualFree = free + (kbs[2] + kbs[3]) * 1024;
+      emitMem(emitter, timestamp, total, total - free, total - actualFree, actualFree);
+    }
   }
 
   /**
@@ -144,49 +313,97 @@ public class SysMonitor extends FeedDefiningMonitor
   private class SwapStats implements Stats
   {
     private long prevPageIn = 0, prevPageOut = 0;
+    /**
+     * Whether the previous pages were read. Those of Sigar are read on the first emit rather than on construction, so
+     * that Sigar isn't opened before, and deltas start on the second emit.
+     */
+    private boolean hasPrev;
 
     private SwapStats()
     {
-      try {
-        Swap swap = sigar.getSwap();
-        this.prevPageIn = swap.getPageIn();
-        this.prevPageOut = swap.getPageOut();
-      }
-      catch (SigarException e) {
-        log.error(e, "Failed to get Swap");
-      }
+      this.hasPrev = false;
+    }
+
+    SwapStats(long prevPageIn, long prevPageOut)
+    {
+      this.prevPageIn = prevPageIn;
+      this.prevPageOut = prevPageOut;
+      this.hasPrev = true;
     }
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       Swap swap = null;
       try {
-        swap = sigar.getSwap();
+        swap = sigar.call(Sigar::getSwap);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Swap");
       }
       if (swap != null) {
-        long currPageIn = swap.getPageIn();
-        long currPageOut = swap.getPageOut();
-
-        final Map<String, Long> stats = ImmutableMap.of(
-            "sys/swap/pageIn", (currPageIn - prevPageIn),
-            "sys/swap/pageOut", (currPageOut - prevPageOut),
-            "sys/swap/max", swap.getTotal(),
-            "sys/swap/free", swap.getFree()
-        );
+        emitSwap(emitter, timestamp, swap.getPageIn(), swap.getPageOut(), swap.getTotal(), swap.getFree());
+      }
+    }
 
-        final ServiceMetricEvent.Builder builder = builder();
-        MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-        for (Map.Entry<String, Long> entry : stats.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-        }
+    void emitSwap(ServiceEmitter emitter, DateTime timestamp, long currPageIn, long currPageOut, long max, long free)
+    {
+      if (hasPrev) {
+        emitter.emit(template.build(timestamp, "sys/swap/pageIn", currPageIn - prevPageIn));
+        emitter.emit(template.build(timestamp, "sys/swap/pageOut", currPageOut - prevPageOut));
+      }
+      emitter.emit(template.build(timestamp, "sys/swap/max", max));
+      emitter.emit(template.build(timestamp, "sys/swap/free", free));
+
+      this.prevPageIn = currPageIn;
+      this.prevPageOut = currPageOut;
+      this.hasPrev = true;
+    }
+  }
 
-        this.prevPageIn = currPageIn;
-        this.prevPageOut = currPageOut;
+  /**
+   * Reads the sizes of swap from /proc/meminfo, and the pages swapped in and out from /proc/vmstat.
+   */
+  private class ProcfsSwapStats extends SwapStats
+  {
+    private final ProcKeyValues meminfo = new ProcKeyValues(
+        procReader,
+        procDir.resolve("meminfo"),
+        "SwapTotal",
+        "SwapFree"
+    );
+    private final ProcKeyValues vmstat;
+
+    private ProcfsSwapStats()
+    {
+      this(new ProcKeyValues(procReader, procDir.resolve("vmstat"), "pswpin", "pswpout"));
+    }
+
+    private ProcfsSwapStats(ProcKeyValues vmstat)
+    {
+      this(vmstat, readSwapPages(vmstat));
+    }
+
+    private ProcfsSwapStats(ProcKeyValues vmstat, long[] pages)
+    {
+      super(pages[0], pages[1]);
+      this.vmstat = vmstat;
+    }
+
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      final long[] kbs;
+      final long[] pages;
+      try {
+        kbs = meminfo.read();
+        pages = vmstat.read();
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read meminfo or vmstat");
+        return;
       }
+      emitSwap(emitter, timestamp, pages[0], pages[1], kbs[0] * 1024, kbs[1] * 1024);
     }
   }
 
@@ -196,19 +413,26 @@ public class SysMonitor extends FeedDefiningMonitor
   private class DirStats implements Stats
   {
     private final String[] dirList;
+    private final MetricEventTemplate[] dirTemplates;
 
     private DirStats(String[] dirList)
     {
       this.dirList = dirList;
+      this.dirTemplates = new MetricEventTemplate[dirList.length];
+      for (int i = 0; i < dirList.length; i++) {
+        // fsDirName because FsStats uses fsDirName
+        dirTemplates[i] = template.withDimension("fsDirName", dirList[i]);
+      }
     }
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
-      for (String dir : dirList) {
+      for (int i = 0; i < dirList.length; i++) {
+        final String dir = dirList[i];
         DirUsage du = null;
         try {
-          du = sigar.getDirUsage(dir);
+          du = dirSigar.call(s -> s.getDirUsage(dir));
         }
         catch (SigarException e) {
           log.error("Failed to get DiskUsage for [%s] due to   [%s]", dir, e.getMessage());
@@ -217,11 +441,8 @@ public class SysMonitor extends FeedDefiningMonitor
           final Map<String, Long> stats = ImmutableMap.of(
               "sys/storage/used", du.getDiskUsage()
           );
-          final ServiceMetricEvent.Builder builder = builder()
-              .setDimension("fsDirName", dir); // fsDirName because FsStats uses fsDirName
-          MonitorUtils.addDimensionsToBuilder(builder, dimensions);
           for (Map.Entry<String, Long> entry : stats.entrySet()) {
-            emitter.emit(builder.build(entry.getKey(), entry.getValue()));
+            emitter.emit(dirTemplates[i].build(timestamp, entry.getKey(), entry.getValue()));
           }
         }
       }
@@ -230,12 +451,14 @@ public class SysMonitor extends FeedDefiningMonitor
 
   private class FsStats implements Stats
   {
+    private final TickCache<List<String>, MetricEventTemplate> templates = new TickCache<>();
+
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       FileSystem[] fss = null;
       try {
-        fss = sigar.getFileSystemList();
+        fss = sigar.call(Sigar::getFileSystemList);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get FileSystem list");
@@ -247,7 +470,7 @@ public class SysMonitor extends FeedDefiningMonitor
           if (fsTypeWhitelist.contains(fs.getTypeName())) {
             FileSystemUsage fsu = null;
             try {
-              fsu = sigar.getFileSystemUsage(name);
+              fsu = sigar.call(s -> s.getFileSystemUsage(name));
             }
             catch (SigarException e) {
               log.error(e, "Failed to get FileSystemUsage[%s]", name);
@@ -259,35 +482,84 @@ public class SysMonitor extends FeedDefiningMonitor
                                                           .put("sys/fs/files/count", fsu.getFiles())
                                                           .put("sys/fs/files/free", fsu.getFreeFiles())
                                                           .build();
-              final ServiceMetricEvent.Builder builder = builder()
-                  .setDimension("fsDevName", fs.getDevName())
-                  .setDimension("fsDirName", fs.getDirName())
-                  .setDimension("fsTypeName", fs.getTypeName())
-                  .setDimension("fsSysTypeName", fs.getSysTypeName())
-                  .setDimension("fsOptions", fs.getOptions().split(","));
-              MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+              final MetricEventTemplate fsTemplate = fsTemplate(templates, fs);
               for (Map.Entry<String, Long> entry : stats.entrySet()) {
-                emitter.emit(builder.build(entry.getKey(), entry.getValue()));
+                emitter.emit(fsTemplate.build(timestamp, entry.getKey(), entry.getValue()));
               }
             }
           } else {
             log.debug("Not monitoring fs stats for name[%s] with typeName[%s]", name, fs.getTypeName());
           }
         }
+        templates.retainUsed();
+      }
+    }
+  }
+
+  /**
+   * Stats computed as deltas of counters. Emits the number of keys tracked, and the number of samples suppressed
+   * because a counter was reset, if any.
+   */
+  private abstract class DiffStats implements Stats
+  {
+    final KeyedLongDiff diff;
+    final long[] values;
+    private final MetricEventTemplate diffTemplate;
+    private long reportedSuppressedSamples = 0;
+
+    DiffStats(String diffName, KeyedLongDiff diff)
+    {
+      this.diff = diff.setCounterWidth(counterWidth);
+      this.values = new long[diff.getSchemaSize()];
+      this.diffTemplate = template.withDimension("diffName", diffName);
+    }
+
+    void emitDiffMetrics(ServiceEmitter emitter, DateTime timestamp)
+    {
+      diff.retainRecent();
+      emitter.emit(diffTemplate.build(timestamp, "sys/diff/keys", diff.size()));
+      final long suppressedSamples = diff.getSuppressedSamples();
+      if (suppressedSamples > reportedSuppressedSamples) {
+        emitter.emit(
+            diffTemplate.build(timestamp, "sys/diff/suppressed", suppressedSamples - reportedSuppressedSamples)
+        );
+        reportedSuppressedSamples = suppressedSamples;
+      }
+    }
+
+    void emitDeltas(ServiceEmitter emitter, DateTime timestamp, MetricEventTemplate template, long[] deltas)
+    {
+      for (int i = 0; i < deltas.length; i++) {
+        emitter.emit(template.build(timestamp, diff.getMetric(i), deltas[i]));
       }
     }
   }
 
-  private class DiskStats implements Stats
+  private class DiskStats extends DiffStats
   {
-    private final KeyedDiff diff = new KeyedDiff();
+    final TickCache<List<String>, MetricEventTemplate> templates = new TickCache<>();
+
+    private DiskStats()
+    {
+      super(
+          "disk",
+          new KeyedLongDiff(
+              "sys/disk/read/size",
+              "sys/disk/read/count",
+              "sys/disk/write/size",
+              "sys/disk/write/count",
+              "sys/disk/queue",
+              "sys/disk/serviceTime"
+          ).setGauges("sys/disk/queue", "sys/disk/serviceTime")
+      );
+    }
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       FileSystem[] fss = null;
       try {
-        fss = sigar.getFileSystemList();
+        fss = sigar.call(Sigar::getFileSystemList);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get FileSystem list");
@@ -301,54 +573,158 @@ public class SysMonitor extends FeedDefiningMonitor
           if (fsTypeWhitelist.contains(fs.getTypeName())) {
             DiskUsage du = null;
             try {
-              du = sigar.getDiskUsage(name);
+              du = sigar.call(s -> s.getDiskUsage(name));
             }
             catch (SigarException e) {
               log.error(e, "Failed to get DiskUsage[%s]", name);
             }
             if (du != null) {
-              final Map<String, Long> stats = diff.to(
-                  name, ImmutableMap.<String, Long>builder()
-                                    .put("sys/disk/read/size", du.getReadBytes())
-                                    .put("sys/disk/read/count", du.getReads())
-                                    .put("sys/disk/write/size", du.getWriteBytes())
-                                    .put("sys/disk/write/count", du.getWrites())
-                                    .put("sys/disk/queue", Double.valueOf(du.getQueue()).longValue())
-                                    .put("sys/disk/serviceTime", Double.valueOf(du.getServiceTime()).longValue())
-                                    .build()
-              );
-              log.debug("DiskUsage diff for [%s]: %s", name, stats);
-              if (stats != null) {
-                final ServiceMetricEvent.Builder builder = builder()
-                    .setDimension("fsDevName", fs.getDevName())
-                    .setDimension("fsDirName", fs.getDirName())
-                    .setDimension("fsTypeName", fs.getTypeName())
-                    .setDimension("fsSysTypeName", fs.getSysTypeName())
-                    .setDimension("fsOptions", fs.getOptions().split(","));
-                MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-                for (Map.Entry<String, Long> entry : stats.entrySet()) {
-                  emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-                }
+              values[0] = du.getReadBytes();
+              values[1] = du.getReads();
+              values[2] = du.getWriteBytes();
+              values[3] = du.getWrites();
+              values[4] = (long) du.getQueue();
+              values[5] = (long) du.getServiceTime();
+              final long[] deltas = diff.to(name, values);
+              if (deltas != null) {
+                emitDeltas(emitter, timestamp, fsTemplate(templates, fs), deltas);
               }
             }
           } else {
             log.debug("Not monitoring disk stats for name[%s] with typeName[%s]", name, fs.getTypeName());
           }
         }
+        templates.retainUsed();
+        emitDiffMetrics(emitter, timestamp);
+      }
+    }
+  }
+
+  /**
+   * Reads /proc/diskstats. The queue and service time, which Sigar computes from the previous read, are computed
+   * the same way: the average number of requests in the queue, and the average milliseconds per I/O, since the
+   * previous read.
+   */
+  private class ProcfsDiskStats extends DiskStats
+  {
+    private final ProcMounts procMounts = new ProcMounts(procReader, procDir);
+    private final ProcDiskStats procDiskStats = new ProcDiskStats(procReader, procDir);
+    private final KeyedLongDiff ioDiff = new KeyedLongDiff("ios", "ioTicks", "timeInQueue", "elapsedMs");
+    private final long[] ioValues = new long[ioDiff.getSchemaSize()];
+    /**
+     * Names in /proc/diskstats of the devices of /proc/mounts, e. g. dm-0 for /dev/mapper/vg-root
+     */
+    private final TickCache<String, String> deviceNames = new TickCache<>();
+    private final List<String> devices = new ArrayList<>();
+    private final List<List<ProcMounts.Mount>> deviceMounts = new ArrayList<>();
+
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      final List<ProcMounts.Mount> mounts;
+      try {
+        mounts = procMounts.read("/dev/");
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read mounts");
+        return;
+      }
+      devices.clear();
+      deviceMounts.clear();
+      for (ProcMounts.Mount mount : mounts) {
+        final String device = deviceNames.get(mount.getDevice(), this::resolveDevice);
+        int i = devices.indexOf(device);
+        if (i < 0) {
+          i = devices.size();
+          devices.add(device);
+          deviceMounts.add(new ArrayList<>());
+        }
+        deviceMounts.get(i).add(mount);
+      }
+      deviceNames.retainUsed();
+      final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+      try {
+        procDiskStats.read(devices, (device, stats) -> emitDevice(emitter, timestamp, device, stats, elapsedMs));
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read diskstats");
+        return;
+      }
+      ioDiff.retainRecent();
+      templates.retainUsed();
+      emitDiffMetrics(emitter, timestamp);
+    }
+
+    private void emitDevice(ServiceEmitter emitter, DateTime timestamp, int device, long[] stats, long elapsedMs)
+    {
+      ioValues[0] = stats[ProcDiskStats.READS] + stats[ProcDiskStats.WRITES];
+      ioValues[1] = stats[ProcDiskStats.IO_TICKS];
+      ioValues[2] = stats[ProcDiskStats.TIME_IN_QUEUE];
+      ioValues[3] = elapsedMs;
+      final long[] ioDeltas = ioDiff.to(devices.get(device), ioValues);
+      values[0] = stats[ProcDiskStats.READ_SECTORS] * ProcDiskStats.SECTOR_SIZE;
+      values[1] = stats[ProcDiskStats.READS];
+      values[2] = stats[ProcDiskStats.WRITE_SECTORS] * ProcDiskStats.SECTOR_SIZE;
+      values[3] = stats[ProcDiskStats.WRITES];
+      values[4] = ioDeltas == null || ioDeltas[3] == 0 ? 0 : ioDeltas[2] / ioDeltas[3];
+      values[5] = ioDeltas == null || ioDeltas[0] == 0 ? 0 : ioDeltas[1] / ioDeltas[0];
+      for (ProcMounts.Mount mount : deviceMounts.get(device)) {
+        final long[] deltas = diff.to(mount.getDir(), values);
+        if (deltas != null) {
+          final List<String> fs = Arrays.asList(
+              mount.getDevice(),
+              mount.getDir(),
+              "local",
+              mount.getType(),
+              mount.getOptions()
+          );
+          emitDeltas(emitter, timestamp, fsTemplate(templates, fs), deltas);
+        }
+      }
+    }
+
+    private String resolveDevice(String device)
+    {
+      try {
+        return Paths.get(device).toRealPath().getFileName().toString();
+      }
+      catch (IOException e) {
+        return Paths.get(device).getFileName().toString();
       }
     }
   }
 
-  private class NetStats implements Stats
+  private class NetStats extends DiffStats
   {
-    private final KeyedDiff diff = new KeyedDiff();
+    final TickCache<List<String>, MetricEventTemplate> templates = new TickCache<>();
+
+    private NetStats()
+    {
+      super(
+          "net",
+          new KeyedLongDiff(
+              "sys/net/read/size",
+              "sys/net/read/packets",
+              "sys/net/read/errors",
+              "sys/net/read/dropped",
+              "sys/net/read/overruns",
+              "sys/net/read/frame",
+              "sys/net/write/size",
+              "sys/net/write/packets",
+              "sys/net/write/errors",
+              "sys/net/write/dropped",
+              "sys/net/write/collisions",
+              "sys/net/write/overruns"
+          )
+      );
+    }
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       String[] ifaces = null;
       try {
-        ifaces = sigar.getNetInterfaceList();
+        ifaces = sigar.call(Sigar::getNetInterfaceList);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get NetInterface list");
@@ -358,7 +734,7 @@ public class SysMonitor extends FeedDefiningMonitor
         for (String name : ifaces) {
           NetInterfaceConfig netconf = null;
           try {
-            netconf = sigar.getNetInterfaceConfig(name);
+            netconf = sigar.call(s -> s.getNetInterfaceConfig(name));
           }
           catch (SigarException e) {
             log.error(e, "Failed to get NetInterfaceConfig[%s]", name);
@@ -367,58 +743,190 @@ public class SysMonitor extends FeedDefiningMonitor
             if (!(netAddressBlacklist.contains(netconf.getAddress()))) {
               NetInterfaceStat netstat = null;
               try {
-                netstat = sigar.getNetInterfaceStat(name);
+                netstat = sigar.call(s -> s.getNetInterfaceStat(name));
               }
               catch (SigarException e) {
                 log.error(e, "Failed to get NetInterfaceStat[%s]", name);
               }
               if (netstat != null) {
-                final Map<String, Long> stats = diff.to(
-                    name, ImmutableMap.<String, Long>builder()
-                                      .put("sys/net/read/size", netstat.getRxBytes())
-                                      .put("sys/net/read/packets", netstat.getRxPackets())
-                                      .put("sys/net/read/errors", netstat.getRxErrors())
-                                      .put("sys/net/read/dropped", netstat.getRxDropped())
-                                      .put("sys/net/read/overruns", netstat.getRxOverruns())
-                                      .put("sys/net/read/frame", netstat.getRxFrame())
-                                      .put("sys/net/write/size", netstat.getTxBytes())
-                                      .put("sys/net/write/packets", netstat.getTxPackets())
-                                      .put("sys/net/write/errors", netstat.getTxErrors())
-                                      .put("sys/net/write/dropped", netstat.getTxDropped())
-                                      .put("sys/net/write/collisions", netstat.getTxCollisions())
-                                      .put("sys/net/write/overruns", netstat.getTxOverruns())
-                                      .build()
-                );
-                if (stats != null) {
-                  final ServiceMetricEvent.Builder builder = builder()
-                      .setDimension("netName", netconf.getName())
-                      .setDimension("netAddress", netconf.getAddress())
-                      .setDimension("netHwaddr", netconf.getHwaddr());
-                  MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-                  for (Map.Entry<String, Long> entry : stats.entrySet()) {
-                    emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-                  }
-                }
+                values[0] = netstat.getRxBytes();
+                values[1] = netstat.getRxPackets();
+                values[2] = netstat.getRxErrors();
+                values[3] = netstat.getRxDropped();
+                values[4] = netstat.getRxOverruns();
+                values[5] = netstat.getRxFrame();
+                values[6] = netstat.getTxBytes();
+                values[7] = netstat.getTxPackets();
+                values[8] = netstat.getTxErrors();
+                values[9] = netstat.getTxDropped();
+                values[10] = netstat.getTxCollisions();
+                values[11] = netstat.getTxOverruns();
+                emitInterface(emitter, timestamp, netconf.getName(), netconf.getAddress(), netconf.getHwaddr());
               }
             } else {
               log.debug("Not monitoring net stats for name[%s] with address[%s]", name, netconf.getAddress());
             }
           }
         }
+        templates.retainUsed();
+        emitDiffMetrics(emitter, timestamp);
+      }
+    }
+
+    /**
+     * Emits the deltas of the values of the interface
+     */
+    void emitInterface(ServiceEmitter emitter, DateTime timestamp, String name, String address, String hwaddr)
+    {
+      final long[] deltas = diff.to(name, values);
+      if (deltas != null) {
+        final MetricEventTemplate netTemplate = templates.get(
+            Arrays.asList(name, address, hwaddr),
+            key -> template.withDimension("netName", key.get(0))
+                           .withDimension("netAddress", key.get(1))
+                           .withDimension("netHwaddr", key.get(2))
+        );
+        emitDeltas(emitter, timestamp, netTemplate, deltas);
+      }
+    }
+  }
+
+  /**
+   * Reads /proc/net/dev. Addresses are looked up with {@link NetworkInterface} the first time an interface is seen,
+   * and formatted the way Sigar does.
+   */
+  private class ProcfsNetStats extends NetStats
+  {
+    private final ProcNetDev procNetDev = new ProcNetDev(procReader, procDir);
+    /**
+     * Address and hardware address of each interface
+     */
+    private final TickCache<String, String[]> addresses = new TickCache<>();
+
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      try {
+        procNetDev.read((name, stats) -> emitInterface(emitter, timestamp, name, stats));
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read net/dev");
+        return;
+      }
+      addresses.retainUsed();
+      templates.retainUsed();
+      emitDiffMetrics(emitter, timestamp);
+    }
+
+    private void emitInterface(ServiceEmitter emitter, DateTime timestamp, String name, long[] stats)
+    {
+      String[] address = addresses.getIfPresent(name);
+      if (address == null) {
+        address = lookUpAddress(name);
+        if (address == null) {
+          return;
+        }
+        addresses.put(name, address);
+      }
+      if (netAddressBlacklist.contains(address[0])) {
+        log.debug("Not monitoring net stats for name[%s] with address[%s]", name, address[0]);
+        return;
+      }
+      values[0] = stats[ProcNetDev.RX_BYTES];
+      values[1] = stats[ProcNetDev.RX_PACKETS];
+      values[2] = stats[ProcNetDev.RX_ERRS];
+      values[3] = stats[ProcNetDev.RX_DROP];
+      values[4] = stats[ProcNetDev.RX_FIFO];
+      values[5] = stats[ProcNetDev.RX_FRAME];
+      values[6] = stats[ProcNetDev.TX_BYTES];
+      values[7] = stats[ProcNetDev.TX_PACKETS];
+      values[8] = stats[ProcNetDev.TX_ERRS];
+      values[9] = stats[ProcNetDev.TX_DROP];
+      values[10] = stats[ProcNetDev.TX_COLLS];
+      values[11] = stats[ProcNetDev.TX_FIFO];
+      emitInterface(emitter, timestamp, name, address[0], address[1]);
+    }
+
+    /**
+     * @return the IPv4 address and the hardware address of the interface, or null if it's gone
+     */
+    private String[] lookUpAddress(String name)
+    {
+      final NetworkInterface networkInterface;
+      try {
+        networkInterface = NetworkInterface.getByName(name);
+      }
+      catch (SocketException e) {
+        log.error(e, "Failed to get NetworkInterface[%s]", name);
+        return null;
+      }
+      if (networkInterface == null) {
+        return null;
+      }
+      String address = "0.0.0.0";
+      for (InetAddress inetAddress : Collections.list(networkInterface.getInetAddresses())) {
+        if (inetAddress instanceof Inet4Address) {
+          address = inetAddress.getHostAddress();
+          break;
+        }
+      }
+      byte[] hwaddr = null;
+      try {
+        hwaddr = networkInterface.getHardwareAddress();
       }
+      catch (SocketException e) {
+        log.debug(e, "Failed to get hardware address of [%s]", name);
+      }
+      final StringBuilder formattedHwaddr = new StringBuilder();
+      for (int i = 0; i < 6; i++) {
+        if (i > 0) {
+          formattedHwaddr.append(':');
+        }
+        formattedHwaddr.append(String.format("%02X", hwaddr != null && i < hwaddr.length ? hwaddr[i] : 0));
+      }
+      return new String[]{address, formattedHwaddr.toString()};
     }
   }
 
-  private class CpuStats implements Stats
+  /**
+   * @return the diff of the times of each cpu. The iowait of a cpu may be lower than before, see proc(5), so "wait" is
+   * a gauge: a decrease doesn't suppress the other times of the cpu.
+   */
+  @VisibleForTesting
+  static KeyedLongDiff newCpuDiff()
   {
-    private final KeyedDiff diff = new KeyedDiff();
+    return new KeyedLongDiff(
+        "user", // user = Δuser / Δtotal
+        "sys", // sys = Δsys / Δtotal
+        "nice", // nice = Δnice / Δtotal
+        "wait", // wait = Δwait / Δtotal, 0 if iowait decreased
+        "irq", // irq = Δirq / Δtotal
+        "softIrq", // softIrq = ΔsoftIrq / Δtotal
+        "stolen", // stolen = Δstolen / Δtotal
+        "_total" // (not reported)
+    ).setGauges("wait");
+  }
+
+  private class CpuStats extends DiffStats
+  {
+    static final int TOTAL = 7;
+
+    /**
+     * Templates of each cpu, by cpuTime slot
+     */
+    final TickCache<String, MetricEventTemplate[]> templates = new TickCache<>();
+
+    private CpuStats()
+    {
+      super("cpu", newCpuDiff());
+    }
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
     {
       Cpu[] cpus = null;
       try {
-        cpus = sigar.getCpuList();
+        cpus = sigar.call(Sigar::getCpuList);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Cpu list");
@@ -427,45 +935,108 @@ public class SysMonitor extends FeedDefiningMonitor
         log.debug("Found Cpu list: [%s]", Joiner.on(", ").join(cpus));
         for (int i = 0; i < cpus.length; ++i) {
           final Cpu cpu = cpus[i];
-          final String name = Integer.toString(i);
-          final Map<String, Long> stats = diff.to(
-              name, ImmutableMap.<String, Long>builder()
-                  .put("user", cpu.getUser()) // user = Δuser / Δtotal
-                  .put("sys", cpu.getSys()) // sys = Δsys / Δtotal
-                  .put("nice", cpu.getNice()) // nice = Δnice / Δtotal
-                  .put("wait", cpu.getWait()) // wait = Δwait / Δtotal
-                  .put("irq", cpu.getIrq()) // irq = Δirq / Δtotal
-                  .put("softIrq", cpu.getSoftIrq()) // softIrq = ΔsoftIrq / Δtotal
-                  .put("stolen", cpu.getStolen()) // stolen = Δstolen / Δtotal
-                  .put("_total", cpu.getTotal()) // (not reported)
-                  .build()
-          );
-          if (stats != null) {
-            final long total = stats.remove("_total");
-            for (Map.Entry<String, Long> entry : stats.entrySet()) {
-              final ServiceMetricEvent.Builder builder = builder()
-                  .setDimension("cpuName", name)
-                  .setDimension("cpuTime", entry.getKey());
-              MonitorUtils.addDimensionsToBuilder(builder, dimensions);
-              emitter.emit(builder.build("sys/cpu", entry.getValue() * 100 / total)); // [0,100]
-            }
-          }
+          values[0] = cpu.getUser();
+          values[1] = cpu.getSys();
+          values[2] = cpu.getNice();
+          values[3] = cpu.getWait();
+          values[4] = cpu.getIrq();
+          values[5] = cpu.getSoftIrq();
+          values[6] = cpu.getStolen();
+          values[TOTAL] = cpu.getTotal();
+          emitCpu(emitter, timestamp, Integer.toString(i));
+        }
+        templates.retainUsed();
+        emitDiffMetrics(emitter, timestamp);
+      }
+    }
+
+    /**
+     * Emits the shares of the deltas of the values of the cpu. Nothing is emitted if no time elapsed, e. g. between two
+     * runs of a tick catching up with /proc/stat counting in jiffies.
+     */
+    void emitCpu(ServiceEmitter emitter, DateTime timestamp, String name)
+    {
+      final long[] deltas = diff.to(name, values);
+      if (deltas != null && deltas[TOTAL] > 0) {
+        final long total = deltas[TOTAL];
+        final MetricEventTemplate[] cpuTemplates = templates.get(name, this::cpuTemplates);
+        for (int j = 0; j < TOTAL; j++) {
+          // A decreased iowait is emitted as 0
+          emitter.emit(cpuTemplates[j].build(timestamp, "sys/cpu", Math.max(deltas[j], 0) * 100 / total)); // [0,100]
         }
       }
     }
+
+    private MetricEventTemplate[] cpuTemplates(String name)
+    {
+      final MetricEventTemplate cpuTemplate = template.withDimension("cpuName", name);
+      final MetricEventTemplate[] cpuTemplates = new MetricEventTemplate[TOTAL];
+      for (int i = 0; i < TOTAL; i++) {
+        cpuTemplates[i] = cpuTemplate.withDimension("cpuTime", diff.getMetric(i));
+      }
+      return cpuTemplates;
+    }
   }
 
-  private class SysStats implements Stats
+  /**
+   * Reads /proc/stat. Times are in ticks rather than Sigar's milliseconds, which doesn't change their shares.
+   */
+  private class ProcfsCpuStats extends CpuStats
   {
+    private final ProcCpuStat procCpuStat = new ProcCpuStat(procReader, procDir);
+    private String[] names = new String[0];
+
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      try {
+        procCpuStat.read((cpu, times) -> emitCpu(emitter, timestamp, cpu, times));
+      }
+      catch (IOException e) {
+        log.error(e, "Failed to read stat");
+        return;
+      }
+      templates.retainUsed();
+      emitDiffMetrics(emitter, timestamp);
+    }
+
+    private void emitCpu(ServiceEmitter emitter, DateTime timestamp, int cpu, long[] times)
     {
-      final ServiceMetricEvent.Builder builder = builder();
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+      values[0] = times[ProcCpuStat.USER];
+      values[1] = times[ProcCpuStat.SYSTEM];
+      values[2] = times[ProcCpuStat.NICE];
+      values[3] = times[ProcCpuStat.IOWAIT];
+      values[4] = times[ProcCpuStat.IRQ];
+      values[5] = times[ProcCpuStat.SOFTIRQ];
+      values[6] = times[ProcCpuStat.STEAL];
+      values[TOTAL] = 0;
+      for (int i = 0; i < ProcCpuStat.FIELDS; i++) {
+        values[TOTAL] += times[i];
+      }
+      emitCpu(emitter, timestamp, name(cpu));
+    }
 
+    private String name(int cpu)
+    {
+      if (cpu >= names.length) {
+        final String[] newNames = Arrays.copyOf(names, cpu + 1);
+        for (int i = names.length; i < newNames.length; i++) {
+          newNames[i] = Integer.toString(i);
+        }
+        names = newNames;
+      }
+      return names[cpu];
+    }
+  }
+
+  private class SysStats implements Stats
+  {
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
       Uptime uptime = null;
       try {
-        uptime = sigar.getUptime();
+        uptime = sigar.call(Sigar::getUptime);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Uptime");
@@ -473,76 +1044,123 @@ public class SysMonitor extends FeedDefiningMonitor
 
       double[] la = null;
       try {
-        la = sigar.getLoadAverage();
+        la = sigar.call(Sigar::getLoadAverage);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Load Average");
       }
 
       if (uptime != null) {
-        final Map<String, Number> stats = ImmutableMap.<String, Number>of(
-            "sys/uptime", Double.valueOf(uptime.getUptime()).longValue()
-        );
-        for (Map.Entry<String, Number> entry : stats.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-        }
+        emitUptime(emitter, timestamp, uptime.getUptime());
       }
 
       if (la != null) {
-        final Map<String, Number> stats = ImmutableMap.<String, Number>of(
-            "sys/la/1", la[0],
-            "sys/la/5", la[1],
-            "sys/la/15", la[2]
-        );
-        for (Map.Entry<String, Number> entry : stats.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-        }
+        emitLoadAverage(emitter, timestamp, la[0], la[1], la[2]);
       }
     }
+
+    void emitUptime(ServiceEmitter emitter, DateTime timestamp, double uptime)
+    {
+      emitter.emit(template.build(timestamp, "sys/uptime", (long) uptime));
+    }
+
+    void emitLoadAverage(ServiceEmitter emitter, DateTime timestamp, double la1, double la5, double la15)
+    {
+      emitter.emit(template.build(timestamp, "sys/la/1", la1));
+      emitter.emit(template.build(timestamp, "sys/la/5", la5));
+      emitter.emit(template.build(timestamp, "sys/la/15", la15));
+    }
   }
 
-  private class TcpStats implements Stats
+  /**
+   * Reads /proc/uptime and /proc/loadavg
+   */
+  private class ProcfsSysStats extends SysStats
   {
-    private final KeyedDiff diff = new KeyedDiff();
+    private final Path uptimePath = procDir.resolve("uptime");
+    private final Path loadavgPath = procDir.resolve("loadavg");
 
     @Override
-    public void emit(ServiceEmitter emitter)
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      try {
+        emitUptime(emitter, timestamp, procReader.read(uptimePath).nextDouble());
+      }
+      catch (IOException | RuntimeException e) {
+        log.error(e, "Failed to read uptime");
+      }
+
+      try {
+        procReader.read(loadavgPath);
+        emitLoadAverage(emitter, timestamp, procReader.nextDouble(), procReader.nextDouble(), procReader.nextDouble());
+      }
+      catch (IOException | RuntimeException e) {
+        log.error(e, "Failed to read loadavg");
+      }
+    }
+  }
+
+  private class TcpStats extends DiffStats
+  {
+    private TcpStats()
     {
-      final ServiceMetricEvent.Builder builder = builder();
-      MonitorUtils.addDimensionsToBuilder(builder, dimensions);
+      super(
+          "tcp",
+          new KeyedLongDiff(
+              "sys/tcp/activeOpens",
+              "sys/tcp/passiveOpens",
+              "sys/tcp/attemptFails",
+              "sys/tcp/estabResets",
+              "sys/tcp/in/segs",
+              "sys/tcp/in/errs",
+              "sys/tcp/out/segs",
+              "sys/tcp/out/rsts",
+              "sys/tcp/retrans/segs"
+          )
+      );
+    }
 
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
       Tcp tcp = null;
       try {
-        tcp = sigar.getTcp();
+        tcp = sigar.call(Sigar::getTcp);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get Tcp");
       }
 
       if (tcp != null) {
-        final Map<String, Long> stats = diff.to(
-            "tcp", ImmutableMap.<String, Long>builder()
-                               .put("sys/tcp/activeOpens", tcp.getActiveOpens())
-                               .put("sys/tcp/passiveOpens", tcp.getPassiveOpens())
-                               .put("sys/tcp/attemptFails", tcp.getAttemptFails())
-                               .put("sys/tcp/estabResets", tcp.getEstabResets())
-                               .put("sys/tcp/in/segs", tcp.getInSegs())
-                               .put("sys/tcp/in/errs", tcp.getInErrs())
-                               .put("sys/tcp/out/segs", tcp.getOutSegs())
-                               .put("sys/tcp/out/rsts", tcp.getOutRsts())
-                               .put("sys/tcp/retrans/segs", tcp.getRetransSegs())
-                               .build()
-        );
-        if (stats != null) {
-          for (Map.Entry<String, Long> entry : stats.entrySet()) {
-            emitter.emit(builder.build(entry.getKey(), entry.getValue()));
-          }
-        }
+        values[0] = tcp.getActiveOpens();
+        values[1] = tcp.getPassiveOpens();
+        values[2] = tcp.getAttemptFails();
+        values[3] = tcp.getEstabResets();
+        values[4] = tcp.getInSegs();
+        values[5] = tcp.getInErrs();
+        values[6] = tcp.getOutSegs();
+        values[7] = tcp.getOutRsts();
+        values[8] = tcp.getRetransSegs();
+        emitTcp(emitter, timestamp);
       }
 
+      emitNetStat(emitter, timestamp);
+    }
+
+    void emitTcp(ServiceEmitter emitter, DateTime timestamp)
+    {
+      final long[] deltas = diff.to("tcp", values);
+      if (deltas != null) {
+        emitDeltas(emitter, timestamp, template, deltas);
+      }
+      emitDiffMetrics(emitter, timestamp);
+    }
+
+    void emitNetStat(ServiceEmitter emitter, DateTime timestamp)
+    {
       NetStat netStat = null;
       try {
-        netStat = sigar.getNetStat();
+        netStat = sigar.call(Sigar::getNetStat);
       }
       catch (SigarException e) {
         log.error(e, "Failed to get NetStat");
@@ -571,9 +1189,50 @@ public class SysMonitor extends FeedDefiningMonitor
                                                     .put("sys/tcp/state/bound", (long) netStat.getTcpBound())
                                                     .build();
         for (Map.Entry<String, Long> entry : stats.entrySet()) {
-          emitter.emit(builder.build(entry.getKey(), entry.getValue()));
+          emitter.emit(template.build(timestamp, entry.getKey(), entry.getValue()));
         }
       }
     }
   }
+
+  /**
+   * Reads the TCP counters from /proc/net/snmp. Connection states aren't in procfs as counters, so they are still
+   * read with Sigar.
+   */
+  private class ProcfsTcpStats extends TcpStats
+  {
+    private final ProcNetSnmp procNetSnmp = new ProcNetSnmp(
+        procReader,
+        procDir,
+        "Tcp",
+        "ActiveOpens",
+        "PassiveOpens",
+        "AttemptFails",
+        "EstabResets",
+        "InSegs",
+        "InErrs",
+        "OutSegs",
+        "OutRsts",
+        "RetransSegs"
+    );
+
+    @Override
+    public void emit(ServiceEmitter emitter, DateTime timestamp)
+    {
+      long[] tcp = null;
+      try {
+        tcp = procNetSnmp.read();
+      }
+      catch (IOException | RuntimeException e) {
+        log.error(e, "Failed to read net/snmp");
+      }
+
+      if (tcp != null) {
+        System.arraycopy(tcp, 0, values, 0, values.length);
+        emitTcp(emitter, timestamp);
+      }
+
+      emitNetStat(emitter, timestamp);
+    }
+  }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.base.Preconditions;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache of values (e. g. {@link MetricEventTemplate}s) derived from keys discovered anew on every tick of a monitor,
+ * like network interfaces or filesystems. Values not used during the last few ticks are dropped (see
+ * {@link #retainUsed()}), so the cache doesn't grow with keys which come and go, e. g. container network interfaces.
+ *
+ * Not thread-safe, a cache is meant to be used by a single monitor.
+ */
+public class TickCache<K, V>
+{
+  private final Map<K, Entry<V>> entries = new HashMap<>();
+  private final int maxIdleTicks;
+  private long generation = 0;
+
+  /**
+   * Creates a cache retaining only the values used during the latest tick.
+   */
+  public TickCache()
+  {
+    this(1);
+  }
+
+  /**
+   * @param maxIdleTicks number of ticks during which a value may be left unused before it's dropped
+   */
+  public TickCache(int maxIdleTicks)
+  {
+    Preconditions.checkArgument(maxIdleTicks > 0, "maxIdleTicks must be positive");
+    this.maxIdleTicks = maxIdleTicks;
+  }
+
+  public V get(K key, Function<? super K, ? extends V> factory)
+  {
+    V value = getIfPresent(key);
+    if (value == null) {
+      value = Preconditions.checkNotNull(factory.apply(key), "value");
+      put(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * @return the value of the key, marking it as used, or null if there is none
+   */
+  public V getIfPresent(K key)
+  {
+    final Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.generation = generation;
+    return entry.value;
+  }
+
+  public void put(K key, V value)
+  {
+    final Entry<V> entry = new Entry<>(Preconditions.checkNotNull(value, "value"));
+    entry.generation = generation;
+    entries.put(key, entry);
+  }
+
+  /**
+   * Ends the current tick, dropping the values which were not used during the last maxIdleTicks ticks, including
+   * the one just ended.
+   */
+  public void retainUsed()
+  {
+    final Iterator<Entry<V>> it = entries.values().iterator();
+    while (it.hasNext()) {
+      if (generation - it.next().generation >= maxIdleTicks) {
+        it.remove();
+      }
+    }
+    generation++;
+  }
+
+  public int size()
+  {
+    return entries.size();
+  }
+
+  private static class Entry<V>
+  {
+    private final V value;
+    private long generation;
+
+    private Entry(V value)
+    {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import com.google.common.collect.ImmutableList;
+import com.metamx.common.logger.Logger;
+import com.metamx.metrics.PidDiscoverer;
+import com.metamx.metrics.proc.ProcFileReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the per-device I/O of the blkio (v1) or io (v2) cgroup: with cgroup v1 from blkio.throttle.io_service_bytes
+ * and blkio.throttle.io_serviced, which account I/O whatever the scheduler, with cgroup v2 from io.stat. Devices are
+ * identified by their "major:minor" numbers.
+ *
+ * Device numbers are kept across snapshots, so that in the steady state a snapshot doesn't create Strings. Snapshots
+ * are serialized, as the buffer the files are read into is reused across snapshots.
+ */
+public class BlkIo
+{
+  private static final Logger LOG = new Logger(BlkIo.class);
+  private static final String CGROUP = "blkio";
+  private static final String SERVICE_BYTES_FILE = "blkio.throttle.io_service_bytes";
+  private static final String SERVICED_FILE = "blkio.throttle.io_serviced";
+  private static final String CGROUP2_STAT_FILE = "io.stat";
+
+  public static final int READ_BYTES = 0;
+  public static final int WRITE_BYTES = 1;
+  public static final int READS = 2;
+  public static final int WRITES = 3;
+  public static final int FIELDS = 4;
+
+  // v1 operations, in the order of the slots of bytes and ops
+  private static final List<String> V1_OPS = ImmutableList.of("Read", "Write");
+  // v2 keys, in the order of the slots
+  private static final List<String> V2_KEYS = ImmutableList.of("rbytes", "wbytes", "rios", "wios");
+
+  public interface DeviceConsumer
+  {
+    /**
+     * @param device e. g. "8:0"
+     * @param stats  cumulative stats of the device, indexed by {@link #READ_BYTES}, {@link #WRITE_BYTES}... The
+     *               array is reused, it's only valid during the call.
+     */
+    void accept(String device, long[] stats);
+  }
+
+  private final CgroupDiscoverer cgroupDiscoverer;
+  private final PidDiscoverer pidDiscoverer;
+  private final ProcFileReader reader = new ProcFileReader(CgroupFiles.READER_CAPACITY);
+  private List<String> devices = new ArrayList<>();
+  private List<String> nextDevices = new ArrayList<>();
+  private long[][] stats = new long[0][];
+  private Path cgroupDir = null;
+  private boolean unified = false;
+
+  public BlkIo(CgroupDiscoverer cgroupDiscoverer, PidDiscoverer pidDiscoverer)
+  {
+    this.cgroupDiscoverer = cgroupDiscoverer;
+    this.pidDiscoverer = pidDiscoverer;
+  }
+
+  /**
+   * Reads the stats of every device the cgroup did I/O on.
+   *
+   * @return false if the stats can't be read
+   */
+  public synchronized boolean snapshot(DeviceConsumer consumer)
+  {
+    final Path dir;
+    try {
+      dir = cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid());
+    }
+    catch (RuntimeException re) {
+      LOG.error(re, "Unable to fetch snapshot");
+      return false;
+    }
+    if (!dir.equals(cgroupDir)) {
+      unified = !CgroupFiles.exists(dir, SERVICE_BYTES_FILE) && CgroupFiles.exists(dir, CGROUP2_STAT_FILE);
+      cgroupDir = dir;
+    }
+    try {
+      nextDevices.clear();
+      if (unified) {
+        readV2(dir.resolve(CGROUP2_STAT_FILE));
+      } else {
+        readV1(dir.resolve(SERVICE_BYTES_FILE), READ_BYTES);
+        readV1(dir.resolve(SERVICED_FILE), READS);
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.error(e, "Unable to read io stats of [%s]", dir);
+      return false;
+    }
+    final List<String> swap = devices;
+    devices = nextDevices;
+    nextDevices = swap;
+    for (int i = 0; i < devices.size(); i++) {
+      consumer.accept(devices.get(i), stats[i]);
+    }
+    return true;
+  }
+
+  /**
+   * Reads lines like "8:0 Read 1234", adding the values of the Read and Write operations to the slots starting at the
+   * given one. Other operations (Sync, Async, Total) and the final "Total" line are skipped.
+   */
+  private void readV1(Path file, int firstSlot) throws IOException
+  {
+    reader.read(file);
+    while (reader.hasRemaining()) {
+      if (!reader.matchField("Total")) {
+        final long[] deviceStats = deviceStats();
+        final int op = reader.matchField(V1_OPS, ' ');
+        if (op >= 0) {
+          deviceStats[firstSlot + op] = reader.nextLong();
+        }
+      }
+      reader.nextLine();
+    }
+  }
+
+  /**
+   * Reads lines like "8:0 rbytes=1459200 wbytes=314773504 rios=192 wios=353 dbytes=0 dios=0"
+   */
+  private void readV2(Path file) throws IOException
+  {
+    reader.read(file);
+    while (reader.hasRemaining()) {
+      final long[] deviceStats = deviceStats();
+      while (!reader.isEndOfLine()) {
+        final int key = reader.matchField(V2_KEYS, '=');
+        if (key >= 0) {
+          deviceStats[key] = reader.nextLong();
+        } else {
+          reader.skipField();
+        }
+      }
+      reader.nextLine();
+    }
+  }
+
+  /**
+   * Consumes the device field of the current line.
+   *
+   * @return the stats of the device, zeroed if it's the first time it's seen during this snapshot
+   */
+  private long[] deviceStats()
+  {
+    int i = reader.matchField(nextDevices, ' ');
+    if (i < 0) {
+      final int known = reader.matchField(devices, ' ');
+      final String device = known >= 0 ? devices.get(known) : reader.nextField();
+      i = nextDevices.size();
+      nextDevices.add(device);
+      if (i == stats.length) {
+        stats = Arrays.copyOf(stats, Math.max(4, i * 2));
+      }
+      if (stats[i] == null) {
+        stats[i] = new long[FIELDS];
+      }
+      Arrays.fill(stats[i], 0);
+    }
+    return stats[i];
+  }
+}
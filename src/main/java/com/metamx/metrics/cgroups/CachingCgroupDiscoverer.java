@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.metamx.common.logger.Logger;
+import com.metamx.metrics.proc.ProcFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the paths discovered by another {@link CgroupDiscoverer}, so that monitors discovering the same cgroup on
+ * every tick don't re-read /proc/mounts, /proc/cgroups and /proc/[pid]/cgroup each time.
+ *
+ * A cached path is discovered again when its directory is gone, e. g. because the container was restarted, or when
+ * the content of /proc/[pid]/cgroup changed, e. g. because the process was moved to another cgroup. The former is
+ * checked on every discovery, with a stat of the directory; the latter at most once per fingerprint interval, with a
+ * hash of the file computed in place, so most discoveries don't read any file.
+ */
+public class CachingCgroupDiscoverer implements CgroupDiscoverer
+{
+  private static final Logger log = new Logger(CachingCgroupDiscoverer.class);
+
+  public static final long DEFAULT_FINGERPRINT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final CgroupDiscoverer delegate;
+  private final File proc;
+  private final long fingerprintIntervalNanos;
+  private final ProcFileReader reader = new ProcFileReader();
+  private final Map<Long, PidPaths> pids = new HashMap<>();
+  private long discoveries = 0;
+
+  public CachingCgroupDiscoverer(CgroupDiscoverer delegate)
+  {
+    this(delegate, new File("/proc"), DEFAULT_FINGERPRINT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param fingerprintIntervalMillis how often to check whether /proc/[pid]/cgroup changed. 0 to check it on every
+   *                                  discovery.
+   */
+  public CachingCgroupDiscoverer(CgroupDiscoverer delegate, File proc, long fingerprintIntervalMillis)
+  {
+    Preconditions.checkArgument(fingerprintIntervalMillis >= 0, "fingerprintIntervalMillis must not be negative");
+    this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    this.proc = Preconditions.checkNotNull(proc, "proc");
+    this.fingerprintIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fingerprintIntervalMillis);
+  }
+
+  @Override
+  public synchronized Path discover(final String cgroup, long pid)
+  {
+    Preconditions.checkNotNull(cgroup, "cgroup required");
+    final long now = System.nanoTime();
+    PidPaths pidPaths = pids.get(pid);
+    if (pidPaths != null && now - pidPaths.fingerprintedAt >= fingerprintIntervalNanos) {
+      if (fingerprint(pid) == pidPaths.fingerprint) {
+        pidPaths.fingerprintedAt = now;
+      } else {
+        log.info("Cgroups of pid[%d] changed, discovering them again", pid);
+        pids.remove(pid);
+        pidPaths = null;
+      }
+    }
+    if (pidPaths != null) {
+      final Path path = pidPaths.paths.get(cgroup);
+      if (path != null) {
+        if (Files.isDirectory(path)) {
+          return path;
+        }
+        log.info("Cgroup directory [%s] is gone, discovering it again", path);
+        pidPaths.paths.remove(cgroup);
+      }
+    } else {
+      pidPaths = new PidPaths(fingerprint(pid), now);
+      pids.put(pid, pidPaths);
+    }
+    final Path path = delegate.discover(cgroup, pid);
+    pidPaths.paths.put(cgroup, path);
+    discoveries++;
+    return path;
+  }
+
+  /**
+   * Forgets all the cached paths
+   */
+  public synchronized void invalidate()
+  {
+    pids.clear();
+  }
+
+  /**
+   * @return the number of discoveries delegated so far
+   */
+  @VisibleForTesting
+  synchronized long getDiscoveries()
+  {
+    return discoveries;
+  }
+
+  /**
+   * @return the hash of /proc/[pid]/cgroup, or 0 if it can't be read, e. g. because the process is gone
+   */
+  private long fingerprint(long pid)
+  {
+    try {
+      return reader.read(new File(new File(proc, Long.toString(pid)), "cgroup").toPath()).contentHash();
+    }
+    catch (IOException e) {
+      log.debug(e, "Failed to fingerprint cgroups of pid[%d]", pid);
+      return 0;
+    }
+  }
+
+  private static class PidPaths
+  {
+    private final long fingerprint;
+    private long fingerprintedAt;
+    private final Map<String, Path> paths = new HashMap<>();
+
+    private PidPaths(long fingerprint, long fingerprintedAt)
+    {
+      this.fingerprint = fingerprint;
+      this.fingerprintedAt = fingerprintedAt;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import com.metamx.metrics.proc.ProcFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the single-value files of cgroups, e. g. cpu.cfs_quota_us or memory.max
+ */
+class CgroupFiles
+{
+  /**
+   * Returned for limits which are not set: "max" with cgroup v2, -1 or absurdly high values with cgroup v1
+   */
+  static final long UNLIMITED = -1;
+
+  /**
+   * Initial buffer size of the readers of cgroup files, which are small but for those listing every cpu or device.
+   * Buffers grow as needed, and a host agent may hold a reader per cgroup for thousands of cgroups.
+   */
+  static final int READER_CAPACITY = 512;
+
+  /**
+   * v1 memory limits which are not set read as the highest page-aligned long
+   */
+  private static final long V1_UNLIMITED_THRESHOLD = Long.MAX_VALUE / 2;
+
+  static boolean exists(Path dir, String file)
+  {
+    return new File(dir.toFile(), file).exists();
+  }
+
+  static long readLong(ProcFileReader reader, Path file) throws IOException
+  {
+    return reader.read(file).nextLong();
+  }
+
+  /**
+   * Reads the first value of a limit file, e. g. "max 100000" or "200000 100000" of cpu.max.
+   *
+   * @return the limit, or {@link #UNLIMITED}
+   */
+  static long readLimit(ProcFileReader reader, Path file) throws IOException
+  {
+    reader.read(file);
+    return nextLimit(reader);
+  }
+
+  static long nextLimit(ProcFileReader reader)
+  {
+    if (reader.matchField("max")) {
+      return UNLIMITED;
+    }
+    final long limit = reader.nextLong();
+    return limit < 0 || limit >= V1_UNLIMITED_THRESHOLD ? UNLIMITED : limit;
+  }
+}
@@ -16,46 +16,88 @@
 
 package com.metamx.metrics.cgroups;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.metamx.common.RE;
 import com.metamx.common.logger.Logger;
-import com.metamx.metrics.CgroupUtil;
 import com.metamx.metrics.PidDiscoverer;
+import com.metamx.metrics.proc.ProcFileReader;
+import com.metamx.metrics.proc.ProcKeyValues;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.List;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.LongStream;
 
+/**
+ * Reads the cpu times of a cgroup: per cpu from cpuacct.usage_all with cgroup v1, or for all the cpus together from
+ * cpu.stat with cgroup v2, see {@link CpuAcctMetric#isAggregated()}.
+ *
+ * Snapshots are serialized, as the buffer the file is read into is reused across snapshots. Meant to be created once
+ * and snapshotted on every tick, along with a {@link CachingCgroupDiscoverer}, so that a snapshot only costs the read
+ * of one file.
+ */
 public class CpuAcct
 {
   private static final Logger LOG = new Logger(CpuAcct.class);
   private static final String CGROUP = "cpuacct";
   private static final String CGROUP_ACCT_FILE = "cpuacct.usage_all";
+  private static final String CGROUP2_CPU_STAT_FILE = "cpu.stat";
 
-  // Private because it requires a specific format and cant' take a generic list of strings
-  private static CpuAcctMetric parse(final List<String> lines)
+  private final CgroupDiscoverer cgroupDiscoverer;
+  private final PidDiscoverer pidDiscoverer;
+  private final ProcFileReader reader = new ProcFileReader(CgroupFiles.READER_CAPACITY);
+  private final ProcKeyValues cpuStat = new ProcKeyValues(reader, "usage_usec", "user_usec", "system_usec");
+  // Directory of the latest snapshot, and whether it's a cgroup v2 one, so the version is only detected once
+  private Path cgroupDir = null;
+  private boolean unified = false;
+  // Scratch space for the times, grown to the number of cpus
+  private long[] usrTimes = new long[0];
+  private long[] sysTimes = new long[0];
+
+  // Private because it requires a specific format
+  private CpuAcctMetric parse(final ProcFileReader reader)
   {
     // File has a header. We skip it
     // See src/test/resources/cpuacct.usage_all for an example
-    final int ncpus = lines.size() - 1;
-    final long[] usrTime = new long[ncpus];
-    final long[] sysTime = new long[ncpus];
-    for (int i = 1; i < lines.size(); i++) {
-      final String[] splits = lines.get(i).split(CgroupUtil.SPACE_MATCH, 3);
-      if (splits.length != 3) {
-        throw new RE("Error parsing [%s]", lines.get(i));
+    reader.nextLine();
+    int ncpus = 0;
+    int maxCpuNum = -1;
+    while (reader.hasRemaining()) {
+      final int cpuNum = (int) reader.nextLong();
+      if (cpuNum < 0) {
+        throw new RE("Error parsing cpu [%d]", cpuNum);
       }
-      final int cpuNum = Integer.parseInt(splits[0]);
-      usrTime[cpuNum] = Long.parseLong(splits[1]);
-      sysTime[cpuNum] = Long.parseLong(splits[2]);
+      if (cpuNum >= usrTimes.length) {
+        usrTimes = Arrays.copyOf(usrTimes, Math.max(cpuNum + 1, usrTimes.length * 2));
+        sysTimes = Arrays.copyOf(sysTimes, usrTimes.length);
+      }
+      usrTimes[cpuNum] = reader.nextLong();
+      sysTimes[cpuNum] = reader.nextLong();
+      maxCpuNum = Math.max(maxCpuNum, cpuNum);
+      ncpus++;
+      reader.nextLine();
+    }
+    if (maxCpuNum >= ncpus) {
+      throw new RE("Error parsing cpu [%d] of [%d]", maxCpuNum, ncpus);
     }
-    return new CpuAcctMetric(usrTime, sysTime);
+    return new CpuAcctMetric(Arrays.copyOf(usrTimes, ncpus), Arrays.copyOf(sysTimes, ncpus));
   }
 
-  private final CgroupDiscoverer cgroupDiscoverer;
-  private final PidDiscoverer pidDiscoverer;
+  /**
+   * Reads the usage_usec, user_usec and system_usec of the cpu.stat of a cgroup v2 directory
+   */
+  private CpuAcctMetric parseCpuStat(final Path cpuStatFile) throws IOException
+  {
+    final long[] usecs = cpuStat.read(cpuStatFile);
+    long usrTime = TimeUnit.MICROSECONDS.toNanos(usecs[1]);
+    final long sysTime = TimeUnit.MICROSECONDS.toNanos(usecs[2]);
+    if (usrTime == 0 && sysTime == 0) {
+      // The split may be missing, e. g. without tick based accounting, but not the total
+      usrTime = TimeUnit.MICROSECONDS.toNanos(usecs[0]);
+    }
+    return new CpuAcctMetric(new long[]{usrTime}, new long[]{sysTime}, true);
+  }
 
   public CpuAcct(CgroupDiscoverer cgroupDiscoverer, PidDiscoverer pidDiscoverer)
   {
@@ -68,21 +110,26 @@ public class CpuAcct
    *
    * @return A snapshot with the data populated or a snapshot with zero-length arrays for data.
    */
-  public CpuAcctMetric snapshot()
+  public synchronized CpuAcctMetric snapshot()
   {
-    final File cpuacct;
+    final Path dir;
     try {
-      cpuacct = new File(
-          cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid()).toFile(),
-          CGROUP_ACCT_FILE
-      );
+      dir = cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid());
     }
     catch (RuntimeException re) {
       LOG.error(re, "Unable to fetch snapshot");
       return new CpuAcctMetric(new long[0], new long[0]);
     }
+    if (!dir.equals(cgroupDir)) {
+      unified = !new File(dir.toFile(), CGROUP_ACCT_FILE).exists() &&
+                new File(dir.toFile(), CGROUP2_CPU_STAT_FILE).exists();
+      cgroupDir = dir;
+    }
     try {
-      return parse(Files.readAllLines(cpuacct.toPath(), Charsets.UTF_8));
+      if (unified) {
+        return parseCpuStat(dir.resolve(CGROUP2_CPU_STAT_FILE));
+      }
+      return parse(reader.read(dir.resolve(CGROUP_ACCT_FILE)));
     }
     catch (IOException e) {
       throw new RuntimeException(e);
@@ -93,12 +140,29 @@ public class CpuAcct
   {
     private final long[] usrTimes;
     private final long[] sysTimes;
+    private final boolean aggregated;
 
     CpuAcctMetric(long[] usrTimes, long[] sysTimes)
+    {
+      this(usrTimes, sysTimes, false);
+    }
+
+    CpuAcctMetric(long[] usrTimes, long[] sysTimes, boolean aggregated)
     {
       Preconditions.checkArgument(usrTimes.length == sysTimes.length, "Lengths must match");
+      Preconditions.checkArgument(!aggregated || usrTimes.length == 1, "Aggregated times are of a single cpu");
       this.usrTimes = usrTimes;
       this.sysTimes = sysTimes;
+      this.aggregated = aggregated;
+    }
+
+    /**
+     * @return true if the times are those of all the cpus together, as cgroup v2 only accounts them this way, in
+     * which case there is a single "cpu"
+     */
+    public final boolean isAggregated()
+    {
+      return aggregated;
     }
 
     public final int cpuCount()
@@ -141,6 +205,17 @@ public class CpuAcct
       return usrTime() + sysTime();
     }
 
+    /**
+     * @return the times of all the cpus together, or this if they already are, or if there are no cpus
+     */
+    public final CpuAcctMetric aggregate()
+    {
+      if (aggregated || cpuCount() == 0) {
+        return this;
+      }
+      return new CpuAcctMetric(new long[]{usrTime()}, new long[]{sysTime()}, true);
+    }
+
     public final CpuAcctMetric cumulativeSince(CpuAcctMetric other)
     {
       final int cpuCount = cpuCount();
@@ -151,7 +226,7 @@ public class CpuAcct
         sysTimes[i] = this.sysTimes[i] - other.sysTimes[i];
         usrTimes[i] = this.usrTimes[i] - other.usrTimes[i];
       }
-      return new CpuAcctMetric(usrTimes, sysTimes);
+      return new CpuAcctMetric(usrTimes, sysTimes, aggregated);
     }
   }
 }
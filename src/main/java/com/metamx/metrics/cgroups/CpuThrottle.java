@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import com.metamx.common.logger.Logger;
+import com.metamx.metrics.PidDiscoverer;
+import com.metamx.metrics.proc.ProcFileReader;
+import com.metamx.metrics.proc.ProcKeyValues;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the CFS bandwidth control stats of the cpu cgroup: the number of enforcement periods, how many of them were
+ * throttled and for how long, and the quota. With cgroup v1 from cpu.stat, cpu.cfs_quota_us and cpu.cfs_period_us,
+ * with cgroup v2 from cpu.stat and cpu.max.
+ *
+ * Snapshots are serialized, as the buffer the files are read into is reused across snapshots.
+ */
+public class CpuThrottle
+{
+  private static final Logger LOG = new Logger(CpuThrottle.class);
+  private static final String CGROUP = "cpu";
+  private static final String CPU_STAT_FILE = "cpu.stat";
+  private static final String CFS_QUOTA_FILE = "cpu.cfs_quota_us";
+  private static final String CFS_PERIOD_FILE = "cpu.cfs_period_us";
+  private static final String CGROUP2_CPU_MAX_FILE = "cpu.max";
+
+  private final CgroupDiscoverer cgroupDiscoverer;
+  private final PidDiscoverer pidDiscoverer;
+  private final ProcFileReader reader = new ProcFileReader(CgroupFiles.READER_CAPACITY);
+  // throttled_time is in nanoseconds with v1, throttled_usec in microseconds with v2
+  private final ProcKeyValues cpuStat = new ProcKeyValues(
+      reader,
+      "nr_periods",
+      "nr_throttled",
+      "throttled_time",
+      "throttled_usec"
+  );
+  private Path cgroupDir = null;
+  private boolean unified = false;
+
+  public CpuThrottle(CgroupDiscoverer cgroupDiscoverer, PidDiscoverer pidDiscoverer)
+  {
+    this.cgroupDiscoverer = cgroupDiscoverer;
+    this.pidDiscoverer = pidDiscoverer;
+  }
+
+  /**
+   * @return a snapshot of the stats, or null if they can't be read
+   */
+  public synchronized CpuThrottleMetric snapshot()
+  {
+    final Path dir;
+    try {
+      dir = cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid());
+    }
+    catch (RuntimeException re) {
+      LOG.error(re, "Unable to fetch snapshot");
+      return null;
+    }
+    if (!dir.equals(cgroupDir)) {
+      unified = !CgroupFiles.exists(dir, CFS_PERIOD_FILE) && CgroupFiles.exists(dir, CGROUP2_CPU_MAX_FILE);
+      cgroupDir = dir;
+    }
+    try {
+      final long[] stat = cpuStat.read(dir.resolve(CPU_STAT_FILE));
+      final long periods = stat[0];
+      final long throttledPeriods = stat[1];
+      final long throttledNanos = unified ? TimeUnit.MICROSECONDS.toNanos(stat[3]) : stat[2];
+      final long quotaUs;
+      final long periodUs;
+      if (unified) {
+        reader.read(dir.resolve(CGROUP2_CPU_MAX_FILE));
+        quotaUs = CgroupFiles.nextLimit(reader);
+        periodUs = reader.nextLong();
+      } else {
+        quotaUs = CgroupFiles.readLimit(reader, dir.resolve(CFS_QUOTA_FILE));
+        periodUs = CgroupFiles.readLong(reader, dir.resolve(CFS_PERIOD_FILE));
+      }
+      return new CpuThrottleMetric(periods, throttledPeriods, throttledNanos, quotaUs, periodUs);
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.error(e, "Unable to read cpu stats of [%s]", dir);
+      return null;
+    }
+  }
+
+  public static class CpuThrottleMetric
+  {
+    private final long periods;
+    private final long throttledPeriods;
+    private final long throttledNanos;
+    private final long quotaUs;
+    private final long periodUs;
+
+    CpuThrottleMetric(long periods, long throttledPeriods, long throttledNanos, long quotaUs, long periodUs)
+    {
+      this.periods = periods;
+      this.throttledPeriods = throttledPeriods;
+      this.throttledNanos = throttledNanos;
+      this.quotaUs = quotaUs;
+      this.periodUs = periodUs;
+    }
+
+    /**
+     * @return the number of enforcement periods elapsed while the cgroup had runnable tasks
+     */
+    public long getPeriods()
+    {
+      return periods;
+    }
+
+    /**
+     * @return the number of enforcement periods during which the cgroup used up its quota
+     */
+    public long getThrottledPeriods()
+    {
+      return throttledPeriods;
+    }
+
+    public long getThrottledNanos()
+    {
+      return throttledNanos;
+    }
+
+    /**
+     * @return the quota of cpu time per period, or -1 if there is none
+     */
+    public long getQuotaUs()
+    {
+      return quotaUs;
+    }
+
+    public long getPeriodUs()
+    {
+      return periodUs;
+    }
+
+    public boolean isLimited()
+    {
+      return quotaUs != CgroupFiles.UNLIMITED && periodUs > 0;
+    }
+
+    /**
+     * @return the number of cpus the quota amounts to, e. g. 1.5 for a quota of 150ms per 100ms period
+     */
+    public double getLimitCores()
+    {
+      return isLimited() ? (double) quotaUs / periodUs : Double.NaN;
+    }
+  }
+}
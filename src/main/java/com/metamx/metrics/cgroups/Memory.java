@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import com.metamx.common.logger.Logger;
+import com.metamx.metrics.PidDiscoverer;
+import com.metamx.metrics.proc.ProcFileReader;
+import com.metamx.metrics.proc.ProcKeyValues;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the usage, limit, page cache and OOM stats of the memory cgroup.
+ *
+ * With cgroup v1 from memory.usage_in_bytes, memory.limit_in_bytes, memory.failcnt, memory.stat (cache, rss,
+ * mapped_file, pgmajfault) and memory.oom_control (oom_kill, on kernels since 4.13). With cgroup v2 from
+ * memory.current, memory.max, memory.stat (file, anon, file_mapped, pgmajfault) and memory.events (max, oom_kill).
+ *
+ * Snapshots are serialized, as the buffer the files are read into is reused across snapshots.
+ */
+public class Memory
+{
+  private static final Logger LOG = new Logger(Memory.class);
+  private static final String CGROUP = "memory";
+  private static final String STAT_FILE = "memory.stat";
+  private static final String USAGE_FILE = "memory.usage_in_bytes";
+  private static final String LIMIT_FILE = "memory.limit_in_bytes";
+  private static final String FAILCNT_FILE = "memory.failcnt";
+  private static final String OOM_CONTROL_FILE = "memory.oom_control";
+  private static final String CGROUP2_CURRENT_FILE = "memory.current";
+  private static final String CGROUP2_MAX_FILE = "memory.max";
+  private static final String CGROUP2_EVENTS_FILE = "memory.events";
+
+  private final CgroupDiscoverer cgroupDiscoverer;
+  private final PidDiscoverer pidDiscoverer;
+  private final ProcFileReader reader = new ProcFileReader(CgroupFiles.READER_CAPACITY);
+  private final ProcKeyValues v1Stat = new ProcKeyValues(reader, "cache", "rss", "mapped_file", "pgmajfault");
+  private final ProcKeyValues v2Stat = new ProcKeyValues(reader, "file", "anon", "file_mapped", "pgmajfault");
+  private final ProcKeyValues oomControl = new ProcKeyValues(reader, "oom_kill");
+  private final ProcKeyValues events = new ProcKeyValues(reader, "max", "oom_kill");
+  private Path cgroupDir = null;
+  private boolean unified = false;
+  private boolean hasOomControl = false;
+
+  public Memory(CgroupDiscoverer cgroupDiscoverer, PidDiscoverer pidDiscoverer)
+  {
+    this.cgroupDiscoverer = cgroupDiscoverer;
+    this.pidDiscoverer = pidDiscoverer;
+  }
+
+  /**
+   * @return a snapshot of the stats, or null if they can't be read
+   */
+  public synchronized MemoryMetric snapshot()
+  {
+    final Path dir;
+    try {
+      dir = cgroupDiscoverer.discover(CGROUP, pidDiscoverer.getPid());
+    }
+    catch (RuntimeException re) {
+      LOG.error(re, "Unable to fetch snapshot");
+      return null;
+    }
+    if (!dir.equals(cgroupDir)) {
+      unified = !CgroupFiles.exists(dir, USAGE_FILE) && CgroupFiles.exists(dir, CGROUP2_CURRENT_FILE);
+      hasOomControl = CgroupFiles.exists(dir, OOM_CONTROL_FILE);
+      cgroupDir = dir;
+    }
+    try {
+      return unified ? snapshotV2(dir) : snapshotV1(dir);
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.error(e, "Unable to read memory stats of [%s]", dir);
+      return null;
+    }
+  }
+
+  private MemoryMetric snapshotV1(Path dir) throws IOException
+  {
+    final long usage = CgroupFiles.readLong(reader, dir.resolve(USAGE_FILE));
+    final long limit = CgroupFiles.readLimit(reader, dir.resolve(LIMIT_FILE));
+    final long limitHits = CgroupFiles.readLong(reader, dir.resolve(FAILCNT_FILE));
+    final long oomKills = hasOomControl ? oomControl.read(dir.resolve(OOM_CONTROL_FILE))[0] : 0;
+    final long[] stat = v1Stat.read(dir.resolve(STAT_FILE));
+    return new MemoryMetric(usage, limit, stat[0], stat[1], stat[2], stat[3], limitHits, oomKills);
+  }
+
+  private MemoryMetric snapshotV2(Path dir) throws IOException
+  {
+    final long usage = CgroupFiles.readLong(reader, dir.resolve(CGROUP2_CURRENT_FILE));
+    final long limit = CgroupFiles.readLimit(reader, dir.resolve(CGROUP2_MAX_FILE));
+    final long[] event = events.read(dir.resolve(CGROUP2_EVENTS_FILE));
+    final long limitHits = event[0];
+    final long oomKills = event[1];
+    final long[] stat = v2Stat.read(dir.resolve(STAT_FILE));
+    return new MemoryMetric(usage, limit, stat[0], stat[1], stat[2], stat[3], limitHits, oomKills);
+  }
+
+  public static class MemoryMetric
+  {
+    private final long usageBytes;
+    private final long limitBytes;
+    private final long cacheBytes;
+    private final long rssBytes;
+    private final long mappedFileBytes;
+    private final long majorPageFaults;
+    private final long limitHits;
+    private final long oomKills;
+
+    MemoryMetric(
+        long usageBytes,
+        long limitBytes,
+        long cacheBytes,
+        long rssBytes,
+        long mappedFileBytes,
+        long majorPageFaults,
+        long limitHits,
+        long oomKills
+    )
+    {
+      this.usageBytes = usageBytes;
+      this.limitBytes = limitBytes;
+      this.cacheBytes = cacheBytes;
+      this.rssBytes = rssBytes;
+      this.mappedFileBytes = mappedFileBytes;
+      this.majorPageFaults = majorPageFaults;
+      this.limitHits = limitHits;
+      this.oomKills = oomKills;
+    }
+
+    /**
+     * @return the memory charged to the cgroup, page cache included
+     */
+    public long getUsageBytes()
+    {
+      return usageBytes;
+    }
+
+    /**
+     * @return the limit of the cgroup, or -1 if there is none
+     */
+    public long getLimitBytes()
+    {
+      return limitBytes;
+    }
+
+    public boolean isLimited()
+    {
+      return limitBytes != CgroupFiles.UNLIMITED;
+    }
+
+    /**
+     * @return the page cache of the cgroup, which the kernel reclaims before OOM killing
+     */
+    public long getCacheBytes()
+    {
+      return cacheBytes;
+    }
+
+    /**
+     * @return the anonymous memory of the cgroup, e. g. the heap of a JVM
+     */
+    public long getRssBytes()
+    {
+      return rssBytes;
+    }
+
+    public long getMappedFileBytes()
+    {
+      return mappedFileBytes;
+    }
+
+    public long getMajorPageFaults()
+    {
+      return majorPageFaults;
+    }
+
+    /**
+     * @return the number of times the usage hit the limit: memory.failcnt with v1, the max event with v2
+     */
+    public long getLimitHits()
+    {
+      return limitHits;
+    }
+
+    /**
+     * @return the number of processes of the cgroup killed by the OOM killer, 0 if the kernel doesn't tell
+     */
+    public long getOomKills()
+    {
+      return oomKills;
+    }
+  }
+}
@@ -17,50 +17,76 @@
 package com.metamx.metrics.cgroups;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.io.Files;
 import com.metamx.common.RE;
-import com.metamx.metrics.CgroupUtil;
+import com.metamx.metrics.proc.ProcFileReader;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
-import java.util.regex.Pattern;
 
+/**
+ * Discovers cgroups from /proc/mounts, /proc/cgroups and /proc/[pid]/cgroup. The files are tokenized in place, in a
+ * buffer reused across discoveries, so discovering doesn't allocate but for the discovered path. Discoveries are
+ * serialized because of this buffer.
+ *
+ * Controllers attached to a v1 hierarchy are discovered in the mount of that hierarchy. Others, which /proc/cgroups
+ * lists in hierarchy 0 or not at all on cgroup2-only kernels, are discovered in the unified hierarchy: the cgroup2
+ * mount and the "0::/path" entry of /proc/[pid]/cgroup. Callers tell the versions apart by the files of the
+ * discovered directory, e. g. cpuacct.usage_all or cpu.stat.
+ */
 public class ProcCgroupDiscoverer implements CgroupDiscoverer
 {
   private static final String CGROUP_TYPE = "cgroup";
-  private static final String PROC_TYPE = "getProc";
+  private static final String CGROUP2_TYPE = "cgroup2";
+  private static final int UNIFIED_HIERARCHY = 0;
+  private static final String PROC_TYPE = "proc";
+
+  private final ProcFileReader reader = new ProcFileReader();
 
   @Override
-  public Path discover(final String cgroup, long pid)
+  public synchronized Path discover(final String cgroup, long pid)
   {
     Preconditions.checkNotNull(cgroup, "cgroup required");
-    // TODO: find a way to cache these
+    // See CachingCgroupDiscoverer to avoid reading these on every discovery
     final File proc = getProc();
     final File procMounts = new File(proc, "mounts");
     final File procCgroups = new File(proc, "cgroups");
     final File pidCgroups = new File(new File(proc, Long.toString(pid)), "cgroup");
-    final ProcCgroupsEntry procCgroupsEntry = getCgroupEntry(procCgroups, cgroup);
-    final ProcMountsEntry procMountsEntry = getMountEntry(procMounts, cgroup);
-    final ProcPidCgroupEntry procPidCgroupEntry = getPidCgroupEntry(pidCgroups, procCgroupsEntry.hierarchy);
-    final File cgroupDir = new File(
-        procMountsEntry.path.toFile(),
-        procPidCgroupEntry.path
-    );
+    final int hierarchy = getCgroupHierarchy(procCgroups, cgroup);
+    final Path mountPath;
+    final String pidCgroupPath;
+    if (hierarchy == UNIFIED_HIERARCHY) {
+      mountPath = getUnifiedMountPath(procMounts, cgroup);
+      pidCgroupPath = getPidCgroupPath(pidCgroups, UNIFIED_HIERARCHY);
+    } else {
+      mountPath = getMountPath(procMounts, cgroup);
+      pidCgroupPath = getPidCgroupPath(pidCgroups, hierarchy);
+    }
+    final File cgroupDir = new File(mountPath.toFile(), pidCgroupPath);
     if (cgroupDir.exists() && cgroupDir.isDirectory()) {
       return cgroupDir.toPath();
     }
     throw new RE("Invalid cgroup directory [%s]", cgroupDir);
   }
 
+  /**
+   * @return the root of the hierarchy the controller is discovered in, e. g. "/sys/fs/cgroup/cpu,cpuacct", or the
+   * cgroup2 mount, under which the paths of /proc/[pid]/cgroup are resolved
+   */
+  public synchronized Path discoverHierarchy(final String cgroup)
+  {
+    Preconditions.checkNotNull(cgroup, "cgroup required");
+    final File proc = getProc();
+    final File procMounts = new File(proc, "mounts");
+    if (getCgroupHierarchy(new File(proc, "cgroups"), cgroup) == UNIFIED_HIERARCHY) {
+      return getUnifiedMountPath(procMounts, cgroup);
+    }
+    return getMountPath(procMounts, cgroup);
+  }
+
   @VisibleForTesting
-  public File getProc()
+  public synchronized File getProc()
   {
     // TODO: discover `/proc` in a more reliable way
     final File proc = new File("/proc");
@@ -68,21 +94,30 @@ public class ProcCgroupDiscoverer implements CgroupDiscoverer
     if (proc.exists() && proc.isDirectory()) {
       // Sanity check
       try {
-        for (final String line : Files.readLines(new File(proc, "mounts"), Charsets.UTF_8)) {
-          final ProcMountsEntry entry = ProcMountsEntry.parse(line);
-          if (PROC_TYPE.equals(entry.type)) {
-            if (proc.toPath().equals(entry.path)) {
-              return proc;
-            } else {
-              foundProc = entry.path;
-            }
-          }
-        }
+        reader.read(new File(proc, "mounts").toPath());
       }
       catch (IOException e) {
         // Unlikely
         throw new RuntimeException(e);
       }
+      while (reader.hasRemaining()) {
+        // Example: proc /proc proc rw,nosuid,nodev,noexec,relatime 0 0
+        reader.skipField();
+        final int pathStart = reader.position();
+        final boolean isProcPath = reader.matchField(proc.getPath());
+        if (!isProcPath) {
+          reader.skipField();
+        }
+        if (reader.matchField(PROC_TYPE)) {
+          if (isProcPath) {
+            return proc;
+          } else {
+            reader.position(pathStart);
+            foundProc = Paths.get(reader.nextField());
+          }
+        }
+        reader.nextLine();
+      }
       if (foundProc != null) {
         throw new RE("Expected proc to be mounted on /proc, but was on [%s]", foundProc);
       } else {
@@ -93,143 +128,85 @@ public class ProcCgroupDiscoverer implements CgroupDiscoverer
     }
   }
 
-  private ProcPidCgroupEntry getPidCgroupEntry(final File pidCgroups, final int hierarchy)
-  {
-    final List<String> lines;
-    try {
-      lines = Files.readLines(pidCgroups, Charsets.UTF_8);
-    }
-    catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-    for (final String line : lines) {
-      final ProcPidCgroupEntry entry = ProcPidCgroupEntry.parse(line);
-      if (hierarchy == entry.hierarchy) {
-        return entry;
-      }
-    }
-    throw new RE("No hierarchy found for [%d]", hierarchy);
-  }
-
-  private ProcCgroupsEntry getCgroupEntry(final File procCgroups, final String cgroup)
+  private void read(final File file)
   {
-    final List<String> lines;
     try {
-      lines = Files.readLines(procCgroups, Charsets.UTF_8);
+      reader.read(file.toPath());
     }
     catch (IOException e) {
       throw new RuntimeException(e);
     }
-    for (final String line : lines) {
-      if (line.startsWith("#")) {
-        continue;
-      }
-      final ProcCgroupsEntry entry = ProcCgroupsEntry.parse(line);
-      if (entry.enabled && cgroup.equals(entry.subsystem_name)) {
-        return entry;
-      }
-    }
-    throw new RE("Hierarchy for [%s] not found", cgroup);
   }
 
-  private ProcMountsEntry getMountEntry(final File procMounts, final String cgroup)
+  /**
+   * @return the path of the entry of the hierarchy in /proc/[pid]/cgroup, e. g. "/system.slice/druid.service" for
+   * "9:cpu,cpuacct:/system.slice/druid.service"
+   */
+  private String getPidCgroupPath(final File pidCgroups, final int hierarchy)
   {
-    final List<String> lines;
-    try {
-      lines = Files.readLines(procMounts, Charsets.UTF_8);
-    }
-    catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-
-    for (final String line : lines) {
-      final ProcMountsEntry entry = ProcMountsEntry.parse(line);
-      if (CGROUP_TYPE.equals(entry.type) && entry.options.contains(cgroup)) {
-        return entry;
+    read(pidCgroups);
+    while (reader.hasRemaining()) {
+      if (reader.nextLong() == hierarchy && reader.skipPast(':') && reader.skipPast(':')) {
+        return reader.restOfLine();
       }
+      reader.nextLine();
     }
-    throw new RE("Cgroup [%s] not found", cgroup);
+    throw new RE("No hierarchy found for [%d]", hierarchy);
   }
 
   /**
-   * Doesn't use the last two mount entries for priority/boot stuff
+   * @return the hierarchy of the cgroup in /proc/cgroups, {@link #UNIFIED_HIERARCHY} if it's not attached to a v1
+   * hierarchy, or missing altogether as it may be on cgroup2-only kernels
    */
-  static class ProcMountsEntry
+  private int getCgroupHierarchy(final File procCgroups, final String cgroup)
   {
-    // Example: cgroup /sys/fs/cgroup/cpu,cpuacct cgroup rw,nosuid,nodev,noexec,relatime,cpu,cpuacct 0 0
-    static ProcMountsEntry parse(String entry)
-    {
-      final String[] splits = entry.split(CgroupUtil.SPACE_MATCH, 6);
-      Preconditions.checkArgument(splits.length == 6, "Invalid entry: [%s]", entry);
-      return new ProcMountsEntry(
-          splits[0],
-          Paths.get(splits[1]),
-          splits[2],
-          ImmutableSet.copyOf(splits[3].split(CgroupUtil.COMMA_MATCH))
-      );
-    }
-
-    final String dev;
-    final Path path;
-    final String type;
-    final Set<String> options;
-
-    ProcMountsEntry(String dev, Path path, String type, Collection<String> options)
-    {
-      this.dev = dev;
-      this.path = path;
-      this.type = type;
-      this.options = ImmutableSet.copyOf(options);
+    read(procCgroups);
+    while (reader.hasRemaining()) {
+      // Example Header: #subsys_name	hierarchy	num_cgroups	enabled
+      if (!reader.skipPrefix("#") && reader.matchField(cgroup)) {
+        final int hierarchy = (int) reader.nextLong();
+        // num_cgroups
+        reader.skipField();
+        if (reader.nextLong() == 1) {
+          return hierarchy;
+        }
+      }
+      reader.nextLine();
     }
+    return UNIFIED_HIERARCHY;
   }
 
-  static class ProcCgroupsEntry
+  private Path getUnifiedMountPath(final File procMounts, final String cgroup)
   {
-    // Example Header: #subsys_name	hierarchy	num_cgroups	enabled
-    static ProcCgroupsEntry parse(String entry)
-    {
-      final String[] splits = entry.split(Pattern.quote("\t"));
-      return new ProcCgroupsEntry(
-          splits[0],
-          Integer.parseInt(splits[1]),
-          Integer.parseInt(splits[2]),
-          Integer.parseInt(splits[3]) == 1
-      );
-    }
-
-    final String subsystem_name;
-    final int hierarchy;
-    final int num_cgroups;
-    final boolean enabled;
-
-    ProcCgroupsEntry(String subsystem_name, int hierarchy, int num_cgroups, boolean enabled)
-    {
-      this.subsystem_name = subsystem_name;
-      this.hierarchy = hierarchy;
-      this.num_cgroups = num_cgroups;
-      this.enabled = enabled;
+    read(procMounts);
+    while (reader.hasRemaining()) {
+      // Example: cgroup2 /sys/fs/cgroup cgroup2 rw,nosuid,nodev,noexec,relatime,nsdelegate 0 0
+      reader.skipField();
+      final int pathStart = reader.position();
+      reader.skipField();
+      if (reader.matchField(CGROUP2_TYPE)) {
+        reader.position(pathStart);
+        return Paths.get(reader.nextField());
+      }
+      reader.nextLine();
     }
+    throw new RE("Hierarchy for [%s] not found", cgroup);
   }
 
-  static class ProcPidCgroupEntry
+  private Path getMountPath(final File procMounts, final String cgroup)
   {
-    // example: 3:cpu,cpuacct:/system.slice/mesos-agent-spark.service/673550f3-69b9-4ef0-910d-762c8aaeda1c
-    static ProcPidCgroupEntry parse(String entry)
-    {
-      final String[] splits = entry.split(CgroupUtil.COLON_MATCH, 3);
-      Preconditions.checkArgument(splits.length == 3, "Invalid entry [%s]", entry);
-      return new ProcPidCgroupEntry(Integer.parseInt(splits[0]), splits[1], splits[2]);
-    }
-
-    private final int hierarchy;
-    private final String entrypoint;
-    private final String path;
-
-    ProcPidCgroupEntry(int hierarchy, String entrypoint, String path)
-    {
-      this.hierarchy = hierarchy;
-      this.entrypoint = entrypoint;
-      this.path = path;
+    read(procMounts);
+    while (reader.hasRemaining()) {
+      // Example: cgroup /sys/fs/cgroup/cpu,cpuacct cgroup rw,nosuid,nodev,noexec,relatime,cpu,cpuacct 0 0
+      reader.skipField();
+      final int pathStart = reader.position();
+      reader.skipField();
+      if (reader.matchField(CGROUP_TYPE) && reader.fieldContains(cgroup, ',')) {
+        reader.position(pathStart);
+        return Paths.get(reader.nextField());
+      }
+      reader.nextLine();
     }
+    throw new RE("Cgroup [%s] not found", cgroup);
   }
 }
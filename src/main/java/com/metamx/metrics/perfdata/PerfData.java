@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.perfdata;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.ISE;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the performance counters a HotSpot JVM publishes in its hsperfdata file, e. g. /tmp/hsperfdata_[user]/[pid],
+ * the ones jstat reads, without native code nor attaching to the JVM. The file is memory mapped, and its directory of
+ * counters parsed, once: counters are then resolved to offsets with {@link #offset(String)}, and read with
+ * {@link #getLong(int)}, a single load from the mapped file.
+ *
+ * Only the counters created before the file is mapped are found, which includes those of the GC, created when the JVM
+ * starts. There is no hsperfdata file if the JVM runs with -XX:-UsePerfData.
+ *
+ * Thread-safe, the mapped buffer is only read with absolute gets.
+ */
+public class PerfData
+{
+  /**
+   * 0xcafec0c0 in the byte order of the file, the first four bytes always being CA FE C0 C0
+   */
+  private static final int MAGIC = 0xcafec0c0;
+  private static final int SUPPORTED_MAJOR_VERSION = 2;
+  private static final byte TYPE_LONG = 'J';
+  private static final byte TYPE_BYTE = 'B';
+  private static final byte UNITS_TICKS = 3;
+  private static final byte UNITS_STRING = 5;
+  private static final String FREQUENCY = "sun.os.hrt.frequency";
+
+  /**
+   * Directory of the hsperfdata directories of the users. On Linux HotSpot always writes its hsperfdata file there, and
+   * jvmstat looks for them there, whatever the java.io.tmpdir of the JVMs.
+   */
+  public static final Path TMP_DIR = Paths.get("/tmp");
+
+  /**
+   * Prefix of the names of the directories of the hsperfdata files of each user, in {@link #TMP_DIR}
+   */
+  public static final String DIRECTORY_PREFIX = "hsperfdata_";
+
+  /**
+   * @return the directory of the hsperfdata files of the JVMs of the user
+   */
+  public static Path directory(String user)
+  {
+    return TMP_DIR.resolve(DIRECTORY_PREFIX + user);
+  }
+
+  /**
+   * @return the hsperfdata file of the JVM of the pid, run by the same user as this one
+   */
+  public static Path file(long pid)
+  {
+    return directory(System.getProperty("user.name")).resolve(Long.toString(pid));
+  }
+
+  /**
+   * Maps the file and parses its counters
+   *
+   * @throws IOException if the file can't be read, e. g. because the JVM runs with -XX:-UsePerfData
+   * @throws ISE         if it isn't an hsperfdata file of a supported version
+   */
+  public static PerfData map(Path file) throws IOException
+  {
+    final ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    return new PerfData(buffer);
+  }
+
+  private final ByteBuffer buffer;
+  private final Map<String, Counter> counters;
+  private final long frequency;
+
+  PerfData(ByteBuffer buffer)
+  {
+    if (buffer.capacity() < 32 || buffer.order(ByteOrder.BIG_ENDIAN).getInt(0) != MAGIC) {
+      throw new ISE("Not an hsperfdata file");
+    }
+    // Prologue: magic, byte order, major and minor versions, accessible, used, overflow, modification timestamp,
+    // offset and number of the entries
+    buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    final int majorVersion = buffer.get(5);
+    if (majorVersion != SUPPORTED_MAJOR_VERSION) {
+      throw new ISE("Unsupported hsperfdata version [%d]", majorVersion);
+    }
+    this.buffer = buffer;
+    this.counters = parseEntries(buffer.getInt(24), buffer.getInt(28), Math.min(buffer.getInt(8), buffer.capacity()));
+    this.frequency = counters.containsKey(FREQUENCY) ? getLong(offset(FREQUENCY)) : 0;
+  }
+
+  private Map<String, Counter> parseEntries(int entryOffset, int numEntries, int used)
+  {
+    final ImmutableMap.Builder<String, Counter> builder = ImmutableMap.builder();
+    int entry = entryOffset;
+    for (int i = 0; i < numEntries; i++) {
+      // Entry: length, name offset, vector length, type, flags, units, variability, data offset
+      if (entry < 0 || entry + 20 > used) {
+        throw new ISE("Entry [%d] at [%d] is out of the [%d] used bytes", i, entry, used);
+      }
+      final int length = buffer.getInt(entry);
+      if (length <= 0) {
+        throw new ISE("Entry [%d] at [%d] has a length of [%d]", i, entry, length);
+      }
+      final String name = readString(entry + buffer.getInt(entry + 4), used);
+      final int vectorLength = buffer.getInt(entry + 8);
+      final byte type = buffer.get(entry + 12);
+      final byte units = buffer.get(entry + 14);
+      final int dataOffset = entry + buffer.getInt(entry + 16);
+      builder.put(name, new Counter(type, units, vectorLength, dataOffset));
+      entry += length;
+    }
+    return builder.build();
+  }
+
+  private String readString(int offset, int limit)
+  {
+    int end = offset;
+    while (end < limit && buffer.get(end) != 0) {
+      end++;
+    }
+    final byte[] bytes = new byte[end - offset];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return whether the JVM is done initializing, and so has created the counters of its GC and runtime. Read from the
+   * mapped file, as it changes once the JVM is up.
+   */
+  public boolean isAccessible()
+  {
+    return buffer.get(7) != 0;
+  }
+
+  public Set<String> getNames()
+  {
+    return counters.keySet();
+  }
+
+  public boolean contains(String name)
+  {
+    return counters.containsKey(name);
+  }
+
+  /**
+   * @return the offset of the long counter, to read it with {@link #getLong(int)}
+   *
+   * @throws ISE if there is no such long counter
+   */
+  public int offset(String name)
+  {
+    final Counter counter = counters.get(name);
+    if (counter == null || counter.type != TYPE_LONG || counter.vectorLength != 0) {
+      throw new ISE("No long counter [%s]", name);
+    }
+    return counter.offset;
+  }
+
+  public long getLong(int offset)
+  {
+    return buffer.getLong(offset);
+  }
+
+  /**
+   * @return whether the long counter is in ticks, to be converted with {@link #ticksToNanos(long)}
+   */
+  public boolean isTicks(String name)
+  {
+    final Counter counter = counters.get(name);
+    return counter != null && counter.units == UNITS_TICKS;
+  }
+
+  /**
+   * Converts ticks of the high-resolution timer of the JVM, e. g. the time of a GC collector, to nanoseconds
+   */
+  public long ticksToNanos(long ticks)
+  {
+    if (frequency <= 0) {
+      throw new ISE("No [%s] counter", FREQUENCY);
+    }
+    final long nanosPerSecond = 1_000_000_000L;
+    return ticks / frequency * nanosPerSecond + ticks % frequency * nanosPerSecond / frequency;
+  }
+
+  /**
+   * @return the current value of the string counter, e. g. the name of a GC collector, or null if there is none
+   */
+  public String getString(String name)
+  {
+    final Counter counter = counters.get(name);
+    if (counter == null || counter.type != TYPE_BYTE || counter.units != UNITS_STRING) {
+      return null;
+    }
+    return readString(counter.offset, Math.min(counter.offset + counter.vectorLength, buffer.capacity()));
+  }
+
+  private static class Counter
+  {
+    private final byte type;
+    private final byte units;
+    private final int vectorLength;
+    private final int offset;
+
+    Counter(byte type, byte units, int vectorLength, int offset)
+    {
+      this.type = type;
+      this.units = units;
+      this.vectorLength = vectorLength;
+      this.offset = offset;
+    }
+  }
+}
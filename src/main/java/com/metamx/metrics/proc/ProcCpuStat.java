@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the per-cpu lines of /proc/stat, e. g. "cpu0 4705 150 1120 16250 520 0 26 0 0 0". Times are in USER_HZ ticks.
+ */
+public class ProcCpuStat
+{
+  public static final int USER = 0;
+  public static final int NICE = 1;
+  public static final int SYSTEM = 2;
+  public static final int IDLE = 3;
+  public static final int IOWAIT = 4;
+  public static final int IRQ = 5;
+  public static final int SOFTIRQ = 6;
+  public static final int STEAL = 7;
+  public static final int FIELDS = 8;
+
+  public interface CpuConsumer
+  {
+    /**
+     * @param times times of the cpu, indexed by {@link #USER}, {@link #NICE}... Fields missing on older kernels are
+     *              0. The array is reused, it's only valid during the call.
+     */
+    void accept(int cpu, long[] times);
+  }
+
+  private final ProcFileReader reader;
+  private final Path path;
+  private final long[] times = new long[FIELDS];
+
+  public ProcCpuStat(ProcFileReader reader, Path procDir)
+  {
+    this.reader = reader;
+    this.path = procDir.resolve("stat");
+  }
+
+  public void read(CpuConsumer consumer) throws IOException
+  {
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      // Skips the "cpu" line of all cpus, and the lines of other stats
+      if (reader.skipPrefix("cpu") && reader.isDigit()) {
+        final int cpu = (int) reader.nextLong();
+        for (int i = 0; i < FIELDS; i++) {
+          times[i] = reader.isEndOfLine() ? 0 : reader.nextLong();
+        }
+        consumer.accept(cpu, times);
+      }
+      reader.nextLine();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads /proc/diskstats, e. g. "   8       0 sda 4605 1251 229618 2508 5386 7404 189784 8336 0 5408 10844".
+ */
+public class ProcDiskStats
+{
+  public static final int READS = 0;
+  public static final int READS_MERGED = 1;
+  public static final int READ_SECTORS = 2;
+  public static final int READ_TICKS = 3;
+  public static final int WRITES = 4;
+  public static final int WRITES_MERGED = 5;
+  public static final int WRITE_SECTORS = 6;
+  public static final int WRITE_TICKS = 7;
+  public static final int IN_FLIGHT = 8;
+  public static final int IO_TICKS = 9;
+  public static final int TIME_IN_QUEUE = 10;
+  public static final int FIELDS = 11;
+
+  /**
+   * Sectors of /proc/diskstats are always 512 bytes, whatever the sector size of the device
+   */
+  public static final int SECTOR_SIZE = 512;
+
+  public interface DeviceConsumer
+  {
+    /**
+     * @param device index of the device in the list given to {@link #read(List, DeviceConsumer)}
+     * @param stats  stats of the device, indexed by {@link #READS}, {@link #READ_SECTORS}... Ticks are milliseconds.
+     *               The array is reused, it's only valid during the call.
+     */
+    void accept(int device, long[] stats);
+  }
+
+  private final ProcFileReader reader;
+  private final Path path;
+  private final long[] stats = new long[FIELDS];
+
+  public ProcDiskStats(ProcFileReader reader, Path procDir)
+  {
+    this.reader = reader;
+    this.path = procDir.resolve("diskstats");
+  }
+
+  /**
+   * @param devices names of the devices to read the stats of, e. g. "sda1". Other devices are skipped.
+   */
+  public void read(List<String> devices, DeviceConsumer consumer) throws IOException
+  {
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      // major and minor numbers
+      reader.skipFields(2);
+      final int device = reader.matchField(devices, ' ');
+      if (device >= 0) {
+        for (int i = 0; i < FIELDS; i++) {
+          stats[i] = reader.nextLong();
+        }
+        consumer.accept(device, stats);
+      }
+      reader.nextLine();
+    }
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import com.metamx.common.ISE;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads files of procfs (and sysfs, cgroupfs) into a direct buffer reused across reads, and tokenizes their content
+ * in place: numbers are parsed right from the buffer, and fields are compared with expected values without creating
+ * Strings. Files are expected to be ASCII, fields being separated by spaces or tabs.
+ *
+ * After {@link #read(Path)}, the reader is positioned at the start of the file, and every method consuming a token
+ * moves the position forward. Lines are left with {@link #nextLine()}.
+ *
+ * Not thread-safe, a reader is meant to be used by a single monitor.
+ */
+public class ProcFileReader
+{
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private ByteBuffer buffer;
+
+  public ProcFileReader()
+  {
+    this(INITIAL_CAPACITY);
+  }
+
+  public ProcFileReader(int initialCapacity)
+  {
+    this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+    buffer.flip();
+  }
+
+  /**
+   * Reads the whole file, growing the buffer if the file doesn't fit.
+   *
+   * @return this
+   */
+  public ProcFileReader read(Path path) throws IOException
+  {
+    buffer.clear();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      while (true) {
+        if (!buffer.hasRemaining()) {
+          final ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+          buffer.flip();
+          grown.put(buffer);
+          buffer = grown;
+        }
+        if (channel.read(buffer) < 0) {
+          break;
+        }
+      }
+    }
+    buffer.flip();
+    return this;
+  }
+
+  /**
+   * @return a 64-bit FNV-1a hash of the whole content read, e. g. to tell cheaply whether a file changed between two
+   * reads
+   */
+  public long contentHash()
+  {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < buffer.limit(); i++) {
+      hash ^= buffer.get(i) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  public boolean hasRemaining()
+  {
+    return buffer.hasRemaining();
+  }
+
+  /**
+   * @return the current position, to get back to with {@link #position(int)}, e. g. to create a String out of a field
+   * only once the rest of its line turns out to match
+   */
+  public int position()
+  {
+    return buffer.position();
+  }
+
+  public void position(int position)
+  {
+    buffer.position(position);
+  }
+
+  /**
+   * Moves to the start of the next line.
+   *
+   * @return true if there is a next line
+   */
+  public boolean nextLine()
+  {
+    while (buffer.hasRemaining()) {
+      if (buffer.get() == '\n') {
+        break;
+      }
+    }
+    return buffer.hasRemaining();
+  }
+
+  /**
+   * @return true if there are no more fields on the current line
+   */
+  public boolean isEndOfLine()
+  {
+    skipSpaces();
+    return !buffer.hasRemaining() || buffer.get(buffer.position()) == '\n';
+  }
+
+  /**
+   * @return true if the next byte is a digit, without skipping spaces
+   */
+  public boolean isDigit()
+  {
+    return buffer.hasRemaining() && isDigit(buffer.get(buffer.position()));
+  }
+
+  public void skipField()
+  {
+    skipSpaces();
+    while (buffer.hasRemaining() && !isSeparator(buffer.get(buffer.position()))) {
+      buffer.get();
+    }
+  }
+
+  public void skipFields(int count)
+  {
+    for (int i = 0; i < count; i++) {
+      skipField();
+    }
+  }
+
+  /**
+   * Moves past the next occurrence of the delimiter on the current line, e. g. past the controllers of a
+   * "9:cpu,cpuacct:/path" line of /proc/[pid]/cgroup. Stays at the end of the line if there is none.
+   *
+   * @return true if the delimiter was found
+   */
+  public boolean skipPast(char delimiter)
+  {
+    while (buffer.hasRemaining()) {
+      final byte b = buffer.get(buffer.position());
+      if (b == '\n') {
+        return false;
+      }
+      buffer.get();
+      if (b == delimiter) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses the next field as a long. Digits following the number in the same field, e. g. the "kB" of meminfo, are
+   * left for the next call.
+   */
+  public long nextLong()
+  {
+    skipSpaces();
+    boolean negative = false;
+    if (buffer.hasRemaining() && buffer.get(buffer.position()) == '-') {
+      negative = true;
+      buffer.get();
+    }
+    if (!isDigit()) {
+      throw new ISE("Expected a number at position [%d]", buffer.position());
+    }
+    long value = 0;
+    while (isDigit()) {
+      value = value * 10 + (buffer.get() - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses the next field as a non-negative decimal number, e. g. "0.52".
+   */
+  public double nextDouble()
+  {
+    final long integer = nextLong();
+    if (!buffer.hasRemaining() || buffer.get(buffer.position()) != '.') {
+      return integer;
+    }
+    buffer.get();
+    // Divided once, so that e. g. "0.75" parses to exactly 0.75
+    long fraction = 0;
+    long scale = 1;
+    while (isDigit() && scale < 1_000_000_000_000_000L) {
+      fraction = fraction * 10 + (buffer.get() - '0');
+      scale *= 10;
+    }
+    while (isDigit()) {
+      buffer.get();
+    }
+    return integer + (double) fraction / scale;
+  }
+
+  /**
+   * Skips the given bytes if they follow, ignoring leading spaces.
+   *
+   * @return true if the prefix was found and skipped, false if it wasn't, leaving the position unchanged
+   */
+  public boolean skipPrefix(String prefix)
+  {
+    skipSpaces();
+    final int start = buffer.position();
+    if (buffer.remaining() < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (buffer.get(start + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    buffer.position(start + prefix.length());
+    return true;
+  }
+
+  /**
+   * Compares the next field with the expected value, and consumes it if it matches.
+   */
+  public boolean matchField(String expected)
+  {
+    skipSpaces();
+    final int start = buffer.position();
+    final int end = fieldEnd(start, ' ');
+    if (equals(start, end, expected)) {
+      buffer.position(end);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the next field, made of items separated by the separator (e. g. the options of a mount, "rw,cpu"),
+   * contains the item. The field isn't consumed.
+   */
+  public boolean fieldContains(String item, char separator)
+  {
+    skipSpaces();
+    final int end = fieldEnd(buffer.position(), ' ');
+    int itemStart = buffer.position();
+    for (int i = itemStart; i <= end; i++) {
+      if (i == end || buffer.get(i) == separator) {
+        if (equals(itemStart, i, item)) {
+          return true;
+        }
+        itemStart = i + 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares the next field with the candidates, and consumes it if it matches one of them.
+   *
+   * @param delimiter byte ending the field besides spaces, consumed along with the field, e. g. ':' for the
+   *                  "eth0:" of /proc/net/dev. Pass ' ' for none.
+   *
+   * @return the index of the matching candidate, or -1 leaving the position at the start of the field
+   */
+  public int matchField(List<String> candidates, char delimiter)
+  {
+    skipSpaces();
+    final int start = buffer.position();
+    final int end = fieldEnd(start, delimiter);
+    for (int i = 0; i < candidates.size(); i++) {
+      if (equals(start, end, candidates.get(i))) {
+        buffer.position(end < buffer.limit() && buffer.get(end) == delimiter ? end + 1 : end);
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the next field as a new String. Meant for values seen for the first time, see
+   * {@link #matchField(List, char)}.
+   */
+  public String nextField(char delimiter)
+  {
+    skipSpaces();
+    final StringBuilder field = new StringBuilder();
+    while (buffer.hasRemaining()) {
+      final byte b = buffer.get(buffer.position());
+      if (isSeparator(b)) {
+        break;
+      }
+      buffer.get();
+      if (b == delimiter) {
+        break;
+      }
+      field.append((char) b);
+    }
+    return field.toString();
+  }
+
+  public String nextField()
+  {
+    return nextField(' ');
+  }
+
+  /**
+   * @return the rest of the current line as a new String, including spaces, e. g. the path of a cgroup. The newline
+   * isn't consumed.
+   */
+  public String restOfLine()
+  {
+    final StringBuilder rest = new StringBuilder();
+    while (buffer.hasRemaining() && buffer.get(buffer.position()) != '\n') {
+      rest.append((char) buffer.get());
+    }
+    return rest.toString();
+  }
+
+  private int fieldEnd(int start, char delimiter)
+  {
+    int end = start;
+    while (end < buffer.limit() && !isSeparator(buffer.get(end)) && buffer.get(end) != delimiter) {
+      end++;
+    }
+    return end;
+  }
+
+  private boolean equals(int start, int end, String value)
+  {
+    if (end - start != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (buffer.get(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void skipSpaces()
+  {
+    while (buffer.hasRemaining()) {
+      final byte b = buffer.get(buffer.position());
+      if (b != ' ' && b != '\t') {
+        break;
+      }
+      buffer.get();
+    }
+  }
+
+  private static boolean isSeparator(byte b)
+  {
+    return b == ' ' || b == '\t' || b == '\n';
+  }
+
+  private static boolean isDigit(byte b)
+  {
+    return b >= '0' && b <= '9';
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads files made of one "key value" line per value, like /proc/meminfo ("MemTotal:  16318480 kB"), /proc/vmstat
+ * ("pswpin 0") or the cpu.stat of a cgroup ("usage_usec 1234"). Units, if any, are left to the caller.
+ */
+public class ProcKeyValues
+{
+  private final ProcFileReader reader;
+  private final Path path;
+  private final List<String> keys;
+  private final long[] values;
+
+  /**
+   * Creates a reader of files whose path isn't known in advance, e. g. files of a cgroup, to be read with
+   * {@link #read(Path)}.
+   */
+  public ProcKeyValues(ProcFileReader reader, String... keys)
+  {
+    this(reader, null, keys);
+  }
+
+  public ProcKeyValues(ProcFileReader reader, Path path, String... keys)
+  {
+    this.reader = reader;
+    this.path = path;
+    this.keys = ImmutableList.copyOf(keys);
+    this.values = new long[keys.length];
+  }
+
+  /**
+   * @return the values of the keys, in the order of the keys, 0 for keys missing from the file. The returned array is
+   * reused, it's only valid until the next call.
+   */
+  public long[] read() throws IOException
+  {
+    return read(path);
+  }
+
+  /**
+   * Reads the values from the given file rather than from the path given at construction.
+   *
+   * @see #read()
+   */
+  public long[] read(Path path) throws IOException
+  {
+    Arrays.fill(values, 0);
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      final int key = reader.matchField(keys, ':');
+      if (key >= 0) {
+        values[key] = reader.nextLong();
+      }
+      reader.nextLine();
+    }
+    return values;
+  }
+}
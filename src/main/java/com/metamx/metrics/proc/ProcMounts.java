@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads /proc/mounts, e. g. "/dev/sda1 / ext4 rw,relatime,data=ordered 0 0".
+ */
+public class ProcMounts
+{
+  private final ProcFileReader reader;
+  private final Path path;
+
+  public ProcMounts(ProcFileReader reader, Path procDir)
+  {
+    this.reader = reader;
+    this.path = procDir.resolve("mounts");
+  }
+
+  /**
+   * @param devicePrefix e. g. "/dev/". Only the lines of matching devices are turned into {@link Mount}s.
+   */
+  public List<Mount> read(String devicePrefix) throws IOException
+  {
+    final List<Mount> mounts = new ArrayList<>();
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      if (reader.skipPrefix(devicePrefix)) {
+        final String device = devicePrefix + reader.nextField();
+        final String dir = reader.nextField();
+        final String type = reader.nextField();
+        mounts.add(new Mount(device, dir, type, reader.nextField()));
+      }
+      reader.nextLine();
+    }
+    return mounts;
+  }
+
+  public static class Mount
+  {
+    private final String device;
+    private final String dir;
+    private final String type;
+    private final String options;
+
+    public Mount(String device, String dir, String type, String options)
+    {
+      this.device = device;
+      this.dir = dir;
+      this.type = type;
+      this.options = options;
+    }
+
+    public String getDevice()
+    {
+      return device;
+    }
+
+    public String getDir()
+    {
+      return dir;
+    }
+
+    public String getType()
+    {
+      return type;
+    }
+
+    public String getOptions()
+    {
+      return options;
+    }
+  }
+}
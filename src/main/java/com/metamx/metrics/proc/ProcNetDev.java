@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads /proc/net/dev. Interface names are only created as Strings the first time an interface is seen.
+ */
+public class ProcNetDev
+{
+  public static final int RX_BYTES = 0;
+  public static final int RX_PACKETS = 1;
+  public static final int RX_ERRS = 2;
+  public static final int RX_DROP = 3;
+  public static final int RX_FIFO = 4;
+  public static final int RX_FRAME = 5;
+  public static final int RX_COMPRESSED = 6;
+  public static final int RX_MULTICAST = 7;
+  public static final int TX_BYTES = 8;
+  public static final int TX_PACKETS = 9;
+  public static final int TX_ERRS = 10;
+  public static final int TX_DROP = 11;
+  public static final int TX_FIFO = 12;
+  public static final int TX_COLLS = 13;
+  public static final int TX_CARRIER = 14;
+  public static final int TX_COMPRESSED = 15;
+  public static final int FIELDS = 16;
+
+  public interface InterfaceConsumer
+  {
+    /**
+     * @param stats stats of the interface, indexed by {@link #RX_BYTES}, {@link #RX_PACKETS}... The array is reused,
+     *              it's only valid during the call.
+     */
+    void accept(String name, long[] stats);
+  }
+
+  private final ProcFileReader reader;
+  private final Path path;
+  private final long[] stats = new long[FIELDS];
+  private List<String> names = new ArrayList<>();
+  private List<String> nextNames = new ArrayList<>();
+
+  public ProcNetDev(ProcFileReader reader, Path procDir)
+  {
+    this.reader = reader;
+    this.path = procDir.resolve("net").resolve("dev");
+  }
+
+  public void read(InterfaceConsumer consumer) throws IOException
+  {
+    reader.read(path);
+    // Two lines of headers
+    reader.nextLine();
+    reader.nextLine();
+    nextNames.clear();
+    while (reader.hasRemaining()) {
+      final int known = reader.matchField(names, ':');
+      final String name = known >= 0 ? names.get(known) : reader.nextField(':');
+      nextNames.add(name);
+      for (int i = 0; i < FIELDS; i++) {
+        stats[i] = reader.nextLong();
+      }
+      consumer.accept(name, stats);
+      reader.nextLine();
+    }
+    final List<String> swap = names;
+    names = nextNames;
+    nextNames = swap;
+  }
+}
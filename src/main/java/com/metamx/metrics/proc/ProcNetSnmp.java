@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.proc;
+
+import com.metamx.common.ISE;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the counters of a protocol from /proc/net/snmp, where each protocol has a line of column names followed by
+ * a line of values, e. g. "Tcp: RtoAlgorithm RtoMin ..." and "Tcp: 1 200 ...". Columns are located once, from the
+ * first read.
+ */
+public class ProcNetSnmp
+{
+  private final ProcFileReader reader;
+  private final Path path;
+  private final String prefix;
+  private final List<String> columns;
+  private final long[] values;
+  /**
+   * Index in {@link #columns} of each column of the file, -1 for columns not asked for
+   */
+  private int[] slots = null;
+
+  /**
+   * @param protocol e. g. "Tcp"
+   * @param columns  names of the columns to read, e. g. "ActiveOpens"
+   */
+  public ProcNetSnmp(ProcFileReader reader, Path procDir, String protocol, String... columns)
+  {
+    this.reader = reader;
+    this.path = procDir.resolve("net").resolve("snmp");
+    this.prefix = protocol + ":";
+    this.columns = Arrays.asList(columns.clone());
+    this.values = new long[columns.length];
+  }
+
+  /**
+   * @return the values of the columns, in the order of the columns, 0 for columns missing from the file. The
+   * returned array is reused, it's only valid until the next call.
+   */
+  public long[] read() throws IOException
+  {
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      if (reader.skipPrefix(prefix)) {
+        if (slots == null) {
+          slots = locateColumns();
+        }
+        reader.nextLine();
+        if (!reader.skipPrefix(prefix)) {
+          throw new ISE("Expected values of [%s] in [%s]", prefix, path);
+        }
+        Arrays.fill(values, 0);
+        for (int i = 0; i < slots.length && !reader.isEndOfLine(); i++) {
+          final long value = reader.nextLong();
+          if (slots[i] >= 0) {
+            values[slots[i]] = value;
+          }
+        }
+        return values;
+      }
+      reader.nextLine();
+    }
+    throw new ISE("No [%s] entry in [%s]", prefix, path);
+  }
+
+  private int[] locateColumns()
+  {
+    int[] slots = new int[0];
+    while (!reader.isEndOfLine()) {
+      slots = Arrays.copyOf(slots, slots.length + 1);
+      slots[slots.length - 1] = columns.indexOf(reader.nextField());
+    }
+    return slots;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.proc;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads pressure stall information, from /proc/pressure/{cpu,memory,io} or the *.pressure files of a cgroup v2, e. g.
+ * "some avg10=0.12 avg60=0.05 avg300=0.01 total=123456". The "some" line tells the share of time at least one task
+ * was stalled on the resource, the "full" line the share of time all non-idle tasks were stalled at once. Averages
+ * are percentages over the last 10, 60 and 300 seconds, totals are cumulative microseconds.
+ */
+public class ProcPressure
+{
+  public static final int SOME = 0;
+  public static final int FULL = 1;
+
+  public static final int AVG10 = 0;
+  public static final int AVG60 = 1;
+  public static final int AVG300 = 2;
+
+  private static final List<String> KINDS = ImmutableList.of("some", "full");
+  private static final List<String> AVGS = ImmutableList.of("avg10", "avg60", "avg300");
+  private static final List<String> TOTAL = ImmutableList.of("total");
+
+  private final ProcFileReader reader;
+  private final double[][] avgs = new double[KINDS.size()][AVGS.size()];
+  private final long[] totals = new long[KINDS.size()];
+  private final boolean[] present = new boolean[KINDS.size()];
+
+  public ProcPressure(ProcFileReader reader)
+  {
+    this.reader = reader;
+  }
+
+  public void read(Path path) throws IOException
+  {
+    Arrays.fill(present, false);
+    reader.read(path);
+    while (reader.hasRemaining()) {
+      final int kind = reader.matchField(KINDS, ' ');
+      if (kind >= 0) {
+        present[kind] = true;
+        while (!reader.isEndOfLine()) {
+          final int avg = reader.matchField(AVGS, '=');
+          if (avg >= 0) {
+            avgs[kind][avg] = reader.nextDouble();
+          } else if (reader.matchField(TOTAL, '=') >= 0) {
+            totals[kind] = reader.nextLong();
+          } else {
+            reader.skipField();
+          }
+        }
+      }
+      reader.nextLine();
+    }
+  }
+
+  /**
+   * @param kind {@link #SOME} or {@link #FULL}
+   *
+   * @return whether the latest read file had the line, "full" being missing e. g. from /proc/pressure/cpu before
+   * Linux 5.13
+   */
+  public boolean has(int kind)
+  {
+    return present[kind];
+  }
+
+  /**
+   * @param kind   {@link #SOME} or {@link #FULL}
+   * @param window {@link #AVG10}, {@link #AVG60} or {@link #AVG300}
+   *
+   * @return the percentage of time stalled over the window, within [0, 100]
+   */
+  public double getAvg(int kind, int window)
+  {
+    return avgs[kind][window];
+  }
+
+  /**
+   * @param kind {@link #SOME} or {@link #FULL}
+   *
+   * @return the total time stalled, in microseconds
+   */
+  public long getTotalUs(int kind)
+  {
+    return totals[kind];
+  }
+}
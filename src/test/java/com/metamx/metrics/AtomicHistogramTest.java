@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHistogramTest
+{
+  @Test
+  public void testBuckets()
+  {
+    for (long value = 0; value < 100_000; value++) {
+      final int bucket = AtomicHistogram.bucket(value);
+      Assert.assertTrue(value <= AtomicHistogram.highestValue(bucket));
+      if (bucket > 0) {
+        Assert.assertTrue(value > AtomicHistogram.highestValue(bucket - 1));
+      }
+      // Within 1/16 of the value
+      Assert.assertTrue(AtomicHistogram.highestValue(bucket) - value <= value / 16);
+    }
+    Assert.assertEquals(Long.MAX_VALUE, AtomicHistogram.highestValue(AtomicHistogram.bucket(Long.MAX_VALUE)));
+    Assert.assertEquals(0, AtomicHistogram.bucket(-1));
+  }
+
+  @Test
+  public void testIntervals()
+  {
+    final AtomicHistogram histogram = new AtomicHistogram();
+    for (int value = 1; value <= 1000; value++) {
+      histogram.record(value);
+    }
+    AtomicHistogram.Interval interval = histogram.nextInterval();
+    Assert.assertEquals(1000, interval.getCount());
+    Assert.assertEquals(500500, interval.getTotal());
+    Assert.assertEquals(1000, interval.getMax());
+    Assert.assertEquals(500, interval.getValueAtPercentile(50), 500 / 16);
+    Assert.assertEquals(990, interval.getValueAtPercentile(99), 990 / 16);
+    Assert.assertEquals(1000, interval.getValueAtPercentile(99.9));
+    Assert.assertEquals(1000, interval.getValueAtPercentile(100));
+
+    // Only the values recorded since the previous interval
+    histogram.record(3);
+    interval = histogram.nextInterval();
+    Assert.assertEquals(1, interval.getCount());
+    Assert.assertEquals(3, interval.getTotal());
+    Assert.assertEquals(3, interval.getMax());
+    Assert.assertEquals(3, interval.getValueAtPercentile(99.9));
+
+    interval = histogram.nextInterval();
+    Assert.assertEquals(0, interval.getCount());
+    Assert.assertEquals(0, interval.getMax());
+    Assert.assertEquals(0, interval.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception
+  {
+    final AtomicHistogram histogram = new AtomicHistogram();
+    final int threadCount = 4;
+    final int recordsPerThread = 100_000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      final Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        for (int j = 0; j < recordsPerThread; j++) {
+          histogram.record(j % 100);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    // Intervals taken while recording lose nothing
+    long count = 0;
+    long max = 0;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        final AtomicHistogram.Interval interval = histogram.nextInterval();
+        count += interval.getCount();
+        max = Math.max(max, interval.getMax());
+        thread.join(1);
+      }
+    }
+    count += histogram.nextInterval().getCount();
+    Assert.assertEquals(threadCount * recordsPerThread, count);
+    Assert.assertEquals(99, max);
+  }
+}
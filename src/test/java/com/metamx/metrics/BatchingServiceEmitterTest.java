@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.metamx.emitter.service.ServiceMetricEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchingServiceEmitterTest
+{
+  @Test
+  public void testFlush()
+  {
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    final BatchingServiceEmitter batch = new BatchingServiceEmitter(emitter);
+    Assert.assertEquals("service", batch.getService());
+    Assert.assertEquals("host", batch.getHost());
+
+    batch.emit(ServiceMetricEvent.builder().build("metric1", 1));
+    batch.emit(ServiceMetricEvent.builder().build("metric2", 2));
+    Assert.assertEquals(2, batch.size());
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    batch.flush();
+    Assert.assertEquals(0, batch.size());
+    Assert.assertEquals(2, emitter.getEvents().size());
+    Assert.assertEquals("metric1", ((ServiceMetricEvent) emitter.getEvents().get(0)).getMetric());
+    Assert.assertEquals("metric2", ((ServiceMetricEvent) emitter.getEvents().get(1)).getMetric());
+    Assert.assertEquals("service", ((ServiceMetricEvent) emitter.getEvents().get(0)).getService());
+  }
+}
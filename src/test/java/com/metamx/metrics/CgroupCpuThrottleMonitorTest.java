@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.StringUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupCpuThrottleMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File cpuDir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    cpuDir = temporaryFolder.newFolder();
+  }
+
+  private void write(String file, String content) throws IOException
+  {
+    Files.write(new File(cpuDir, file).toPath(), StringUtils.toUtf8(content));
+  }
+
+  private CgroupCpuThrottleMonitor monitor()
+  {
+    return new CgroupCpuThrottleMonitor("some_feed", ImmutableMap.of(), () -> 384, (cgroup, pid) -> cpuDir.toPath());
+  }
+
+  @Test
+  public void testV1() throws Exception
+  {
+    write("cpu.cfs_quota_us", "150000\n");
+    write("cpu.cfs_period_us", "100000\n");
+    write("cpu.stat", "nr_periods 100\nnr_throttled 10\nthrottled_time 5000000\n");
+    final CgroupCpuThrottleMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(ImmutableMap.of("cgroup/cpu_limit_cores", 1.5), emitter.drainMetrics());
+
+    write("cpu.stat", "nr_periods 150\nnr_throttled 35\nthrottled_time 9000000\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.of(
+            "cgroup/cpu_limit_cores", 1.5,
+            "cgroup/cpu_periods", 50L,
+            "cgroup/cpu_throttled_periods", 25L,
+            "cgroup/cpu_throttled_ns", 4000000L,
+            "cgroup/cpu_throttled_ratio", 0.5
+        ),
+        emitter.drainMetrics()
+    );
+  }
+
+  @Test
+  public void testV2Unlimited() throws Exception
+  {
+    write("cpu.max", "max 100000\n");
+    write("cpu.stat", "usage_usec 100\nuser_usec 60\nsystem_usec 40\nnr_periods 0\nnr_throttled 0\nthrottled_usec 0\n");
+    final CgroupCpuThrottleMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    // No periods elapse without a quota, so no ratio
+    Assert.assertEquals(
+        ImmutableMap.of(
+            "cgroup/cpu_periods", 0L,
+            "cgroup/cpu_throttled_periods", 0L,
+            "cgroup/cpu_throttled_ns", 0L
+        ),
+        emitter.drainMetrics()
+    );
+  }
+
+  @Test
+  public void testV2Throttled() throws Exception
+  {
+    write("cpu.max", "50000 100000\n");
+    write("cpu.stat", "usage_usec 100\nnr_periods 10\nnr_throttled 1\nthrottled_usec 20\n");
+    final CgroupCpuThrottleMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(ImmutableMap.of("cgroup/cpu_limit_cores", 0.5), emitter.drainMetrics());
+    write("cpu.stat", "usage_usec 200\nnr_periods 20\nnr_throttled 5\nthrottled_usec 70\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics();
+    Assert.assertEquals(50000L, metrics.get("cgroup/cpu_throttled_ns"));
+    Assert.assertEquals(0.4, metrics.get("cgroup/cpu_throttled_ratio"));
+  }
+
+  @Test
+  public void testMissingFiles() throws Exception
+  {
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor().doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.common.StringUtils;
+import com.metamx.emitter.core.Event;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
+import com.metamx.metrics.cgroups.TestUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupHostMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File procDir;
+  private File sliceDir;
+  private ProcCgroupDiscoverer discoverer;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    final File cgroupDir = temporaryFolder.newFolder();
+    procDir = temporaryFolder.newFolder();
+    TestUtils.setUpUnifiedCgroups(procDir, cgroupDir, 384);
+    sliceDir = new File(cgroupDir, "system.slice");
+    write(new File(sliceDir, "cgroup.procs"), "1\n");
+    setUpChild("druid.service", 4000);
+    setUpChild("kafka.service", 8000);
+    discoverer = new ProcCgroupDiscoverer()
+    {
+      @Override
+      public File getProc()
+      {
+        return procDir;
+      }
+    };
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown()
+  {
+    executor.shutdownNow();
+  }
+
+  private void setUpChild(String name, long usage) throws IOException
+  {
+    final File dir = new File(sliceDir, name);
+    Assert.assertTrue(dir.isDirectory() || dir.mkdir());
+    write(new File(dir, "cpu.stat"), "usage_usec 3000\nuser_usec 2000\nsystem_usec 1000\nnr_periods 0\n");
+    write(new File(dir, "cpu.max"), "max 100000\n");
+    write(new File(dir, "memory.current"), usage + "\n");
+    write(new File(dir, "memory.max"), "max\n");
+    write(new File(dir, "memory.events"), "low 0\nhigh 0\nmax 0\noom 0\noom_kill 0\n");
+    write(new File(dir, "memory.stat"), "anon 1000\nfile 1000\nfile_mapped 100\npgmajfault 1\n");
+  }
+
+  private static void write(File file, String content) throws IOException
+  {
+    Files.write(file.toPath(), StringUtils.toUtf8(content));
+  }
+
+  private CgroupHostMonitor monitor()
+  {
+    return new CgroupHostMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        "/system.slice",
+        EnumSet.of(CgroupHostMonitor.Resource.MEMORY),
+        executor,
+        2,
+        discoverer,
+        temporaryFolder.getRoot().toPath()
+    );
+  }
+
+  /**
+   * @return the values of the metric by cgroup dimension
+   */
+  private static Map<String, Number> byCgroup(StubServiceEmitter emitter, String metric)
+  {
+    final Map<String, Number> values = new HashMap<>();
+    for (Event event : emitter.getEvents()) {
+      final ServiceMetricEvent metricEvent = (ServiceMetricEvent) event;
+      if (metric.equals(metricEvent.getMetric())) {
+        final Object cgroup = metricEvent.getUserDims().get("cgroup");
+        values.put(cgroup == null ? null : (String) ((List<?>) cgroup).get(0), metricEvent.getValue());
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testChildren() throws Exception
+  {
+    final CgroupHostMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.of("druid.service", 4000L, "kafka.service", 8000L),
+        byCgroup(emitter, "cgroup/memory_usage_bytes")
+    );
+    Assert.assertEquals(2, byCgroup(emitter, "cgroup/host_cgroups").get(null).intValue());
+    emitter.getEvents().clear();
+
+    // One vanishes, another appears
+    final File kafkaDir = new File(sliceDir, "kafka.service");
+    for (File file : kafkaDir.listFiles()) {
+      Assert.assertTrue(file.delete());
+    }
+    Assert.assertTrue(kafkaDir.delete());
+    setUpChild("zookeeper.service", 2000);
+    write(new File(new File(sliceDir, "druid.service"), "memory.stat"), "anon 1000\nfile 1000\npgmajfault 6\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.of("druid.service", 4000L, "zookeeper.service", 2000L),
+        byCgroup(emitter, "cgroup/memory_usage_bytes")
+    );
+    // Deltas start on the second tick of each child
+    Assert.assertEquals(ImmutableMap.of("druid.service", 5L), byCgroup(emitter, "cgroup/memory_pgmajfault"));
+    Assert.assertEquals(ImmutableSet.of("druid.service", "zookeeper.service"), monitor.getCgroups());
+  }
+
+  @Test
+  public void testMissingFromHierarchy() throws Exception
+  {
+    final File v1ProcDir = temporaryFolder.newFolder();
+    final File v1CgroupDir = temporaryFolder.newFolder();
+    TestUtils.setUpCgroups(v1ProcDir, v1CgroupDir, 384);
+    final File cpuDir = new File(v1CgroupDir, "cpu,cpuacct/system.slice/druid.service");
+    Assert.assertTrue(cpuDir.mkdirs());
+    write(new File(cpuDir, "cpuacct.usage_all"), "cpu user system\n0 1000 1000\n");
+    Assert.assertTrue(new File(v1CgroupDir, "memory/system.slice").mkdirs());
+    final CgroupHostMonitor monitor = new CgroupHostMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        "/system.slice",
+        EnumSet.of(CgroupHostMonitor.Resource.CPU, CgroupHostMonitor.Resource.MEMORY),
+        null,
+        1,
+        new ProcCgroupDiscoverer()
+        {
+          @Override
+          public File getProc()
+          {
+            return v1ProcDir;
+          }
+        },
+        temporaryFolder.getRoot().toPath()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    // Only in the cpu hierarchy, its memory isn't monitored
+    Assert.assertEquals(
+        ImmutableSet.of(CgroupHostMonitor.Resource.CPU),
+        monitor.getResources("druid.service")
+    );
+    Assert.assertTrue(byCgroup(emitter, "cgroup/memory_usage_bytes").isEmpty());
+  }
+
+  @Test
+  public void testSequential() throws Exception
+  {
+    final CgroupHostMonitor monitor = new CgroupHostMonitor(
+        "some_feed",
+        ImmutableMap.of("dim", new String[]{"value"}),
+        "system.slice",
+        EnumSet.of(CgroupHostMonitor.Resource.MEMORY, CgroupHostMonitor.Resource.CPU),
+        null,
+        4,
+        discoverer,
+        temporaryFolder.getRoot().toPath()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(2, byCgroup(emitter, "cgroup/memory_usage_bytes").size());
+    emitter.getEvents().clear();
+
+    write(
+        new File(new File(sliceDir, "druid.service"), "cpu.stat"),
+        "usage_usec 5000\nuser_usec 3000\nsystem_usec 2000\n"
+    );
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    // usr and sys, of all the cpus together
+    Assert.assertEquals(
+        ImmutableMap.of("druid.service", 1_000_000L, "kafka.service", 0L),
+        byCgroup(emitter, "cgroup/cpu_time_delta_ns")
+    );
+    // Told apart by cgroup as well
+    Assert.assertEquals(
+        ImmutableSet.of("druid.service", "kafka.service"),
+        byCgroup(emitter, "cgroup/cpu_time_delta_ns_elapsed").keySet()
+    );
+    emitter.getEvents().clear();
+
+    // Counters of a re-created cgroup
+    write(
+        new File(new File(sliceDir, "kafka.service"), "cpu.stat"),
+        "usage_usec 1000\nuser_usec 500\nsystem_usec 500\n"
+    );
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.of("kafka.service", 1),
+        byCgroup(emitter, "cgroup/cpu_time_delta_ns_suppressed")
+    );
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.StringUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupIoMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File ioDir;
+  private File sysBlockDir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    ioDir = temporaryFolder.newFolder();
+    sysBlockDir = temporaryFolder.newFolder();
+    final File sda = new File(temporaryFolder.newFolder(), "sda");
+    Assert.assertTrue(sda.mkdir());
+    Files.createSymbolicLink(new File(sysBlockDir, "8:0").toPath(), sda.toPath());
+  }
+
+  private void write(String file, String content) throws IOException
+  {
+    Files.write(new File(ioDir, file).toPath(), StringUtils.toUtf8(content));
+  }
+
+  private CgroupIoMonitor monitor()
+  {
+    return new CgroupIoMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        () -> 384,
+        (cgroup, pid) -> ioDir.toPath(),
+        sysBlockDir.toPath()
+    );
+  }
+
+  private static String v1(String device, long read, long write)
+  {
+    return String.format(
+        "%1$s Read %2$d\n%1$s Write %3$d\n%1$s Sync 0\n%1$s Async %3$d\n%1$s Total %4$d\n",
+        device,
+        read,
+        write,
+        read + write
+    );
+  }
+
+  @Test
+  public void testV1() throws Exception
+  {
+    write("blkio.throttle.io_service_bytes", v1("8:0", 4096, 8192) + v1("253:7", 0, 0) + "Total 12288\n");
+    write("blkio.throttle.io_serviced", v1("8:0", 1, 2) + v1("253:7", 0, 0) + "Total 3\n");
+    final CgroupIoMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    write("blkio.throttle.io_service_bytes", v1("8:0", 8192, 8192) + v1("253:7", 512, 1024) + "Total 17920\n");
+    write("blkio.throttle.io_serviced", v1("8:0", 2, 2) + v1("253:7", 1, 1) + "Total 6\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.<String, Number>builder()
+                    .put("cgroup/io_read_bytes/sda", 4096L)
+                    .put("cgroup/io_write_bytes/sda", 0L)
+                    .put("cgroup/io_reads/sda", 1L)
+                    .put("cgroup/io_writes/sda", 0L)
+                    .put("cgroup/io_read_bytes/253:7", 512L)
+                    .put("cgroup/io_write_bytes/253:7", 1024L)
+                    .put("cgroup/io_reads/253:7", 1L)
+                    .put("cgroup/io_writes/253:7", 1L)
+                    .build(),
+        emitter.drainMetrics("ioDevice")
+    );
+  }
+
+  @Test
+  public void testV2() throws Exception
+  {
+    write("io.stat", "8:0 rbytes=1000 wbytes=2000 rios=10 wios=20 dbytes=0 dios=0\n");
+    // Emitted by PressureMonitor
+    write("io.pressure", "some avg10=1.50 avg60=0.50 avg300=0.10 total=1000\n");
+    final CgroupIoMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    write("io.stat", "8:0 rbytes=1500 wbytes=2000 rios=15 wios=20 dbytes=0 dios=0\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics("ioDevice");
+    Assert.assertEquals(500L, metrics.get("cgroup/io_read_bytes/sda"));
+    Assert.assertEquals(5L, metrics.get("cgroup/io_reads/sda"));
+    Assert.assertEquals(0L, metrics.get("cgroup/io_writes/sda"));
+    Assert.assertEquals(4, metrics.size());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.StringUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupMemoryMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File memoryDir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    memoryDir = temporaryFolder.newFolder();
+  }
+
+  private void write(String file, String content) throws IOException
+  {
+    Files.write(new File(memoryDir, file).toPath(), StringUtils.toUtf8(content));
+  }
+
+  private CgroupMemoryMonitor monitor()
+  {
+    return new CgroupMemoryMonitor("some_feed", ImmutableMap.of(), () -> 384, (cgroup, pid) -> memoryDir.toPath());
+  }
+
+  @Test
+  public void testV1() throws Exception
+  {
+    write("memory.usage_in_bytes", "4000\n");
+    write("memory.limit_in_bytes", "8000\n");
+    write("memory.failcnt", "2\n");
+    write("memory.oom_control", "oom_kill_disable 0\nunder_oom 0\noom_kill 1\n");
+    write("memory.stat", "cache 1000\nrss 2500\nrss_huge 0\nmapped_file 300\npgmajfault 10\ntotal_cache 1000\n");
+    final CgroupMemoryMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(
+        ImmutableMap.<String, Number>builder()
+                    .put("cgroup/memory_usage_bytes", 4000L)
+                    .put("cgroup/memory_limit_bytes", 8000L)
+                    .put("cgroup/memory_usage_ratio", 0.5)
+                    .put("cgroup/memory_cache_bytes", 1000L)
+                    .put("cgroup/memory_rss_bytes", 2500L)
+                    .put("cgroup/memory_mapped_file_bytes", 300L)
+                    .put("cgroup/memory_cache_ratio", 0.25)
+                    .build(),
+        emitter.drainMetrics()
+    );
+
+    write("memory.failcnt", "5\n");
+    write("memory.oom_control", "oom_kill_disable 0\nunder_oom 0\noom_kill 2\n");
+    write("memory.stat", "cache 1000\nrss 2500\nmapped_file 300\npgmajfault 17\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics();
+    Assert.assertEquals(7L, metrics.get("cgroup/memory_pgmajfault"));
+    Assert.assertEquals(3L, metrics.get("cgroup/memory_limit_hits"));
+    Assert.assertEquals(1L, metrics.get("cgroup/memory_oom_kills"));
+  }
+
+  @Test
+  public void testV1Unlimited() throws Exception
+  {
+    write("memory.usage_in_bytes", "4000\n");
+    write("memory.limit_in_bytes", "9223372036854771712\n");
+    write("memory.failcnt", "0\n");
+    write("memory.stat", "cache 1000\nrss 2500\nmapped_file 300\npgmajfault 10\n");
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor().doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics();
+    Assert.assertFalse(metrics.containsKey("cgroup/memory_limit_bytes"));
+    Assert.assertFalse(metrics.containsKey("cgroup/memory_usage_ratio"));
+  }
+
+  @Test
+  public void testV2() throws Exception
+  {
+    write("memory.current", "4000\n");
+    write("memory.max", "max\n");
+    write("memory.events", "low 0\nhigh 0\nmax 3\noom 1\noom_kill 1\n");
+    write("memory.stat", "anon 2500\nfile 2000\nkernel_stack 100\nfile_mapped 300\npgmajfault 10\n");
+    final CgroupMemoryMonitor monitor = monitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Map<String, Number> metrics = emitter.drainMetrics();
+    Assert.assertFalse(metrics.containsKey("cgroup/memory_limit_bytes"));
+    Assert.assertEquals(2000L, metrics.get("cgroup/memory_cache_bytes"));
+    Assert.assertEquals(2500L, metrics.get("cgroup/memory_rss_bytes"));
+    Assert.assertEquals(0.5, metrics.get("cgroup/memory_cache_ratio"));
+
+    write("memory.max", "16000\n");
+    write("memory.events", "low 0\nhigh 0\nmax 4\noom 2\noom_kill 3\n");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics();
+    Assert.assertEquals(16000L, metrics.get("cgroup/memory_limit_bytes"));
+    Assert.assertEquals(0.25, metrics.get("cgroup/memory_usage_ratio"));
+    Assert.assertEquals(0L, metrics.get("cgroup/memory_pgmajfault"));
+    Assert.assertEquals(1L, metrics.get("cgroup/memory_limit_hits"));
+    Assert.assertEquals(2L, metrics.get("cgroup/memory_oom_kills"));
+  }
+}
@@ -18,6 +18,7 @@ package com.metamx.metrics;
 
 import com.google.common.collect.ImmutableMap;
 import com.metamx.common.StringUtils;
+import com.metamx.emitter.service.ServiceMetricEvent;
 import com.metamx.metrics.cgroups.CgroupDiscoverer;
 import com.metamx.metrics.cgroups.ProcCgroupDiscoverer;
 import com.metamx.metrics.cgroups.TestUtils;
@@ -107,4 +108,38 @@ public class CpuAcctDeltaMonitorTest
     Assert.assertTrue(monitor.doMonitor(emitter));
     Assert.assertEquals(2 * 128 + 1, emitter.getEvents().size());
   }
+
+  @Test
+  public void testCounterReset() throws Exception
+  {
+    final File cpuacct = new File(cpuacctDir, "cpuacct.usage_all");
+    final CpuAcctDeltaMonitor monitor = new CpuAcctDeltaMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        () -> PID, (cgroup, pid) -> cpuacctDir.toPath()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    monitor.doMonitor(emitter);
+    Assert.assertEquals(0, emitter.getEvents().size());
+
+    // The cgroup is re-created, its counters start over
+    try (final FileOutputStream fos = new FileOutputStream(cpuacct)) {
+      fos.write(StringUtils.toUtf8("cpu user system\n"));
+      for (int i = 0; i < 128; ++i) {
+        fos.write(StringUtils.toUtf8(String.format("%d 0 0\n", i)));
+      }
+    }
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(1, emitter.getEvents().size());
+    Assert.assertEquals(
+        "cgroup/cpu_time_delta_ns_suppressed",
+        ((ServiceMetricEvent) emitter.getEvents().get(0)).getMetric()
+    );
+
+    // The reset counters are the new baseline
+    Assert.assertTrue(cpuacct.delete());
+    TestUtils.copyResource("/cpuacct.usage_all", cpuacct);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(1 + 2 * 128 + 1, emitter.getEvents().size());
+  }
 }
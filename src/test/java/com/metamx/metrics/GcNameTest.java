@@ -16,15 +16,16 @@
 
 package com.metamx.metrics;
 
-import org.gridkit.lab.jvm.perfdata.JStatData;
+import com.metamx.metrics.perfdata.PerfData;
+import java.io.IOException;
 
 public class GcNameTest
 {
 
-  public static void main(String[] args)
+  public static void main(String[] args) throws IOException
   {
-    JStatData jStatData = JStatData.connect(SigarUtil.getCurrentProcessId());
-    System.out.println(jStatData.getAllCounters().get("sun.gc.collector.0.name").getValue());
-    System.out.println(jStatData.getAllCounters().get("sun.gc.collector.1.name").getValue());
+    PerfData perfData = PerfData.map(PerfData.file(JvmPidDiscoverer.instance().getPid()));
+    System.out.println(perfData.getString("sun.gc.collector.0.name"));
+    System.out.println(perfData.getString("sun.gc.collector.1.name"));
   }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GcPauseMonitorTest
+{
+  @Test
+  public void testPauses()
+  {
+    final GcPauseMonitor monitor = new GcPauseMonitor(ImmutableMap.of());
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    for (int i = 1; i <= 100; i++) {
+      monitor.record("G1 Young Generation", "end of minor GC", "G1 Evacuation Pause", i, 1000);
+    }
+    monitor.record("G1 Young Generation", "end of minor GC", "System.gc()", 500, 2000);
+    monitor.record("G1 Old Generation", "end of major GC", "Allocation Failure", 3000, 5000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+
+    Map<String, Number> metrics = emitter.drainMetrics("gcGen", "gcName", "gcCause");
+    Assert.assertEquals(500L, metrics.get("jvm/gc/pause/max/young/g1"));
+    Assert.assertEquals(50, metrics.get("jvm/gc/pause/p50/young/g1").longValue(), 50 / 16);
+    Assert.assertEquals(100, metrics.get("jvm/gc/pause/p99/young/g1").longValue(), 100 / 16);
+    Assert.assertEquals(500L, metrics.get("jvm/gc/pause/p999/young/g1"));
+    Assert.assertEquals(5550L, metrics.get("jvm/gc/pause/total/young/g1"));
+    Assert.assertEquals(100L, metrics.get("jvm/gc/pause/count/young/g1/G1 Evacuation Pause"));
+    Assert.assertEquals(1L, metrics.get("jvm/gc/pause/count/young/g1/System.gc()"));
+    Assert.assertEquals(102000L, metrics.get("jvm/gc/pause/reclaimed/young/g1"));
+    Assert.assertEquals(3000L, metrics.get("jvm/gc/pause/max/old/g1"));
+    Assert.assertEquals(1L, metrics.get("jvm/gc/pause/count/old/g1/Allocation Failure"));
+    // 8 metrics of the young collector, with two causes, 7 of the old one
+    Assert.assertEquals(15, metrics.size());
+
+    // Only the pauses since the previous tick, and only the causes seen
+    monitor.record("G1 Young Generation", "end of minor GC", "G1 Evacuation Pause", 20, -100);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("gcGen", "gcName", "gcCause");
+    Assert.assertEquals(20L, metrics.get("jvm/gc/pause/max/young/g1"));
+    Assert.assertEquals(20L, metrics.get("jvm/gc/pause/total/young/g1"));
+    Assert.assertEquals(1L, metrics.get("jvm/gc/pause/count/young/g1/G1 Evacuation Pause"));
+    Assert.assertEquals(0L, metrics.get("jvm/gc/pause/reclaimed/young/g1"));
+    Assert.assertEquals(7, metrics.size());
+
+    // Nothing without pauses
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+  }
+
+  @Test
+  public void testCycles()
+  {
+    final GcPauseMonitor monitor = new GcPauseMonitor(ImmutableMap.of());
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    // Concurrent cycles aren't pauses
+    monitor.record("ZGC Cycles", "end of GC cycle", "Allocation Rate", 10_000, 1000);
+    monitor.record("ZGC Pauses", "end of GC pause", "Allocation Rate", 1, 0);
+    monitor.record("ConcurrentMarkSweep", "end of major GC", "CMS Initial Mark", 5000, 1000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics("gcGen", "gcName", "gcCause");
+    Assert.assertEquals(10_000L, metrics.get("jvm/gc/cycle/max/young/ZGC Cycles"));
+    Assert.assertEquals(1L, metrics.get("jvm/gc/pause/max/young/ZGC Pauses"));
+    Assert.assertEquals(5000L, metrics.get("jvm/gc/cycle/max/old/cms"));
+    Assert.assertNull(metrics.get("jvm/gc/pause/max/young/ZGC Cycles"));
+    Assert.assertNull(metrics.get("jvm/gc/pause/max/old/cms"));
+  }
+
+  @Test
+  public void testGcNotifications()
+  {
+    final GcPauseMonitor monitor = new GcPauseMonitor(ImmutableMap.of());
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    monitor.start();
+    try {
+      System.gc();
+      // Notifications are delivered asynchronously
+      final long deadline = System.currentTimeMillis() + 10_000;
+      while (emitter.getEvents().isEmpty() && System.currentTimeMillis() < deadline) {
+        Assert.assertTrue(monitor.monitor(emitter));
+        Thread.sleep(10);
+      }
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    finally {
+      monitor.stop();
+    }
+    Assert.assertTrue(
+        emitter.drainMetrics("gcGen", "gcName", "gcCause")
+               .keySet()
+               .stream()
+               .anyMatch(metric -> metric.endsWith("System.gc()"))
+    );
+    Assert.assertFalse(monitor.monitor(emitter));
+  }
+}
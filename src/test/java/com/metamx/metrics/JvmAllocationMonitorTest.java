@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JvmAllocationMonitorTest
+{
+  private static MonitorTick tick(long seconds)
+  {
+    return new MonitorTick(new DateTime(), TimeUnit.SECONDS.toNanos(seconds), 0);
+  }
+
+  @Test
+  public void testAllocationAndPromotion()
+  {
+    final AtomicLong edenUsed = new AtomicLong(1000);
+    final JvmAllocationMonitor monitor = new JvmAllocationMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        false,
+        "eden",
+        ImmutableSet.of("old"),
+        edenUsed::get
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter, tick(0)));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    // Eden filled up to 5000, was collected down to 0 promoting 300 bytes, and filled up to 2000 again
+    monitor.record(true, 5000, 0, 10_000, 10_300);
+    edenUsed.set(2000);
+    Assert.assertTrue(monitor.doMonitor(emitter, tick(2)));
+    Map<String, Number> metrics = emitter.drainMetrics("threadName");
+    Assert.assertEquals(6000L, metrics.get("jvm/alloc/bytes"));
+    Assert.assertEquals(3000L, metrics.get("jvm/alloc/rate"));
+    Assert.assertEquals(300L, metrics.get("jvm/promotion/bytes"));
+    Assert.assertEquals(150L, metrics.get("jvm/promotion/rate"));
+
+    // Old collections promote nothing
+    monitor.record(false, 2500, 0, 10_300, 4000);
+    edenUsed.set(100);
+    Assert.assertTrue(monitor.doMonitor(emitter, tick(3)));
+    metrics = emitter.drainMetrics("threadName");
+    Assert.assertEquals(600L, metrics.get("jvm/alloc/bytes"));
+    Assert.assertEquals(0L, metrics.get("jvm/promotion/bytes"));
+
+    // Eden was emptied, but the notification is late, so emission waits for it
+    edenUsed.set(0);
+    Assert.assertTrue(monitor.doMonitor(emitter, tick(4)));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+    monitor.record(true, 400, 0, 4000, 4050);
+    Assert.assertTrue(monitor.doMonitor(emitter, tick(5)));
+    metrics = emitter.drainMetrics("threadName");
+    Assert.assertEquals(300L, metrics.get("jvm/alloc/bytes"));
+    Assert.assertEquals(150L, metrics.get("jvm/alloc/rate"));
+    Assert.assertEquals(50L, metrics.get("jvm/promotion/bytes"));
+  }
+
+  @Test
+  public void testThreadAllocation() throws Exception
+  {
+    final JvmAllocationMonitor monitor = new JvmAllocationMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        true,
+        null,
+        ImmutableSet.of(),
+        null
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+
+    final CountDownLatch allocated = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final Thread thread = new Thread(
+        () -> {
+          byte[][] arrays = new byte[100][];
+          for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new byte[10_000];
+          }
+          allocated.countDown();
+          try {
+            done.await();
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        },
+        "allocation-test-12"
+    );
+    thread.start();
+    try {
+      allocated.await();
+      Assert.assertTrue(monitor.doMonitor(emitter));
+      final Number bytes = emitter.drainMetrics("threadName").get("jvm/threads/alloc/bytes/allocation-test-#");
+      Assert.assertNotNull(bytes);
+      Assert.assertTrue(bytes.longValue() >= 1_000_000);
+    }
+    finally {
+      done.countDown();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testGetThreadName()
+  {
+    Assert.assertEquals("pool-#-thread-#", JvmAllocationMonitor.getThreadName("pool-1-thread-12"));
+    Assert.assertEquals("main", JvmAllocationMonitor.getThreadName("main"));
+    Assert.assertEquals("#", JvmAllocationMonitor.getThreadName("42"));
+    Assert.assertEquals("", JvmAllocationMonitor.getThreadName(""));
+  }
+}
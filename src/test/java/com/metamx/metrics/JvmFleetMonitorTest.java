@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metamx.emitter.core.Event;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import com.metamx.metrics.perfdata.PerfData;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JvmFleetMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static Set<String> metrics(StubServiceEmitter emitter)
+  {
+    final Set<String> metrics = new HashSet<>();
+    for (Event event : emitter.getEvents()) {
+      metrics.add(((ServiceMetricEvent) event).getMetric());
+    }
+    emitter.getEvents().clear();
+    return metrics;
+  }
+
+  @Test
+  public void testJvmsComeAndGo() throws Exception
+  {
+    final long pid = JvmPidDiscoverer.instance().getPid();
+    final Path ownFile = PerfData.file(pid);
+    Assume.assumeTrue(Files.exists(ownFile));
+
+    // A copy of the hsperfdata of this JVM, under a made up pid, along with files which are not hsperfdata
+    final File tmpDir = temporaryFolder.newFolder();
+    final File userDir = new File(tmpDir, "hsperfdata_someone");
+    Assert.assertTrue(userDir.mkdir());
+    final File jvmFile = new File(userDir, "12345");
+    Files.copy(ownFile, jvmFile.toPath());
+    Files.write(new File(userDir, "not_a_pid").toPath(), new byte[16]);
+    Files.write(new File(userDir, "23456").toPath(), new byte[16]);
+    Assert.assertTrue(new File(tmpDir, "not_hsperfdata").mkdir());
+
+    final JvmFleetMonitor monitor = new JvmFleetMonitor("some_feed", ImmutableMap.of(), tmpDir.toPath(), null);
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(ImmutableSet.of(12345L), monitor.getPids());
+    final Set<String> metrics = metrics(emitter);
+    Assert.assertTrue(metrics.contains("jvm/gc/count"));
+    Assert.assertTrue(metrics.contains("jvm/gc/mem/used"));
+    Assert.assertTrue(metrics.contains("jvm/threads/live"));
+    Assert.assertTrue(metrics.contains("jvm/fleet/count"));
+
+    Assert.assertTrue(jvmFile.delete());
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(ImmutableSet.of(), monitor.getPids());
+    Assert.assertEquals(ImmutableSet.of("jvm/fleet/count"), metrics(emitter));
+  }
+
+  @Test
+  public void testDeadPids() throws Exception
+  {
+    final Path ownFile = PerfData.file(JvmPidDiscoverer.instance().getPid());
+    Assume.assumeTrue(Files.exists(ownFile));
+    final File tmpDir = temporaryFolder.newFolder();
+    final File userDir = new File(tmpDir, "hsperfdata_someone");
+    Assert.assertTrue(userDir.mkdir());
+    Files.copy(ownFile, new File(userDir, "12345").toPath());
+    Files.copy(ownFile, new File(userDir, "23456").toPath());
+    final File procDir = temporaryFolder.newFolder();
+    Assert.assertTrue(new File(procDir, "23456").mkdir());
+
+    final JvmFleetMonitor monitor = new JvmFleetMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        tmpDir.toPath(),
+        procDir.toPath()
+    );
+    Assert.assertTrue(monitor.doMonitor(new StubServiceEmitter("service", "host")));
+    Assert.assertEquals(ImmutableSet.of(23456L), monitor.getPids());
+  }
+
+  @Test
+  public void testDefaultTmpDir()
+  {
+    final String tmpDir = System.getProperty("java.io.tmpdir");
+    System.setProperty("java.io.tmpdir", "/var/tmp/elsewhere");
+    try {
+      Assert.assertEquals(Paths.get("/tmp"), new JvmFleetMonitor().getTmpDir());
+    }
+    finally {
+      System.setProperty("java.io.tmpdir", tmpDir);
+    }
+  }
+
+  @Test
+  public void testMainClass()
+  {
+    Assert.assertEquals("com.example.Main", JvmFleetMonitor.getMainClass("com.example.Main --port 8080"));
+    Assert.assertEquals("app.jar", JvmFleetMonitor.getMainClass("/opt/app/lib/app.jar server"));
+    Assert.assertEquals("unknown", JvmFleetMonitor.getMainClass(""));
+    Assert.assertEquals("unknown", JvmFleetMonitor.getMainClass(null));
+  }
+}
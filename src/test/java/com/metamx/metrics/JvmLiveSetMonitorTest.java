@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JvmLiveSetMonitorTest
+{
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  @Test
+  public void testLiveSet()
+  {
+    final JvmLiveSetMonitor monitor = new JvmLiveSetMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        HOUR,
+        ImmutableSet.of()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    // Nothing until a collection
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    // No slope from a single sample
+    monitor.record("old", 0, 1000, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Map<String, Number> metrics = emitter.drainMetrics("poolName");
+    Assert.assertEquals(1000L, metrics.get("jvm/liveset/bytes/old"));
+    Assert.assertEquals(1, metrics.size());
+
+    // Growing by 1000 bytes an hour, reaching the max in 8 hours
+    monitor.record("old", HOUR, 2000, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("poolName");
+    Assert.assertEquals(2000L, metrics.get("jvm/liveset/bytes/old"));
+    Assert.assertEquals(1000L, metrics.get("jvm/liveset/slope/old"));
+    Assert.assertEquals(TimeUnit.HOURS.toSeconds(8), metrics.get("jvm/liveset/exhaustion_s/old"));
+
+    // Flat for an hour, the slope decays by 1/e
+    monitor.record("old", 2 * HOUR, 2000, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("poolName");
+    Assert.assertEquals((long) (1000 * Math.exp(-1)), metrics.get("jvm/liveset/slope/old"));
+
+    // Many close samples weigh as much as a single one over the same time
+    final JvmLiveSetMonitor other = new JvmLiveSetMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        HOUR,
+        ImmutableSet.of()
+    );
+    other.record("old", 0, 1000, 10_000);
+    other.record("old", HOUR, 2000, 10_000);
+    for (int i = 1; i <= 60; i++) {
+      other.record("old", HOUR + i * TimeUnit.MINUTES.toMillis(1), 2000, 10_000);
+    }
+    Assert.assertTrue(other.doMonitor(emitter));
+    Assert.assertEquals(
+        1000 * Math.exp(-1),
+        emitter.drainMetrics("poolName").get("jvm/liveset/slope/old").doubleValue(),
+        1
+    );
+
+    // Shrinking, or without a max, never exhausted
+    monitor.record("old", 3 * HOUR, 1000, 10_000);
+    monitor.record("other", 0, 1000, -1);
+    monitor.record("other", HOUR, 2000, -1);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("poolName");
+    Assert.assertTrue(metrics.get("jvm/liveset/slope/old").longValue() < 0);
+    Assert.assertEquals(1000L, metrics.get("jvm/liveset/slope/other"));
+    Assert.assertEquals(4, metrics.size());
+  }
+
+  @Test
+  public void testMixed()
+  {
+    final JvmLiveSetMonitor monitor = new JvmLiveSetMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        HOUR,
+        ImmutableSet.of()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    // Growing with young collections, nothing until a run shrinking the pool ends
+    monitor.recordMixed("old", 0, 3000, 10_000);
+    monitor.recordMixed("old", 10, 4000, 10_000);
+    monitor.recordMixed("old", 20, 3000, 10_000);
+    monitor.recordMixed("old", 30, 2000, 10_000);
+    monitor.recordMixed("old", 40, 2000, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+
+    // The lowest usage of the mixed collections is sampled once the pool grows again
+    monitor.recordMixed("old", HOUR, 2500, 10_000);
+    monitor.recordMixed("old", HOUR + 10, 5000, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Map<String, Number> metrics = emitter.drainMetrics("poolName");
+    Assert.assertEquals(2000L, metrics.get("jvm/liveset/bytes/old"));
+    Assert.assertEquals(1, metrics.size());
+
+    monitor.recordMixed("old", 2 * HOUR, 3000, 10_000);
+    monitor.recordMixed("old", 2 * HOUR + 10, 3500, 10_000);
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("poolName");
+    Assert.assertEquals(3000L, metrics.get("jvm/liveset/bytes/old"));
+    Assert.assertEquals(
+        1000 * TimeUnit.HOURS.toMillis(1) / (double) (2 * HOUR - 40),
+        metrics.get("jvm/liveset/slope/old").doubleValue(),
+        1
+    );
+  }
+
+  @Test
+  public void testGcNotifications() throws Exception
+  {
+    final ImmutableSet.Builder<String> collectors = ImmutableSet.builder();
+    ManagementFactory.getGarbageCollectorMXBeans().forEach(bean -> collectors.add(bean.getName()));
+    final ImmutableSet.Builder<String> pools = ImmutableSet.builder();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pools.add(pool.getName());
+      }
+    }
+    final JvmLiveSetMonitor monitor = new JvmLiveSetMonitor(
+        "metrics",
+        ImmutableMap.of(),
+        collectors.build(),
+        ImmutableSet.of(),
+        HOUR,
+        pools.build()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    monitor.start();
+    try {
+      System.gc();
+      // Notifications are delivered asynchronously
+      final long deadline = System.currentTimeMillis() + 10_000;
+      while (emitter.getEvents().isEmpty() && System.currentTimeMillis() < deadline) {
+        Assert.assertTrue(monitor.monitor(emitter));
+        Thread.sleep(10);
+      }
+    }
+    finally {
+      monitor.stop();
+    }
+    Assert.assertFalse(emitter.getEvents().isEmpty());
+    Assert.assertFalse(monitor.monitor(emitter));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyedLongDiffTest
+{
+  @Test
+  public void testDiff()
+  {
+    final KeyedLongDiff diff = new KeyedLongDiff("metric1", "metric2");
+    Assert.assertEquals(2, diff.getSchemaSize());
+    Assert.assertEquals("metric2", diff.getMetric(1));
+
+    final long[] values = new long[]{10, 100};
+    Assert.assertNull(diff.to("key1", values));
+    values[0] = 15;
+    values[1] = 130;
+    Assert.assertArrayEquals(new long[]{5, 30}, diff.to("key1", values));
+
+    // Keys are independent
+    Assert.assertNull(diff.to("key2", new long[]{1, 1}));
+    Assert.assertArrayEquals(new long[]{1, 2}, diff.to("key2", new long[]{2, 3}));
+
+    // Values were copied, not retained
+    values[0] = 20;
+    values[1] = 130;
+    Assert.assertArrayEquals(new long[]{5, 0}, diff.to("key1", values));
+  }
+
+  @Test
+  public void testRetainRecent()
+  {
+    final KeyedLongDiff diff = new KeyedLongDiff(2, "metric");
+    diff.to("key1", new long[]{1});
+    diff.to("key2", new long[]{1});
+    diff.retainRecent();
+    Assert.assertEquals(2, diff.size());
+
+    // key2 unseen for one tick, still within maxIdleTicks
+    diff.to("key1", new long[]{2});
+    diff.retainRecent();
+    Assert.assertEquals(2, diff.size());
+
+    // key2 unseen for two ticks, forgotten
+    diff.to("key1", new long[]{3});
+    diff.retainRecent();
+    Assert.assertEquals(1, diff.size());
+
+    // and starts over when seen again
+    Assert.assertNull(diff.to("key2", new long[]{10}));
+    Assert.assertArrayEquals(new long[]{1}, diff.to("key2", new long[]{11}));
+    Assert.assertEquals(2, diff.size());
+  }
+
+  @Test
+  public void testCounterReset()
+  {
+    final KeyedLongDiff diff = new KeyedLongDiff("counter", "gauge").setGauges("gauge");
+    diff.to("key", new long[]{100, 100});
+    // Gauges may decrease
+    Assert.assertArrayEquals(new long[]{10, -50}, diff.to("key", new long[]{110, 50}));
+    Assert.assertEquals(0, diff.getSuppressedSamples());
+
+    // Counters may not, the sample is suppressed
+    Assert.assertNull(diff.to("key", new long[]{5, 50}));
+    Assert.assertEquals(1, diff.getSuppressedSamples());
+
+    // and the reset values are the new baseline
+    Assert.assertArrayEquals(new long[]{5, 0}, diff.to("key", new long[]{10, 50}));
+  }
+
+  @Test
+  public void testCounterWrap()
+  {
+    final KeyedLongDiff diff = new KeyedLongDiff("counter").setCounterWidth(32);
+    final long max = 0xFFFFFFFFL;
+    diff.to("key", new long[]{max - 10});
+    Assert.assertArrayEquals(new long[]{21}, diff.to("key", new long[]{10}));
+    Assert.assertEquals(0, diff.getSuppressedSamples());
+
+    // Too little back to be a wrap
+    Assert.assertNull(diff.to("key", new long[]{5}));
+    Assert.assertEquals(1, diff.getSuppressedSamples());
+
+    Assert.assertEquals(KeyedLongDiff.RESET, KeyedLongDiff.counterDelta(10, 5, Long.SIZE));
+    Assert.assertEquals(5, KeyedLongDiff.counterDelta(5, 10, Long.SIZE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSchemaMismatch()
+  {
+    new KeyedLongDiff("metric1", "metric2").to("key", new long[]{1});
+  }
+}
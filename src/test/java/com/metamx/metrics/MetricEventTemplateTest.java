@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricEventTemplateTest
+{
+  @Test
+  public void testBuild()
+  {
+    final MetricEventTemplate template = new MetricEventTemplate(
+        "feed",
+        ImmutableMap.of("dim1", new String[]{"value1"}, "dim2", new String[]{"value2.1", "value2.2"})
+    );
+    final MetricEventTemplate derived = template.withDimension("sub", "subValue").withDimension("dim1", "other");
+
+    final DateTime timestamp = new DateTime(1000);
+    final ServiceMetricEvent event = template.build(timestamp, "metric", 1).build("service", "host");
+    Assert.assertEquals("feed", event.getFeed());
+    Assert.assertEquals("metric", event.getMetric());
+    Assert.assertEquals(1, event.getValue());
+    Assert.assertEquals(timestamp, event.getCreatedTime());
+    Assert.assertEquals(ImmutableList.of("value1"), event.getUserDims().get("dim1"));
+    Assert.assertEquals(ImmutableList.of("value2.1", "value2.2"), event.getUserDims().get("dim2"));
+    Assert.assertNull(event.getUserDims().get("sub"));
+
+    final ServiceMetricEvent derivedEvent = derived.build(timestamp, "metric2", 2).build("service", "host");
+    Assert.assertEquals("feed", derivedEvent.getFeed());
+    Assert.assertEquals("subValue", derivedEvent.getUserDims().get("sub"));
+    Assert.assertEquals("other", derivedEvent.getUserDims().get("dim1"));
+    Assert.assertEquals(ImmutableList.of("value2.1", "value2.2"), derivedEvent.getUserDims().get("dim2"));
+
+    // Building events doesn't change the template
+    Assert.assertEquals(ImmutableList.of("value1"), template.getDimension("dim1"));
+    Assert.assertNull(template.getDimension("sub"));
+  }
+
+  @Test
+  public void testTickCache()
+  {
+    final TickCache<String, MetricEventTemplate> cache = new TickCache<>();
+    final MetricEventTemplate template = new MetricEventTemplate("feed", ImmutableMap.<String, String[]>of());
+
+    final MetricEventTemplate eth0 = cache.get("eth0", name -> template.withDimension("netName", name));
+    cache.get("eth1", name -> template.withDimension("netName", name));
+    cache.retainUsed();
+    Assert.assertEquals(2, cache.size());
+
+    // Cached values are reused
+    Assert.assertSame(eth0, cache.get("eth0", name -> template.withDimension("netName", name)));
+    cache.retainUsed();
+
+    // eth1 wasn't used during the last tick
+    Assert.assertEquals(1, cache.size());
+    Assert.assertSame(eth0, cache.get("eth0", name -> template.withDimension("netName", name)));
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.metamx.emitter.core.Event;
+import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitorSchedulerTest
+{
+  private ScheduledExecutorService exec;
+  private StubServiceEmitter emitter;
+
+  @Before
+  public void setUp()
+  {
+    exec = Executors.newScheduledThreadPool(2);
+    emitter = new StubServiceEmitter("service", "host");
+  }
+
+  @After
+  public void tearDown()
+  {
+    exec.shutdownNow();
+  }
+
+  @Test
+  public void testDefaultPeriod()
+  {
+    final CountingMonitor monitor = new CountingMonitor();
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(10)),
+        exec,
+        emitter,
+        ImmutableList.<Monitor>of(monitor)
+    );
+    Assert.assertEquals(Duration.millis(10), scheduler.getPeriod(monitor));
+  }
+
+  @Test(timeout = 5000)
+  public void testPerMonitorPeriods() throws InterruptedException
+  {
+    final CountingMonitor fast = new CountingMonitor();
+    final CountingMonitor slow = new CountingMonitor();
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.standardHours(1)),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(fast, Duration.millis(5))
+    );
+    scheduler.start();
+    scheduler.addMonitor(slow);
+    Assert.assertEquals(Duration.standardHours(1), scheduler.getPeriod(slow));
+    while (fast.runs.get() < 3) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(0, slow.runs.get());
+    scheduler.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void testIsolatedWorkers() throws InterruptedException
+  {
+    final ExecutorService workers = Executors.newFixedThreadPool(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingMonitor fast = new CountingMonitor();
+    final CountingMonitor stuck = new CountingMonitor()
+    {
+      @Override
+      public boolean doMonitor(ServiceEmitter emitter)
+      {
+        super.doMonitor(emitter);
+        // Ignores interrupts, like a monitor stuck in native code
+        Uninterruptibles.awaitUninterruptibly(release);
+        return true;
+      }
+    };
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(5), Duration.millis(20)),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(fast, Duration.millis(5), stuck, Duration.millis(5)),
+        workers
+    );
+    scheduler.start();
+    while (fast.runs.get() < 20 || scheduler.getSkippedTicks(stuck) < 3) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(1, stuck.runs.get());
+    Assert.assertEquals(0, scheduler.getSkippedTicks(fast));
+    scheduler.stop();
+    release.countDown();
+    workers.shutdownNow();
+  }
+
+  @Test(timeout = 5000)
+  public void testSkipOverrunPolicy() throws InterruptedException
+  {
+    final SlowMonitor monitor = new SlowMonitor(25);
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(10), null, OverrunPolicy.SKIP),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(monitor, Duration.millis(10))
+    );
+    scheduler.start();
+    while (monitor.runs.get() < 3) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+    // Every run spans at least two missed ticks
+    Assert.assertTrue(scheduler.getSkippedTicks(monitor) >= 4);
+  }
+
+  @Test(timeout = 5000)
+  public void testSkipCancelledRuns() throws InterruptedException
+  {
+    final ExecutorService workers = Executors.newFixedThreadPool(2);
+    final TickRecordingMonitor hanging = new TickRecordingMonitor()
+    {
+      @Override
+      public boolean doMonitor(ServiceEmitter emitter)
+      {
+        super.doMonitor(emitter);
+        // Hangs until cancelled at its deadline, the period by default
+        try {
+          Thread.sleep(Long.MAX_VALUE);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return true;
+      }
+    };
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(20), null, OverrunPolicy.SKIP),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(hanging, Duration.millis(20)),
+        workers
+    );
+    scheduler.start();
+    while (hanging.runs.get() < 5) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+    final List<MonitorTick> ticks = ImmutableList.copyOf(hanging.ticks);
+    final long skipped = scheduler.getSkippedTicks(hanging);
+    workers.shutdownNow();
+
+    // Each cancelled tick is counted once, and the next tick is run right away rather than skipped too. A tick may
+    // still be skipped once in a while, if the cancelled run didn't return yet.
+    final int runs = ticks.size() - 1;
+    final long firstMillis = ticks.get(0).getTimestamp().getMillis();
+    final long spannedTicks = (ticks.get(runs).getTimestamp().getMillis() - firstMillis) / 20;
+    Assert.assertTrue(spannedTicks < 2 * runs);
+    Assert.assertTrue(skipped >= spannedTicks && skipped <= spannedTicks + 1);
+  }
+
+  @Test(timeout = 5000)
+  public void testRunLateOverrunPolicy() throws InterruptedException
+  {
+    final SlowMonitor monitor = new SlowMonitor(25);
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(10), null, OverrunPolicy.RUN_LATE),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(monitor, Duration.millis(10))
+    );
+    scheduler.start();
+    while (monitor.runs.get() < 3) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+    Assert.assertEquals(0, scheduler.getSkippedTicks(monitor));
+  }
+
+  @Test(timeout = 5000)
+  public void testTickMetrics() throws InterruptedException
+  {
+    final CountingMonitor monitor = new CountingMonitor();
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(5)),
+        exec,
+        emitter,
+        ImmutableList.<Monitor>of(monitor)
+    );
+    scheduler.start();
+    while (monitor.runs.get() < 2) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+    Thread.sleep(20);
+
+    final Set<String> metrics = new HashSet<>();
+    for (Event event : emitter.getEvents()) {
+      final ServiceMetricEvent metricEvent = (ServiceMetricEvent) event;
+      metrics.add(metricEvent.getMetric());
+      Assert.assertEquals(CountingMonitor.class.getName(), metricEvent.toMap().get("monitorClass"));
+    }
+    Assert.assertEquals(
+        ImmutableSet.of("monitor/tick/lateness", "monitor/tick/latency", "monitor/tick/skipped"),
+        metrics
+    );
+  }
+
+  @Test(timeout = 5000)
+  public void testAlignedTicks() throws InterruptedException
+  {
+    final List<MonitorTick> ticks = new CopyOnWriteArrayList<>();
+    final CountingMonitor monitor = new CountingMonitor()
+    {
+      @Override
+      public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+      {
+        // Never early, and not later than the jitter window allows, give or take scheduling delays
+        final long delay = System.currentTimeMillis() - tick.getTimestamp().getMillis();
+        Assert.assertTrue(delay >= 0 && delay < 50 + 20);
+        ticks.add(tick);
+        return super.doMonitor(emitter, tick);
+      }
+    };
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        alignedConfig(Duration.millis(50), Duration.millis(20)),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(monitor, Duration.millis(50))
+    );
+    scheduler.start();
+    while (monitor.runs.get() < 3) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+    for (MonitorTick tick : ticks) {
+      Assert.assertEquals(0, tick.getTimestamp().getMillis() % 50);
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testSharedTicks() throws InterruptedException
+  {
+    final TickRecordingMonitor first = new TickRecordingMonitor();
+    final TickRecordingMonitor second = new TickRecordingMonitor();
+    final MonitorScheduler scheduler = new MonitorScheduler(
+        config(Duration.millis(10)),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(first, Duration.millis(10))
+    );
+    scheduler.start();
+    // Added later, but on the same grid
+    Thread.sleep(15);
+    scheduler.addMonitor(second);
+    while (second.runs.get() < 3) {
+      Thread.sleep(5);
+    }
+    scheduler.stop();
+
+    final long origin = first.ticks.get(0).getTimestamp().getMillis();
+    for (MonitorTick tick : second.ticks) {
+      Assert.assertEquals(0, (tick.getTimestamp().getMillis() - origin) % 10);
+    }
+    Assert.assertTrue(second.ticks.get(0).isFirst());
+    Assert.assertTrue(second.ticks.get(1).getElapsedNanos() > 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositivePeriod()
+  {
+    new MonitorScheduler(
+        config(Duration.standardMinutes(1)),
+        exec,
+        emitter,
+        ImmutableMap.<Monitor, Duration>of(new CountingMonitor(), Duration.ZERO)
+    );
+  }
+
+  static MonitorSchedulerConfig config(final Duration period)
+  {
+    return config(period, null);
+  }
+
+  static MonitorSchedulerConfig config(final Duration period, final Duration timeout)
+  {
+    return config(period, timeout, OverrunPolicy.RUN_LATE);
+  }
+
+  static MonitorSchedulerConfig config(
+      final Duration period,
+      final Duration timeout,
+      final OverrunPolicy overrunPolicy
+  )
+  {
+    return new MonitorSchedulerConfig()
+    {
+      @Override
+      public Duration getEmitterPeriod()
+      {
+        return period;
+      }
+
+      @Override
+      public Duration getMonitorTimeout()
+      {
+        return timeout;
+      }
+
+      @Override
+      public OverrunPolicy getOverrunPolicy()
+      {
+        return overrunPolicy;
+      }
+    };
+  }
+
+  static MonitorSchedulerConfig alignedConfig(final Duration period, final Duration jitter)
+  {
+    return new MonitorSchedulerConfig()
+    {
+      @Override
+      public Duration getEmitterPeriod()
+      {
+        return period;
+      }
+
+      @Override
+      public boolean isAlignTicks()
+      {
+        return true;
+      }
+
+      @Override
+      public Duration getTickJitter()
+      {
+        return jitter;
+      }
+    };
+  }
+
+  static class CountingMonitor extends AbstractMonitor
+  {
+    final AtomicInteger runs = new AtomicInteger();
+
+    @Override
+    public boolean doMonitor(ServiceEmitter emitter)
+    {
+      runs.incrementAndGet();
+      return true;
+    }
+  }
+
+  static class TickRecordingMonitor extends CountingMonitor
+  {
+    final List<MonitorTick> ticks = new CopyOnWriteArrayList<>();
+
+    @Override
+    public boolean doMonitor(ServiceEmitter emitter, MonitorTick tick)
+    {
+      ticks.add(tick);
+      return super.doMonitor(emitter, tick);
+    }
+  }
+
+  static class SlowMonitor extends CountingMonitor
+  {
+    private final long sleepMillis;
+
+    SlowMonitor(long sleepMillis)
+    {
+      this.sleepMillis = sleepMillis;
+    }
+
+    @Override
+    public boolean doMonitor(ServiceEmitter emitter)
+    {
+      Uninterruptibles.sleepUninterruptibly(sleepMillis, TimeUnit.MILLISECONDS);
+      return super.doMonitor(emitter);
+    }
+  }
+}
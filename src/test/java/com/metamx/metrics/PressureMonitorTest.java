@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.common.RE;
+import com.metamx.common.StringUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PressureMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File procDir;
+  private File pressureDir;
+  private File cgroupDir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    procDir = temporaryFolder.newFolder();
+    pressureDir = new File(procDir, "pressure");
+    Assert.assertTrue(pressureDir.mkdir());
+    cgroupDir = temporaryFolder.newFolder();
+  }
+
+  private static void write(File file, String content) throws IOException
+  {
+    Files.write(file.toPath(), StringUtils.toUtf8(content));
+  }
+
+  private static String pressure(String someAvg10, long someTotal, String fullAvg10, long fullTotal)
+  {
+    return "some avg10=" + someAvg10 + " avg60=1.50 avg300=0.25 total=" + someTotal + "\n"
+           + "full avg10=" + fullAvg10 + " avg60=0.50 avg300=0.00 total=" + fullTotal + "\n";
+  }
+
+  @Test
+  public void testHostAndCgroup() throws Exception
+  {
+    // cpu before Linux 5.13, without the full line
+    write(new File(pressureDir, "cpu"), "some avg10=2.04 avg60=0.75 avg300=0.40 total=157656722\n");
+    write(new File(pressureDir, "memory"), pressure("0.5", 1000, "0.25", 500));
+    write(new File(pressureDir, "io"), pressure("3", 2000, "1", 1000));
+    write(new File(cgroupDir, "memory.pressure"), pressure("10", 5000, "5", 2500));
+    final PressureMonitor monitor = new PressureMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        procDir.toPath(),
+        () -> 384,
+        (cgroup, pid) -> cgroupDir.toPath()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Map<String, Number> metrics = emitter.drainMetrics("psiResource");
+    Assert.assertEquals(2.04, metrics.get("sys/pressure_some_avg10/cpu"));
+    Assert.assertEquals(0.75, metrics.get("sys/pressure_some_avg60/cpu"));
+    Assert.assertFalse(metrics.containsKey("sys/pressure_full_avg10/cpu"));
+    Assert.assertEquals(0.25, metrics.get("sys/pressure_full_avg10/memory"));
+    Assert.assertEquals(0.5, metrics.get("sys/pressure_full_avg60/memory"));
+    Assert.assertEquals(3.0, metrics.get("sys/pressure_some_avg10/io"));
+    Assert.assertEquals(10.0, metrics.get("cgroup/pressure_some_avg10/memory"));
+    Assert.assertEquals(5.0, metrics.get("cgroup/pressure_full_avg10/memory"));
+    // No cpu.pressure and io.pressure in the cgroup, no deltas on the first tick
+    Assert.assertEquals(2 + 4 + 4 + 4, metrics.size());
+
+    write(new File(pressureDir, "cpu"), "some avg10=2.04 avg60=0.75 avg300=0.40 total=157657722\n");
+    write(new File(pressureDir, "memory"), pressure("0.5", 1100, "0.25", 550));
+    write(new File(cgroupDir, "memory.pressure"), pressure("10", 5500, "5", 2600));
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    metrics = emitter.drainMetrics("psiResource");
+    Assert.assertEquals(1000L, metrics.get("sys/pressure_some_us/cpu"));
+    Assert.assertFalse(metrics.containsKey("sys/pressure_full_us/cpu"));
+    Assert.assertEquals(100L, metrics.get("sys/pressure_some_us/memory"));
+    Assert.assertEquals(50L, metrics.get("sys/pressure_full_us/memory"));
+    Assert.assertEquals(0L, metrics.get("sys/pressure_some_us/io"));
+    Assert.assertEquals(500L, metrics.get("cgroup/pressure_some_us/memory"));
+    Assert.assertEquals(100L, metrics.get("cgroup/pressure_full_us/memory"));
+  }
+
+  @Test
+  public void testCgroupDiscoveryFailure() throws Exception
+  {
+    write(new File(pressureDir, "io"), pressure("3", 2000, "1", 1000));
+    final AtomicInteger discoveries = new AtomicInteger();
+    final PressureMonitor monitor = new PressureMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        procDir.toPath(),
+        () -> 384,
+        (cgroup, pid) -> {
+          discoveries.incrementAndGet();
+          throw new RE("No [%s] hierarchy", cgroup);
+        }
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(3.0, emitter.drainMetrics("psiResource").get("sys/pressure_some_avg10/io"));
+
+    // Host keys not seen for a while are still forgotten
+    Assert.assertTrue(new File(pressureDir, "io").delete());
+    for (int i = 0; i < KeyedLongDiff.DEFAULT_MAX_IDLE_TICKS + 1; i++) {
+      Assert.assertTrue(monitor.doMonitor(emitter));
+    }
+    write(new File(pressureDir, "io"), pressure("3", 3000, "1", 1500));
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    final Map<String, Number> metrics = emitter.drainMetrics("psiResource");
+    Assert.assertEquals(3.0, metrics.get("sys/pressure_some_avg10/io"));
+    Assert.assertFalse(metrics.containsKey("sys/pressure_some_us/io"));
+    Assert.assertEquals(KeyedLongDiff.DEFAULT_MAX_IDLE_TICKS + 3, discoveries.get());
+  }
+
+  @Test
+  public void testNoPsi() throws Exception
+  {
+    final PressureMonitor monitor = new PressureMonitor(
+        "some_feed",
+        ImmutableMap.of(),
+        temporaryFolder.newFolder().toPath(),
+        null,
+        null
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertTrue(emitter.getEvents().isEmpty());
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SigarSessionTest
+{
+  @Test
+  public void testLifecycle() throws SigarException
+  {
+    final SigarSession session = new SigarSession();
+    Assert.assertFalse(session.isOpen());
+    final long pid = session.call(Sigar::getPid);
+    Assert.assertTrue(pid > 0);
+    Assert.assertTrue(session.isOpen());
+
+    session.close();
+    Assert.assertFalse(session.isOpen());
+    // Re-opened on the next call
+    Assert.assertEquals(pid, (long) session.call(Sigar::getPid));
+    session.close();
+    session.close();
+  }
+}
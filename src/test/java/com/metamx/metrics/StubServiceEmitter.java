@@ -16,11 +16,17 @@
 
 package com.metamx.metrics;
 
+import com.google.common.base.Joiner;
+import com.metamx.common.ISE;
 import com.metamx.emitter.core.Event;
 import com.metamx.emitter.service.ServiceEmitter;
+import com.metamx.emitter.service.ServiceMetricEvent;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 class StubServiceEmitter extends ServiceEmitter
 {
@@ -42,6 +48,34 @@ class StubServiceEmitter extends ServiceEmitter
     return events;
   }
 
+  /**
+   * Removes the emitted metrics and returns their values by metric and the values of the given dimensions, e. g.
+   * "jvm/gc/pause/count/old/G1 Old Generation" for the dimensions "gcGen" and "gcName". Missing dimensions are left
+   * out of the key.
+   *
+   * @throws ISE if two metrics share a key, i. e. only differ by dimensions not given
+   */
+  public Map<String, Number> drainMetrics(String... dimensions)
+  {
+    final Map<String, Number> metrics = new HashMap<>();
+    for (Event event : events) {
+      final ServiceMetricEvent metricEvent = (ServiceMetricEvent) event;
+      final StringBuilder key = new StringBuilder(metricEvent.getMetric());
+      for (String dimension : dimensions) {
+        final Object value = metricEvent.getUserDims().get(dimension);
+        if (value != null) {
+          // Array dimensions are emitted as lists
+          key.append('/').append(value instanceof List ? Joiner.on(',').join((List<?>) value) : value);
+        }
+      }
+      if (metrics.put(key.toString(), metricEvent.getValue()) != null) {
+        throw new ISE("Metric[%s] emitted twice with the same dimensions %s", key, Arrays.toString(dimensions));
+      }
+    }
+    events.clear();
+    return metrics;
+  }
+
   @Override
   public void start()
   {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.metamx.emitter.core.Event;
+import com.metamx.emitter.service.ServiceMetricEvent;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SysMonitorTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static int cpuEvents(StubServiceEmitter emitter)
+  {
+    int cpuEvents = 0;
+    for (Event event : emitter.getEvents()) {
+      if ("sys/cpu".equals(((ServiceMetricEvent) event).getMetric())) {
+        cpuEvents++;
+      }
+    }
+    emitter.getEvents().clear();
+    return cpuEvents;
+  }
+
+  @Test
+  public void testCpuNoElapsedTime() throws Exception
+  {
+    final File procDir = temporaryFolder.newFolder();
+    final File stat = new File(procDir, "stat");
+    final String times = "cpu  100 0 50 1000 10 0 0 0 0 0\ncpu0 100 0 50 1000 10 0 0 0 0 0\n";
+    Files.write(stat.toPath(), times.getBytes(StandardCharsets.US_ASCII));
+    final SysMonitor monitor = new SysMonitor(
+        ImmutableMap.of(),
+        "metrics",
+        Long.SIZE,
+        EnumSet.of(SysMonitor.StatsGroup.CPU),
+        procDir.toPath()
+    );
+    final StubServiceEmitter emitter = new StubServiceEmitter("service", "host");
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(0, cpuEvents(emitter));
+
+    // Back to back runs within the same jiffy
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(0, cpuEvents(emitter));
+
+    Files.write(stat.toPath(), times.replace(" 1000 ", " 1100 ").getBytes(StandardCharsets.US_ASCII));
+    Assert.assertTrue(monitor.doMonitor(emitter));
+    Assert.assertEquals(7, cpuEvents(emitter));
+  }
+  @Test
+  public void testCpuWaitDecrease()
+  {
+    final KeyedLongDiff diff = SysMonitor.newCpuDiff();
+    // user, sys, nice, wait, irq, softIrq, stolen, total
+    Assert.assertNull(diff.to("0", new long[]{100, 50, 0, 40, 5, 5, 0, 1000}));
+    // iowait of an idle cpu going down doesn't suppress the other times
+    final long[] deltas = diff.to("0", new long[]{160, 70, 0, 30, 6, 7, 1, 1100});
+    Assert.assertArrayEquals(new long[]{60, 20, 0, -10, 1, 2, 1, 100}, deltas);
+    Assert.assertEquals(0, diff.getSuppressedSamples());
+    Assert.assertArrayEquals(
+        new long[]{10, 0, 0, 5, 0, 0, 0, 100},
+        diff.to("0", new long[]{170, 70, 0, 35, 6, 7, 1, 1200})
+    );
+
+    // Other times are still counters
+    Assert.assertNull(diff.to("0", new long[]{0, 70, 0, 35, 6, 7, 1, 1200}));
+    Assert.assertEquals(1, diff.getSuppressedSamples());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.cgroups;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingCgroupDiscovererTest
+{
+  private static final int PID = 384;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private File procDir;
+  private File cgroupDir;
+  private CachingCgroupDiscoverer discoverer;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    cgroupDir = temporaryFolder.newFolder();
+    procDir = temporaryFolder.newFolder();
+    TestUtils.setUpCgroups(procDir, cgroupDir, PID);
+    discoverer = new CachingCgroupDiscoverer(
+        new ProcCgroupDiscoverer()
+        {
+          @Override
+          public File getProc()
+          {
+            return procDir;
+          }
+        },
+        procDir,
+        0
+    );
+  }
+
+  @Test
+  public void testCached() throws Exception
+  {
+    final Path path = discoverer.discover("cpu", PID);
+    Assert.assertEquals(
+        new File(
+            cgroupDir,
+            "cpu,cpuacct/system.slice/mesos-agent-druid.service/f12ba7e0-fa16-462e-bb9d-652ccc27f0ee"
+        ).toPath(),
+        path
+    );
+    Assert.assertEquals(path, discoverer.discover("cpu", PID));
+    Assert.assertEquals(path, discoverer.discover("cpuacct", PID));
+    Assert.assertEquals(2, discoverer.getDiscoveries());
+    Assert.assertEquals(path, discoverer.discover("cpu", PID));
+    Assert.assertEquals(2, discoverer.getDiscoveries());
+  }
+
+  @Test
+  public void testDirectoryGone() throws Exception
+  {
+    final Path path = discoverer.discover("cpu", PID);
+    Files.delete(path);
+    try {
+      discoverer.discover("cpu", PID);
+      Assert.fail();
+    }
+    catch (RuntimeException e) {
+      // expected, the delegate doesn't find the directory either
+    }
+    Files.createDirectory(path);
+    Assert.assertEquals(path, discoverer.discover("cpu", PID));
+    Assert.assertEquals(2, discoverer.getDiscoveries());
+  }
+
+  @Test
+  public void testCgroupsChanged() throws Exception
+  {
+    final Path path = discoverer.discover("cpu", PID);
+    final Path pidCgroup = new File(new File(procDir, Integer.toString(PID)), "cgroup").toPath();
+    final String cgroups = new String(Files.readAllBytes(pidCgroup), StandardCharsets.UTF_8);
+    Files.write(
+        pidCgroup,
+        cgroups.replace("f12ba7e0-fa16-462e-bb9d-652ccc27f0ee", "moved").getBytes(StandardCharsets.UTF_8)
+    );
+    final Path moved = path.resolveSibling("moved");
+    Files.createDirectory(moved);
+    Assert.assertEquals(moved, discoverer.discover("cpu", PID));
+    Assert.assertEquals(2, discoverer.getDiscoveries());
+    Assert.assertEquals(moved, discoverer.discover("cpu", PID));
+    Assert.assertEquals(2, discoverer.getDiscoveries());
+  }
+}
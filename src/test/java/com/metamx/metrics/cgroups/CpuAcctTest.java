@@ -75,6 +75,31 @@ public class CpuAcctTest
     Assert.assertEquals(0L, metric.sysTime());
   }
 
+  @Test
+  public void testUnified() throws IOException
+  {
+    final File unifiedProcDir = temporaryFolder.newFolder();
+    final File unifiedCgroupDir = temporaryFolder.newFolder();
+    TestUtils.setUpUnifiedCgroups(unifiedProcDir, unifiedCgroupDir, PID);
+    final CpuAcct cpuAcct = new CpuAcct(
+        new ProcCgroupDiscoverer()
+        {
+          @Override
+          public File getProc()
+          {
+            return unifiedProcDir;
+          }
+        },
+        () -> PID
+    );
+    final CpuAcct.CpuAcctMetric snapshot = cpuAcct.snapshot();
+    Assert.assertTrue(snapshot.isAggregated());
+    Assert.assertEquals(1, snapshot.cpuCount());
+    Assert.assertEquals(3170382341000L, snapshot.usrTime());
+    Assert.assertEquals(1212577774000L, snapshot.sysTime());
+    Assert.assertTrue(snapshot.cumulativeSince(snapshot).isAggregated());
+  }
+
   @Test
   public void testSimpleLoad()
   {
@@ -16,12 +16,11 @@
 
 package com.metamx.metrics.cgroups;
 
-import com.google.common.collect.ImmutableSet;
 import com.metamx.common.StringUtils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.util.regex.Pattern;
 import org.junit.Assert;
 import org.junit.Before;
@@ -71,24 +70,23 @@ public class ProcCgroupDiscovererTest
   }
 
   @Test
-  public void testParse() throws Exception
+  public void testUnified() throws Exception
   {
-    final ProcCgroupDiscoverer.ProcMountsEntry entry = ProcCgroupDiscoverer.ProcMountsEntry.parse(
-        "/dev/md126 /ebs xfs rw,seclabel,noatime,attr2,inode64,sunit=1024,swidth=16384,noquota 0 0"
-    );
-    Assert.assertEquals("/dev/md126", entry.dev);
-    Assert.assertEquals(Paths.get("/ebs"), entry.path);
-    Assert.assertEquals("xfs", entry.type);
-    Assert.assertEquals(ImmutableSet.of(
-        "rw",
-        "seclabel",
-        "noatime",
-        "attr2",
-        "inode64",
-        "sunit=1024",
-        "swidth=16384",
-        "noquota"
-    ), entry.options);
+    final File unifiedProcDir = temporaryFolder.newFolder();
+    final File unifiedCgroupDir = temporaryFolder.newFolder();
+    TestUtils.setUpUnifiedCgroups(unifiedProcDir, unifiedCgroupDir, PID);
+    final CgroupDiscoverer unifiedDiscoverer = new ProcCgroupDiscoverer()
+    {
+      @Override
+      public File getProc()
+      {
+        return unifiedProcDir;
+      }
+    };
+    final Path expected = new File(unifiedCgroupDir, "system.slice/druid.service").toPath();
+    Assert.assertEquals(expected, unifiedDiscoverer.discover("cpu", PID));
+    // Controllers missing from /proc/cgroups are looked up in the unified hierarchy too
+    Assert.assertEquals(expected, unifiedDiscoverer.discover("io", PID));
   }
 
   @Test
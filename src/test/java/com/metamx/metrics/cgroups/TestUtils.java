@@ -55,6 +55,36 @@ public class TestUtils
     copyResource("/proc.pid.cgroup", new File(pidDir, "cgroup"));
   }
 
+  /**
+   * Sets up a cgroup2-only host, with the pid in /system.slice/druid.service
+   */
+  public static void setUpUnifiedCgroups(
+      File procDir,
+      File cgroupDir,
+      int pid
+  ) throws IOException
+  {
+    final File procMountsTemplate = new File(procDir, "mounts.template");
+    copyResource("/proc.mounts.unified", procMountsTemplate);
+    final String procMountsString = StringUtils.fromUtf8(Files.readAllBytes(procMountsTemplate.toPath()));
+    Files.write(
+        new File(procDir, "mounts").toPath(),
+        StringUtils.toUtf8(procMountsString.replaceAll(
+            Pattern.quote("/sys/fs/cgroup"),
+            cgroupDir.getAbsolutePath()
+        ))
+    );
+
+    final File serviceDir = new File(cgroupDir, "system.slice/druid.service");
+    Assert.assertTrue(serviceDir.mkdirs());
+    copyResource("/cgroup2.cpu.stat", new File(serviceDir, "cpu.stat"));
+
+    copyResource("/proc.cgroups.unified", new File(procDir, "cgroups"));
+    final File pidDir = new File(procDir, Integer.toString(pid));
+    Assert.assertTrue(pidDir.mkdir());
+    copyResource("/proc.pid.cgroup.unified", new File(pidDir, "cgroup"));
+  }
+
   public static void copyResource(String resource, File out) throws IOException
   {
     Files.copy(TestUtils.class.getResourceAsStream(resource), out.toPath());
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.metamx.metrics.perfdata;
+
+import com.metamx.common.ISE;
+import com.metamx.metrics.JvmPidDiscoverer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PerfDataTest
+{
+  private static final int ENTRY_SIZE = 64;
+
+  /**
+   * Lays out a file of the given byte order with a frequency, a tick counter and a string counter
+   */
+  private static ByteBuffer file(ByteOrder order)
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(32 + 3 * ENTRY_SIZE).order(ByteOrder.BIG_ENDIAN);
+    buffer.putInt(0, 0xcafec0c0);
+    buffer.order(order);
+    buffer.put(4, (byte) (order == ByteOrder.BIG_ENDIAN ? 0 : 1));
+    buffer.put(5, (byte) 2);
+    buffer.put(7, (byte) 1);
+    buffer.putInt(8, buffer.capacity());
+    buffer.putInt(24, 32);
+    buffer.putInt(28, 3);
+    putEntry(buffer, 32, "sun.os.hrt.frequency", 'J', 4, 1_000_000L, null);
+    putEntry(buffer, 32 + ENTRY_SIZE, "sun.gc.collector.0.time", 'J', 3, 2_500_000L, null);
+    putEntry(buffer, 32 + 2 * ENTRY_SIZE, "sun.gc.collector.0.name", 'B', 5, 0, "PSScavenge");
+    return buffer;
+  }
+
+  private static void putEntry(ByteBuffer buffer, int entry, String name, char type, int units, long value, String str)
+  {
+    buffer.putInt(entry, ENTRY_SIZE);
+    buffer.putInt(entry + 4, 20);
+    buffer.put(entry + 12, (byte) type);
+    buffer.put(entry + 14, (byte) units);
+    buffer.putInt(entry + 16, 48);
+    final byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+    for (int i = 0; i < nameBytes.length; i++) {
+      buffer.put(entry + 20 + i, nameBytes[i]);
+    }
+    if (str == null) {
+      buffer.putLong(entry + 48, value);
+    } else {
+      buffer.putInt(entry + 8, 16);
+      final byte[] bytes = str.getBytes(StandardCharsets.US_ASCII);
+      for (int i = 0; i < bytes.length; i++) {
+        buffer.put(entry + 48 + i, bytes[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testCounters()
+  {
+    for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+      final PerfData perfData = new PerfData(file(order));
+      Assert.assertEquals(3, perfData.getNames().size());
+      Assert.assertTrue(perfData.isAccessible());
+      Assert.assertTrue(perfData.isTicks("sun.gc.collector.0.time"));
+      final long ticks = perfData.getLong(perfData.offset("sun.gc.collector.0.time"));
+      Assert.assertEquals(2_500_000L, ticks);
+      // 1 MHz timer
+      Assert.assertEquals(2_500_000_000L, perfData.ticksToNanos(ticks));
+      Assert.assertEquals("PSScavenge", perfData.getString("sun.gc.collector.0.name"));
+      Assert.assertNull(perfData.getString("sun.gc.collector.1.name"));
+      Assert.assertFalse(perfData.contains("sun.gc.collector.1.time"));
+    }
+  }
+
+  @Test(expected = ISE.class)
+  public void testMissingCounter()
+  {
+    new PerfData(file(ByteOrder.LITTLE_ENDIAN)).offset("sun.gc.collector.0.name");
+  }
+
+  @Test(expected = ISE.class)
+  public void testNotPerfData()
+  {
+    new PerfData(ByteBuffer.allocate(64));
+  }
+
+  @Test
+  public void testDirectory()
+  {
+    final String tmpDir = System.getProperty("java.io.tmpdir");
+    System.setProperty("java.io.tmpdir", "/var/tmp/elsewhere");
+    try {
+      Assert.assertEquals(Paths.get("/tmp/hsperfdata_someone"), PerfData.directory("someone"));
+      Assert.assertEquals(
+          Paths.get("/tmp", "hsperfdata_" + System.getProperty("user.name"), "123"),
+          PerfData.file(123)
+      );
+    }
+    finally {
+      System.setProperty("java.io.tmpdir", tmpDir);
+    }
+  }
+
+  @Test
+  public void testCurrentJvm() throws IOException
+  {
+    final Path file = PerfData.file(JvmPidDiscoverer.instance().getPid());
+    Assume.assumeTrue(Files.exists(file));
+    final PerfData perfData = PerfData.map(file);
+    Assert.assertTrue(perfData.contains("sun.gc.collector.0.invocations"));
+    Assert.assertNotNull(perfData.getString("sun.gc.generation.0.space.0.name"));
+    final long uptimeNanos = perfData.ticksToNanos(perfData.getLong(perfData.offset("sun.os.hrt.ticks")));
+    Assert.assertTrue(uptimeNanos > 0);
+    Assert.assertTrue(ManagementFactory.getRuntimeMXBean().getUptime() > 0);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.proc;
+
+import com.google.common.collect.ImmutableList;
+import com.metamx.common.ISE;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcFileReaderTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path write(String content) throws Exception
+  {
+    final File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+    return file.toPath();
+  }
+
+  @Test
+  public void testTokenize() throws Exception
+  {
+    final ProcFileReader reader = new ProcFileReader().read(write("eth0: 12 -1\tfoo\n  0.52 1.5 3\nlast"));
+    Assert.assertEquals(1, reader.matchField(ImmutableList.of("lo", "eth0"), ':'));
+    Assert.assertEquals(12, reader.nextLong());
+    Assert.assertEquals(-1, reader.nextLong());
+    Assert.assertFalse(reader.isEndOfLine());
+    Assert.assertEquals(-1, reader.matchField(ImmutableList.of("bar"), ' '));
+    Assert.assertEquals("foo", reader.nextField());
+    Assert.assertTrue(reader.isEndOfLine());
+    Assert.assertTrue(reader.nextLine());
+    Assert.assertEquals(0.52, reader.nextDouble(), 1e-9);
+    Assert.assertEquals(1.5, reader.nextDouble(), 1e-9);
+    Assert.assertEquals(3, reader.nextDouble(), 1e-9);
+    Assert.assertTrue(reader.nextLine());
+    Assert.assertFalse(reader.skipPrefix("lost"));
+    Assert.assertTrue(reader.skipPrefix("la"));
+    Assert.assertEquals("st", reader.nextField());
+    Assert.assertFalse(reader.nextLine());
+    Assert.assertFalse(reader.hasRemaining());
+  }
+
+  @Test
+  public void testCgroupLines() throws Exception
+  {
+    final ProcFileReader reader = new ProcFileReader().read(
+        write("cgroup /sys/fs/cgroup/cpu,cpuacct cgroup rw,nosuid,cpu,cpuacct 0 0\n9:cpu,cpuacct:/a b/c\n")
+    );
+    Assert.assertTrue(reader.matchField("cgroup"));
+    final int pathStart = reader.position();
+    reader.skipField();
+    Assert.assertFalse(reader.matchField("cgroup2"));
+    Assert.assertTrue(reader.matchField("cgroup"));
+    Assert.assertTrue(reader.fieldContains("cpuacct", ','));
+    Assert.assertTrue(reader.fieldContains("rw", ','));
+    Assert.assertFalse(reader.fieldContains("cpuset", ','));
+    Assert.assertFalse(reader.fieldContains("cpu,cpuacct", ','));
+    reader.position(pathStart);
+    Assert.assertEquals("/sys/fs/cgroup/cpu,cpuacct", reader.nextField());
+    reader.nextLine();
+    Assert.assertEquals(9, reader.nextLong());
+    Assert.assertTrue(reader.skipPast(':'));
+    Assert.assertTrue(reader.skipPast(':'));
+    Assert.assertEquals("/a b/c", reader.restOfLine());
+    Assert.assertFalse(reader.skipPast(':'));
+  }
+
+  @Test
+  public void testNotANumber() throws Exception
+  {
+    final ProcFileReader reader = new ProcFileReader().read(write("abc"));
+    try {
+      reader.nextLong();
+      Assert.fail();
+    }
+    catch (ISE e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testGrow() throws Exception
+  {
+    final StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append(i).append('\n');
+    }
+    final ProcFileReader reader = new ProcFileReader(16);
+    for (int read = 0; read < 2; read++) {
+      reader.read(write(content.toString()));
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertEquals(i, reader.nextLong());
+        reader.nextLine();
+      }
+      Assert.assertFalse(reader.hasRemaining());
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Metamarkets Group Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.metamx.metrics.proc;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcReadersTest
+{
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private final ProcFileReader reader = new ProcFileReader();
+  private Path procDir;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    final File dir = temporaryFolder.newFolder();
+    procDir = dir.toPath();
+    Files.createDirectories(procDir.resolve("net"));
+    copyResource("/proc.meminfo", procDir.resolve("meminfo"));
+    copyResource("/proc.stat", procDir.resolve("stat"));
+    copyResource("/proc.diskstats", procDir.resolve("diskstats"));
+    copyResource("/proc.mounts", procDir.resolve("mounts"));
+    copyResource("/proc.net.dev", procDir.resolve("net").resolve("dev"));
+    copyResource("/proc.net.snmp", procDir.resolve("net").resolve("snmp"));
+  }
+
+  private static void copyResource(String resource, Path path) throws Exception
+  {
+    try (InputStream stream = ProcReadersTest.class.getResourceAsStream(resource)) {
+      Files.copy(stream, path);
+    }
+  }
+
+  @Test
+  public void testKeyValues() throws Exception
+  {
+    final ProcKeyValues meminfo = new ProcKeyValues(
+        reader,
+        procDir.resolve("meminfo"),
+        "MemTotal",
+        "SwapFree",
+        "Missing",
+        "HugePages_Total"
+    );
+    Assert.assertArrayEquals(new long[]{16318480, 2088444, 0, 0}, meminfo.read());
+  }
+
+  @Test
+  public void testCpuStat() throws Exception
+  {
+    final List<Integer> cpus = new ArrayList<>();
+    final List<long[]> times = new ArrayList<>();
+    new ProcCpuStat(reader, procDir).read(
+        (cpu, cpuTimes) -> {
+          cpus.add(cpu);
+          times.add(cpuTimes.clone());
+        }
+    );
+    Assert.assertEquals(ImmutableList.of(0, 1), cpus);
+    Assert.assertArrayEquals(new long[]{1393, 38, 337, 8110, 260, 0, 17, 3}, times.get(0));
+    Assert.assertEquals(3312, times.get(1)[ProcCpuStat.USER]);
+    Assert.assertEquals(4, times.get(1)[ProcCpuStat.STEAL]);
+  }
+
+  @Test
+  public void testDiskStats() throws Exception
+  {
+    final List<Integer> devices = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    new ProcDiskStats(reader, procDir).read(
+        ImmutableList.of("dm-0", "sda1"),
+        (device, deviceStats) -> {
+          devices.add(device);
+          stats.add(deviceStats.clone());
+        }
+    );
+    Assert.assertEquals(ImmutableList.of(1, 0), devices);
+    Assert.assertEquals(44680, stats.get(0)[ProcDiskStats.READS]);
+    Assert.assertEquals(7462224, stats.get(0)[ProcDiskStats.WRITE_SECTORS]);
+    Assert.assertEquals(2, stats.get(1)[ProcDiskStats.IN_FLIGHT]);
+    Assert.assertEquals(2940, stats.get(1)[ProcDiskStats.TIME_IN_QUEUE]);
+  }
+
+  @Test
+  public void testNetDev() throws Exception
+  {
+    final ProcNetDev netDev = new ProcNetDev(reader, procDir);
+    for (int read = 0; read < 2; read++) {
+      final List<String> names = new ArrayList<>();
+      final List<long[]> stats = new ArrayList<>();
+      netDev.read(
+          (name, interfaceStats) -> {
+            names.add(name);
+            stats.add(interfaceStats.clone());
+          }
+      );
+      Assert.assertEquals(ImmutableList.of("lo", "eth0"), names);
+      Assert.assertEquals(6230345, stats.get(0)[ProcNetDev.RX_BYTES]);
+      Assert.assertEquals(1837264960L, stats.get(1)[ProcNetDev.RX_BYTES]);
+      Assert.assertEquals(3, stats.get(1)[ProcNetDev.RX_FIFO]);
+      Assert.assertEquals(1090, stats.get(1)[ProcNetDev.RX_MULTICAST]);
+      Assert.assertEquals(8, stats.get(1)[ProcNetDev.TX_COLLS]);
+    }
+  }
+
+  @Test
+  public void testNetSnmp() throws Exception
+  {
+    final ProcNetSnmp snmp = new ProcNetSnmp(reader, procDir, "Tcp", "ActiveOpens", "InErrs", "Missing", "MaxConn");
+    Assert.assertArrayEquals(new long[]{30815, 3, 0, -1}, snmp.read());
+    Assert.assertArrayEquals(new long[]{30815, 3, 0, -1}, snmp.read());
+  }
+
+  @Test
+  public void testMounts() throws Exception
+  {
+    final List<ProcMounts.Mount> mounts = new ProcMounts(reader, procDir).read("/dev/");
+    Assert.assertEquals(7, mounts.size());
+    final ProcMounts.Mount usr = mounts.get(1);
+    Assert.assertEquals("/dev/mapper/usr", usr.getDevice());
+    Assert.assertEquals("/usr", usr.getDir());
+    Assert.assertEquals("ext4", usr.getType());
+    Assert.assertEquals("ro,seclabel,relatime,block_validity,delalloc,barrier,user_xattr,acl", usr.getOptions());
+  }
+
+  @Test
+  public void testMountOptions() throws Exception
+  {
+    final String options = "rw,seclabel,noatime,attr2,inode64,sunit=1024,swidth=16384,noquota";
+    Files.write(
+        procDir.resolve("mounts"),
+        ("/dev/md126 /ebs xfs " + options + " 0 0\n").getBytes(StandardCharsets.US_ASCII)
+    );
+    final List<ProcMounts.Mount> mounts = new ProcMounts(reader, procDir).read("/dev/");
+    Assert.assertEquals(1, mounts.size());
+    Assert.assertEquals("/dev/md126", mounts.get(0).getDevice());
+    Assert.assertEquals("/ebs", mounts.get(0).getDir());
+    Assert.assertEquals("xfs", mounts.get(0).getType());
+    Assert.assertEquals(options, mounts.get(0).getOptions());
+  }
+}